@@ -0,0 +1,454 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.applications;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.indexing.Collection;
+import org.terrier.indexing.Document;
+import org.terrier.indexing.QueueCollection;
+import org.terrier.indexing.TRECCollection;
+import org.terrier.indexing.TokenisedDocument;
+import org.terrier.structures.BlockMaxIndex;
+import org.terrier.structures.DocumentStatistics;
+import org.terrier.structures.ImpactIndex;
+import org.terrier.structures.CollectionStatistics;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.indexing.Indexer;
+import org.terrier.structures.indexing.classical.BasicIndexer;
+import org.terrier.terms.VocabularySketch;
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * Builds all the indexes of a grid of term pipelines (stoplists, stemmers and
+ * ngrams) parsing the collection only once. The tokens of each document are
+ * fanned out to one bounded queue per variant, and each variant is indexed by
+ * its own {@link BasicIndexer} in its own thread, with its own term pipeline
+ * and its own share of the memory budget.
+ * 
+ * The variants are read from a file with one variant per line:
+ * 
+ * <pre>
+ * name path termpipelines stopwords ngram
+ * </pre>
+ * 
+ * where {@code -} stands for an empty value, e.g.
+ * 
+ * <pre>
+ * smart_porter   /indexes/smart_porter   Stopwords,PorterStemmer        smart.txt  -
+ * smart_4grams   /indexes/smart_4grams   Stopwords,BasicNGramsTokenizer smart.txt  4
+ * nostop_nostem  /indexes/nostop_nostem  -                              -          -
+ * </pre>
+ * 
+ * A sixth, optional field derives a variant at query time from the index at
+ * its path, which is built by another line, rather than building its own:
+ * {@code conflation:STEMMER} stems it with the
+ * {@link org.terrier.structures.ConflationClasses} of STEMMER, built by
+ * ConflationClasses, and {@code overlay:FILE} stops it with the
+ * {@link org.terrier.structures.StoplistOverlay} written to FILE by
+ * StoplistOverlay. Derived variants are skipped by the indexer and run by
+ * {@link GridRetrieval}, e.g.
+ * 
+ * <pre>
+ * nostop_krovetz /indexes/nostop_nostem  -                              -          -  conflation:KrovetzStemmer
+ * smart_nostem   /indexes/nostop_nostem  Stopwords                      smart.txt  -  overlay:smart.overlay
+ * </pre>
+ * 
+ * The collection is read from {@code collection.spec} as by
+ * {@link TRECCollection}; the tokeniser and the other indexing properties are
+ * shared by all the variants, including the indexer class in
+ * {@code trec.indexer.class} (default BasicIndexer). The properties
+ * {@code grid.memory.budget} (MB, default 1024) and
+ * {@code grid.bytes.per.pointer} (default 16) set the number of pointers each
+ * inverter processes per pass, while {@code grid.queue.size} (default 1000)
+ * bounds the documents waiting for each variant. The {@link BlockMaxIndex} of
+ * each index is built for the comma separated models of
+ * {@code grid.blockmax.models} (default none), with blocks of
+ * {@code grid.blockmax.size} postings (default 128), its
+ * {@link ImpactIndex} for the comma separated models of
+ * {@code grid.impact.models} (default none), with impacts of
+ * {@code grid.impact.bits} bits (default 8), and its
+ * {@link DocumentStatistics} unless {@code grid.docstats} is false.
+ * 
+ * Note that all the indexers run in the same JVM: term pipeline stages must
+ * read their configuration when they are created, as
+ * {@link org.terrier.terms.BasicNGramsTokenizer} does.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class GridIndexer {
+
+	protected static final Logger logger = LoggerFactory.getLogger(GridIndexer.class);
+
+	/**
+	 * A variant of the grid, indexed by its own thread.
+	 */
+	protected static class Variant implements Runnable {
+
+		protected final String name;
+
+		protected final String path;
+
+		protected final String termPipelines;
+
+		protected final String stopwords;
+
+		protected final String ngram;
+
+		/** How the variant is derived at query time, empty if it is indexed */
+		protected final String derivation;
+
+		protected BlockingQueue<Document> queue;
+
+		protected Indexer indexer;
+
+		protected QueueCollection collection;
+
+		/** The time spent by the parser waiting for this variant, in ms */
+		protected long blockedTime = 0;
+
+		protected long elapsedTime = 0;
+
+		protected volatile Throwable failure = null;
+
+		/** The models whose block-max metadata is built once the index is */
+		protected String[] blockMaxModels = new String[0];
+
+		protected int blockSize = BlockMaxIndex.DEFAULT_BLOCK_SIZE;
+
+		/** The models whose impact-ordered index is built once the index is */
+		protected String[] impactModels = new String[0];
+
+		protected int impactBits = ImpactIndex.DEFAULT_BITS;
+
+		/** Whether the document statistics are built once the index is */
+		protected boolean documentStatistics = true;
+
+		Variant(String name, String path, String termPipelines, String stopwords, String ngram, String derivation) {
+			this.name = name;
+			this.path = path;
+			this.termPipelines = termPipelines;
+			this.stopwords = stopwords;
+			this.ngram = ngram;
+			this.derivation = derivation;
+		}
+
+		public void run() {
+			long start = System.currentTimeMillis();
+			try {
+				indexer.index(new Collection[] { collection });
+			} catch (Throwable t) {
+				failure = t;
+				logger.error("Indexing of variant " + name + " failed", t);
+				/* keep consuming up to the end, so that the parser is never blocked by this variant */
+				if (!collection.endOfCollection()) {
+					try {
+						while (queue.take() != QueueCollection.END) {
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+			/* the end of the collection has been consumed, the parser no longer waits for this variant */
+			if (failure == null) {
+				try {
+					for (String model : blockMaxModels) {
+						BlockMaxIndex.build(path, ApplicationSetup.TERRIER_INDEX_PREFIX, model, blockSize);
+					}
+					for (String model : impactModels) {
+						ImpactIndex.build(path, ApplicationSetup.TERRIER_INDEX_PREFIX, model, impactBits);
+					}
+					if (documentStatistics) {
+						DocumentStatistics.build(path, ApplicationSetup.TERRIER_INDEX_PREFIX);
+					}
+				} catch (Throwable t) {
+					failure = t;
+					logger.error("Building the structures of variant " + name + " failed", t);
+				}
+			}
+			elapsedTime = System.currentTimeMillis() - start;
+		}
+	}
+
+	protected final List<Variant> variants = new ArrayList<Variant>();
+
+	/**
+	 * constructor
+	 * 
+	 * @param specFile
+	 *            the file listing the variants
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public GridIndexer(String specFile) throws IOException {
+		for (Variant variant : readVariants(specFile)) {
+			if (variant.derivation.length() == 0) {
+				variants.add(variant);
+			}
+		}
+		if (variants.isEmpty()) {
+			throw new IllegalArgumentException("No indexed variants in " + specFile);
+		}
+	}
+
+	/**
+	 * Reads all the variants of a grid, including those derived at query
+	 * time.
+	 * 
+	 * @param specFile
+	 *            the file listing the variants
+	 * @return the variants
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	protected static List<Variant> readVariants(String specFile) throws IOException {
+		List<Variant> variants = new ArrayList<Variant>();
+		BufferedReader reader = new BufferedReader(new FileReader(specFile));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\\s+");
+				if (fields.length != 5 && fields.length != 6) {
+					throw new IllegalArgumentException("Malformed variant: " + line);
+				}
+				variants.add(new Variant(fields[0], fields[1], value(fields[2]), value(fields[3]), value(fields[4]),
+						fields.length == 6 ? value(fields[5]) : ""));
+			}
+		} finally {
+			reader.close();
+		}
+		if (variants.isEmpty()) {
+			throw new IllegalArgumentException("No variants in " + specFile);
+		}
+		return variants;
+	}
+
+	private static String value(String field) {
+		return "-".equals(field) ? "" : field;
+	}
+
+	/**
+	 * Creates an indexer of the class named by the property
+	 * <code>trec.indexer.class</code>, BasicIndexer by default; names
+	 * without a package are looked up in
+	 * <code>org.terrier.structures.indexing.classical</code>.
+	 * 
+	 * @param path
+	 *            the path of the index
+	 * @param prefix
+	 *            the prefix of the index
+	 * @return the indexer
+	 */
+	protected static Indexer createIndexer(String path, String prefix) {
+		String name = ApplicationSetup.getProperty("trec.indexer.class", "BasicIndexer");
+		String className = name.indexOf('.') < 0 ? "org.terrier.structures.indexing.classical." + name : name;
+		/* a VocabularySketch in the term pipeline writes next to this index */
+		VocabularySketch.setSummaryFile(new File(path, prefix + ".sketch"));
+		try {
+			return Class.forName(className).asSubclass(Indexer.class).getConstructor(String.class, String.class)
+					.newInstance(path, prefix);
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Cannot create the indexer " + className, e);
+		} finally {
+			VocabularySketch.setSummaryFile(null);
+		}
+	}
+
+	/**
+	 * Creates the indexers of the variants. The properties read by the term
+	 * pipeline stages are set before creating each indexer and restored
+	 * afterwards.
+	 */
+	protected void createIndexers() {
+		long budget = Long.parseLong(ApplicationSetup.getProperty("grid.memory.budget", "1024")) * 1024 * 1024;
+		long bytesPerPointer = Long.parseLong(ApplicationSetup.getProperty("grid.bytes.per.pointer", "16"));
+		long pointers = Math.max(budget / variants.size() / bytesPerPointer, 1000000);
+		int queueSize = Integer.parseInt(ApplicationSetup.getProperty("grid.queue.size", "1000"));
+		String models = ApplicationSetup.getProperty("grid.blockmax.models", "").trim();
+		String[] blockMaxModels = models.length() == 0 ? new String[0] : models.split("\\s*,\\s*");
+		int blockSize = Integer.parseInt(ApplicationSetup.getProperty("grid.blockmax.size",
+				Integer.toString(BlockMaxIndex.DEFAULT_BLOCK_SIZE)));
+		String impacts = ApplicationSetup.getProperty("grid.impact.models", "").trim();
+		String[] impactModels = impacts.length() == 0 ? new String[0] : impacts.split("\\s*,\\s*");
+		int impactBits = Integer.parseInt(ApplicationSetup.getProperty("grid.impact.bits",
+				Integer.toString(ImpactIndex.DEFAULT_BITS)));
+		boolean documentStatistics = Boolean.parseBoolean(ApplicationSetup.getProperty("grid.docstats", "true"));
+
+		String[] keys = { "termpipelines", "stopwords.filename", "tokeniser.ngram" };
+		String[] saved = new String[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			saved[i] = ApplicationSetup.getProperty(keys[i], null);
+		}
+		ApplicationSetup.setProperty("invertedfile.processpointers", Long.toString(pointers));
+		for (Variant variant : variants) {
+			ApplicationSetup.setProperty("termpipelines", variant.termPipelines);
+			ApplicationSetup.setProperty("stopwords.filename", variant.stopwords);
+			if (variant.ngram.length() > 0) {
+				ApplicationSetup.setProperty("tokeniser.ngram", variant.ngram);
+			} else {
+				restoreProperty("tokeniser.ngram", saved[2]);
+			}
+			variant.queue = new ArrayBlockingQueue<Document>(queueSize);
+			variant.collection = new QueueCollection(variant.queue);
+			variant.indexer = createIndexer(variant.path, ApplicationSetup.TERRIER_INDEX_PREFIX);
+			variant.blockMaxModels = blockMaxModels;
+			variant.blockSize = blockSize;
+			variant.impactModels = impactModels;
+			variant.impactBits = impactBits;
+			variant.documentStatistics = documentStatistics;
+		}
+		for (int i = 0; i < keys.length; i++) {
+			restoreProperty(keys[i], saved[i]);
+		}
+		logger.info("Created {} indexers, {} pointers per inversion pass each", variants.size(), pointers);
+	}
+
+	/**
+	 * Restores a property to the value it had before being set for a
+	 * variant, removing it if it was not set.
+	 * 
+	 * @param key
+	 *            the property
+	 * @param value
+	 *            the previous value, null if the property was not set
+	 */
+	protected static void restoreProperty(String key, String value) {
+		if (value == null) {
+			ApplicationSetup.getProperties().remove(key);
+		} else {
+			ApplicationSetup.setProperty(key, value);
+		}
+	}
+
+	/**
+	 * Parses the collection once and builds the index of every variant.
+	 * 
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the indexers
+	 */
+	public void index() throws InterruptedException {
+		createIndexers();
+
+		List<Thread> threads = new ArrayList<Thread>(variants.size());
+		for (Variant variant : variants) {
+			Thread thread = new Thread(variant, "grid-" + variant.name);
+			thread.start();
+			threads.add(thread);
+		}
+
+		long start = System.currentTimeMillis();
+		long parseTime = 0;
+		int documents = 0;
+		Collection collection = new TRECCollection();
+		try {
+			while (collection.nextDocument()) {
+				long parseStart = System.currentTimeMillis();
+				Document document = collection.getDocument();
+				if (document == null) {
+					continue;
+				}
+				TokenisedDocument tokens = TokenisedDocument.read(document);
+				parseTime += System.currentTimeMillis() - parseStart;
+				documents++;
+				for (Variant variant : variants) {
+					long putStart = System.currentTimeMillis();
+					variant.queue.put(tokens.copy());
+					variant.blockedTime += System.currentTimeMillis() - putStart;
+				}
+			}
+		} finally {
+			try {
+				collection.close();
+			} catch (Exception e) {
+				logger.warn("Cannot close the collection", e);
+			}
+			/* the indexers end even if the parser fails, with the documents received so far */
+			for (Variant variant : variants) {
+				variant.queue.put(QueueCollection.END);
+			}
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		VocabularySketch.writeAll();
+		long elapsed = System.currentTimeMillis() - start;
+
+		logger.info("Parsed {} documents ({} ms tokenising), grid built in {} ms", documents, parseTime, elapsed);
+		report();
+	}
+
+	/**
+	 * Logs the throughput and the statistics of each variant.
+	 */
+	protected void report() {
+		for (Variant variant : variants) {
+			if (variant.failure != null) {
+				logger.error("{}: FAILED ({})", variant.name, variant.failure.toString());
+				continue;
+			}
+			int documents = variant.collection.getNumberOfDocuments();
+			double seconds = Math.max(variant.elapsedTime, 1) / 1000d;
+			String statistics = "";
+			IndexOnDisk index = IndexOnDisk.createIndex(variant.path, ApplicationSetup.TERRIER_INDEX_PREFIX);
+			if (index != null) {
+				CollectionStatistics cs = index.getCollectionStatistics();
+				statistics = String.format(", %d terms, %d tokens (%.0f tokens/s), %d pointers",
+						cs.getNumberOfUniqueTerms(), cs.getNumberOfTokens(), cs.getNumberOfTokens() / seconds,
+						cs.getNumberOfPointers());
+				try {
+					index.close();
+				} catch (IOException e) {
+					logger.warn("Cannot close the index of " + variant.name, e);
+				}
+			}
+			logger.info(String.format("%s: %d docs in %d ms (%.1f docs/s), parser blocked %d ms%s", variant.name,
+					documents, variant.elapsedTime, documents / seconds, variant.blockedTime, statistics));
+		}
+	}
+
+	/**
+	 * Builds the indexes of the given grid.
+	 * 
+	 * @param args
+	 *            the file listing the variants
+	 * @throws Exception
+	 *             if the grid cannot be built
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 1) {
+			System.err.println("Usage: GridIndexer variants.spec");
+			return;
+		}
+		new GridIndexer(args[0]).index();
+	}
+}
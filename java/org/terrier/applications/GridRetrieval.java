@@ -0,0 +1,819 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.applications;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.applications.batchquerying.TRECQuery;
+import org.terrier.matching.BatchMatching;
+import org.terrier.matching.BlockMaxWandMatching;
+import org.terrier.matching.ImpactOrderedMatching;
+import org.terrier.matching.MatchingQueryTerms;
+import org.terrier.matching.MultiModelMatching;
+import org.terrier.matching.MultiRunMatching;
+import org.terrier.matching.ParameterSweepMatching;
+import org.terrier.matching.QueryTermFilter;
+import org.terrier.matching.ResultSet;
+import org.terrier.querying.Manager;
+import org.terrier.querying.Request;
+import org.terrier.querying.SearchRequest;
+import org.terrier.structures.BlockMaxIndex;
+import org.terrier.structures.ConflationClasses;
+import org.terrier.structures.ImpactIndex;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.MetaIndex;
+import org.terrier.structures.PostingListCache;
+import org.terrier.structures.StoplistOverlay;
+import org.terrier.structures.VariantIndex;
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * Runs every weighting model and every topic set against every index of a
+ * grid in a single JVM. Each index is opened once and its lexicon, document
+ * index and statistics stay resident while all its runs are produced; the
+ * topics are parsed once for the whole grid. Run files are written as soon as
+ * they are complete.
+ * 
+ * The indexes are read from the same file as {@link GridIndexer}, with one
+ * variant per line:
+ * 
+ * <pre>
+ * name path termpipelines stopwords ngram
+ * </pre>
+ * 
+ * and the term pipeline of each variant is applied to its queries. The
+ * variants derived at query time by the optional sixth field are run on a
+ * {@link VariantIndex} of the index at their path: {@code conflation:STEMMER}
+ * on the {@link ConflationClasses} of STEMMER, whose queries must not be
+ * stemmed by the term pipeline, and {@code overlay:FILE} on the
+ * {@link StoplistOverlay} written to FILE for the index. Derived variants are always matched
+ * exhaustively, since the impact-ordered indexes and the block-max metadata
+ * of the index do not hold for them. For each
+ * topic file, topic field setting and model, the run
+ * 
+ * <pre>
+ * runs/topics/name_model_noqe_field.txt
+ * </pre>
+ * 
+ * is written, where {@code topics} is the name of the topic file without its
+ * extension and {@code model} is the name of the model without underscores,
+ * as by <code>terrier_retrieval_TREC.sh</code>. For each run a line is
+ * appended to {@code runs/topics/grid.report}, which is rewritten with a
+ * header line when the grid is run, with the run tag, the number of
+ * topics, the numbers of query terms and of their postings before and after
+ * the query term filter and, when the qrels are given, the mean average
+ * precision of the run, so that the effect of the filter can be compared
+ * across runs.
+ * <p>
+ * <b>Properties:</b>
+ * <ul>
+ * <li><code>grid.models</code> - the comma separated weighting models, by
+ * default the 16 models of <code>terrier_retrieval_TREC.sh</code>.</li>
+ * <li><code>grid.topic.fields</code> - the comma separated topic field
+ * settings, default td.</li>
+ * <li><code>grid.topic.fields.FIELD.process</code> and
+ * <code>grid.topic.fields.FIELD.skip</code> - the TrecQueryTags.process and
+ * TrecQueryTags.skip values of the setting FIELD, by default the current
+ * ones.</li>
+ * <li><code>grid.multimodel</code> - whether all the models are scored in a
+ * single traversal of the posting lists by {@link MultiModelMatching},
+ * default true; otherwise each run goes through the matching model of
+ * <code>trec.matching</code>, default Matching.</li>
+ * <li><code>grid.batch</code> - whether each model reads the posting list
+ * of each term of a topic set only once with {@link BatchMatching}, default
+ * false; it takes precedence over <code>grid.multimodel</code>.</li>
+ * <li><code>grid.blockmax</code> - whether the models whose
+ * {@link BlockMaxIndex} has been built for an index are run on it with
+ * {@link BlockMaxWandMatching}, default false; their runs replace the
+ * exhaustive runs under the same tags.</li>
+ * <li><code>grid.impact</code> - whether the models whose
+ * {@link ImpactIndex} has been built for an index are run on it score at a
+ * time with {@link ImpactOrderedMatching}, default false; it takes
+ * precedence over <code>grid.blockmax</code>. Their runs rank the documents
+ * by quantized scores, within the budgets of
+ * <code>impact.postings.budget</code> and <code>impact.time.budget</code>,
+ * and replace the exhaustive runs under the same tags, hence the impact
+ * indexes are used only on request.</li>
+ * <li><code>grid.sweep</code> - BM25 or PL2 to also sweep their
+ * parameters with {@link ParameterSweepMatching}, by default no sweep; the
+ * run of each setting is tagged with the name of the setting, e.g.
+ * BM25k1.2b0.75 or PL2c1.0.</li>
+ * <li><code>grid.sweep.k1</code>, <code>grid.sweep.b</code> - the comma
+ * separated k<sub>1</sub> and b values of the BM25 sweep, whose settings are
+ * all their combinations; default 1.2 and 0.75.</li>
+ * <li><code>grid.sweep.c</code> - the comma separated c values of the PL2
+ * sweep, default 1.0.</li>
+ * <li><code>grid.query.min.idf</code>, <code>grid.query.max.terms</code> -
+ * the query terms whose idf is below the former and those beyond the latter
+ * number of terms of largest idf are dropped by {@link QueryTermFilter},
+ * which also aggregates the repeated terms and divides the weights by the
+ * largest one, as Terrier does; by default no term of the index is dropped. The filter applies to all the runs but those going through
+ * the matching model of <code>trec.matching</code>.</li>
+ * <li><code>grid.qrels.TOPICS</code> - the qrels of the topic file TOPICS
+ * (without extension), to report the mean average precision of its runs.</li>
+ * <li><code>postings.cache.memory</code> - the memory in MB of the
+ * {@link PostingListCache} through which all the runs of an index but those
+ * going through the matching model of <code>trec.matching</code> read the
+ * posting lists, default 256; its hit ratio is logged when the index is
+ * closed.</li>
+ * <li><code>trec.output.format.length</code> - the maximum number of
+ * documents of a run per topic, default 1000.</li>
+ * </ul>
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class GridRetrieval {
+
+	protected static final Logger logger = LoggerFactory.getLogger(GridRetrieval.class);
+
+	/** The models of terrier_retrieval_TREC.sh */
+	protected static final String DEFAULT_MODELS = "BB2,BM25,DFR_BM25,DLH,DLH13,DPH,DFRee,Hiemstra_LM,IFB2,In_expB2,"
+			+ "In_expC2,InL2,LemurTF_IDF,LGD,PL2,TF_IDF";
+
+	/**
+	 * The topics of a topic file parsed with a topic field setting.
+	 */
+	protected static class TopicSet {
+
+		/** The name of the topic file without its extension */
+		protected final String name;
+
+		/** The topic field setting */
+		protected final String field;
+
+		protected final List<String> ids = new ArrayList<String>();
+
+		protected final List<String> queries = new ArrayList<String>();
+
+		/** The relevant documents of each topic, null if the qrels are not given */
+		protected Map<String, Set<String>> qrels = null;
+
+		TopicSet(String name, String field) {
+			this.name = name;
+			this.field = field;
+		}
+	}
+
+	protected final List<GridIndexer.Variant> variants;
+
+	protected final List<TopicSet> topicSets = new ArrayList<TopicSet>();
+
+	protected final String[] models;
+
+	protected final File runPath;
+
+	protected final String matching = ApplicationSetup.getProperty("trec.matching", "Matching");
+
+	/** Whether all the models are scored in a single traversal of the postings */
+	protected final boolean multiModel = Boolean
+			.parseBoolean(ApplicationSetup.getProperty("grid.multimodel", "true"));
+
+	/** Whether each posting list is read once per topic set rather than once per topic */
+	protected final boolean batch = Boolean.parseBoolean(ApplicationSetup.getProperty("grid.batch", "false"));
+
+	/** The smallest idf of the query terms kept */
+	protected final double minIdf = Double
+			.parseDouble(ApplicationSetup.getProperty("grid.query.min.idf", "-Infinity"));
+
+	/** The largest number of query terms kept, 0 for no limit */
+	protected final int maxTerms = Integer.parseInt(ApplicationSetup.getProperty("grid.query.max.terms", "0"));
+
+	/** Whether the models with block-max metadata are run with Block-Max WAND */
+	protected final boolean blockMax = Boolean.parseBoolean(ApplicationSetup.getProperty("grid.blockmax", "false"));
+
+	/** Whether the models with an impact-ordered index are run score at a time */
+	protected final boolean impact = Boolean.parseBoolean(ApplicationSetup.getProperty("grid.impact", "false"));
+
+	/** Whether the parameters of grid.sweep are swept */
+	protected final boolean sweep = ApplicationSetup.getProperty("grid.sweep", "").trim().length() > 0;
+
+	protected final int length = Integer.parseInt(ApplicationSetup.getProperty("trec.output.format.length", "1000"));
+
+	/**
+	 * constructor
+	 * 
+	 * @param specFile
+	 *            the file listing the indexes
+	 * @param runPath
+	 *            the directory of the runs
+	 * @param topicFiles
+	 *            the topic files
+	 * @throws IOException
+	 *             if the file listing the indexes cannot be read
+	 */
+	public GridRetrieval(String specFile, String runPath, String[] topicFiles) throws IOException {
+		this.variants = GridIndexer.readVariants(specFile);
+		this.runPath = new File(runPath);
+		this.models = ApplicationSetup.getProperty("grid.models", DEFAULT_MODELS).trim().split("\\s*,\\s*");
+
+		String process = ApplicationSetup.getProperty("TrecQueryTags.process", "");
+		String skip = ApplicationSetup.getProperty("TrecQueryTags.skip", "");
+		for (String field : ApplicationSetup.getProperty("grid.topic.fields", "td").trim().split("\\s*,\\s*")) {
+			ApplicationSetup.setProperty("TrecQueryTags.process",
+					ApplicationSetup.getProperty("grid.topic.fields." + field + ".process", process));
+			ApplicationSetup.setProperty("TrecQueryTags.skip",
+					ApplicationSetup.getProperty("grid.topic.fields." + field + ".skip", skip));
+			for (String topicFile : topicFiles) {
+				String name = new File(topicFile).getName();
+				TopicSet topics = new TopicSet(name.indexOf('.') > 0 ? name.substring(0, name.lastIndexOf('.')) : name,
+						field);
+				TRECQuery source = new TRECQuery(topicFile);
+				while (source.hasNext()) {
+					String query = source.next();
+					topics.ids.add(source.getQueryId());
+					topics.queries.add(query);
+				}
+				String qrelsFile = ApplicationSetup.getProperty("grid.qrels." + topics.name, "");
+				if (qrelsFile.length() > 0) {
+					topics.qrels = readQrels(qrelsFile);
+				}
+				topicSets.add(topics);
+				logger.info("Read {} topics from {} with fields {}", topics.ids.size(), topicFile, field);
+			}
+		}
+		ApplicationSetup.setProperty("TrecQueryTags.process", process);
+		ApplicationSetup.setProperty("TrecQueryTags.skip", skip);
+	}
+
+	/**
+	 * Produces the runs of every index.
+	 * 
+	 * @throws IOException
+	 *             if a report cannot be created
+	 */
+	public void run() throws IOException {
+		long start = System.currentTimeMillis();
+		Set<String> reports = new HashSet<String>();
+		for (TopicSet topics : topicSets) {
+			if (reports.add(topics.name)) {
+				startReport(topics);
+			}
+		}
+		int failed = 0;
+		for (GridIndexer.Variant variant : variants) {
+			try {
+				run(variant);
+			} catch (Exception e) {
+				failed++;
+				logger.error("Retrieval on index " + variant.name + " failed", e);
+			}
+		}
+		logger.info("Grid of {} indexes ({} failed) run in {} ms", variants.size(), failed,
+				System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Removes the indexing-only stages from the term pipelines of a variant:
+	 * a TermFrequencyAggregator would hold the query terms until a reset
+	 * that the query pipeline never does, and a VocabularySketch would
+	 * profile the queries as documents.
+	 */
+	private static String queryPipelines(String termPipelines) {
+		StringBuilder pipelines = new StringBuilder();
+		for (String stage : termPipelines.split("\\s*,\\s*")) {
+			if (stage.length() == 0 || stage.endsWith("TermFrequencyAggregator")
+					|| stage.endsWith("VocabularySketch")) {
+				continue;
+			}
+			if (pipelines.length() > 0) {
+				pipelines.append(',');
+			}
+			pipelines.append(stage);
+		}
+		return pipelines.toString();
+	}
+
+	/**
+	 * Returns the index on which the queries of a variant are matched: the
+	 * index at its path, or its query-time variant.
+	 */
+	private static Index derive(GridIndexer.Variant variant, IndexOnDisk index) throws IOException {
+		if (variant.derivation.length() == 0) {
+			return index;
+		}
+		int colon = variant.derivation.indexOf(':');
+		String kind = colon < 0 ? variant.derivation : variant.derivation.substring(0, colon);
+		String argument = colon < 0 ? "" : variant.derivation.substring(colon + 1);
+		if ("conflation".equals(kind)) {
+			return ConflationClasses.read(ConflationClasses.getFilename(index, argument)).getIndex(index);
+		}
+		if ("overlay".equals(kind)) {
+			StoplistOverlay overlay = StoplistOverlay.read(argument);
+			if (!new File(overlay.getBasePath()).getAbsoluteFile().equals(new File(index.getPath()).getAbsoluteFile())
+					|| !overlay.getBasePrefix().equals(index.getPrefix())) {
+				throw new IllegalArgumentException("The overlay " + argument + " of variant " + variant.name
+						+ " is not an overlay of " + index.getPath());
+			}
+			return overlay.getIndex(index);
+		}
+		throw new IllegalArgumentException("Unknown derivation of variant " + variant.name + ": " + variant.derivation);
+	}
+
+	/**
+	 * Opens the index of a variant and produces all its runs.
+	 * 
+	 * @param variant
+	 *            the variant
+	 * @throws IOException
+	 *             if the index cannot be read or a run cannot be written
+	 */
+	protected void run(GridIndexer.Variant variant) throws IOException {
+		long start = System.currentTimeMillis();
+		IndexOnDisk onDisk = IndexOnDisk.createIndex(variant.path, ApplicationSetup.TERRIER_INDEX_PREFIX);
+		if (onDisk == null) {
+			throw new IOException("Cannot open the index " + variant.path);
+		}
+		Index index;
+		try {
+			index = derive(variant, onDisk);
+		} catch (IOException e) {
+			onDisk.close();
+			throw e;
+		} catch (RuntimeException e) {
+			onDisk.close();
+			throw e;
+		}
+		boolean derived = index != onDisk;
+
+		/* the term pipeline of the queries is created with the manager */
+		String[] keys = { "termpipelines", "stopwords.filename", "tokeniser.ngram" };
+		String[] saved = new String[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			saved[i] = ApplicationSetup.getProperty(keys[i], null);
+		}
+		ApplicationSetup.setProperty("termpipelines", queryPipelines(variant.termPipelines));
+		ApplicationSetup.setProperty("stopwords.filename", variant.stopwords);
+		if (variant.ngram.length() > 0) {
+			ApplicationSetup.setProperty("tokeniser.ngram", variant.ngram);
+		}
+		Manager manager;
+		try {
+			manager = new Manager(index);
+		} finally {
+			for (int i = 0; i < keys.length; i++) {
+				GridIndexer.restoreProperty(keys[i], saved[i]);
+			}
+		}
+		long opened = System.currentTimeMillis();
+
+		MetaIndex metaIndex = index.getMetaIndex();
+		int runs = 0;
+		try {
+			/* the topics are pre-processed once, unless each run goes through the manager */
+			List<String[][]> terms = new ArrayList<String[][]>(topicSets.size());
+			List<double[][]> keyFrequencies = new ArrayList<double[][]>(topicSets.size());
+			List<QueryTermFilter> filters = new ArrayList<QueryTermFilter>(topicSets.size());
+			for (TopicSet topics : topicSets) {
+				terms.add(new String[topics.ids.size()][]);
+				keyFrequencies.add(new double[topics.ids.size()][]);
+				filters.add(new QueryTermFilter(index, minIdf, maxTerms));
+				if (batch || multiModel || sweep || blockMax || impact) {
+					preProcess(manager, topics, terms.get(terms.size() - 1),
+							keyFrequencies.get(keyFrequencies.size() - 1), filters.get(filters.size() - 1));
+				}
+			}
+
+			/*
+			 * the models with an impact-ordered index are run score at a time,
+			 * those with block-max metadata with Block-Max WAND
+			 */
+			List<String> exhaustiveModels = new ArrayList<String>();
+			for (String model : models) {
+				String impactFile = ImpactIndex.filename(variant.path, ApplicationSetup.TERRIER_INDEX_PREFIX, model);
+				if (!derived && impact && new File(impactFile).exists()) {
+					ImpactIndex impacts = ImpactIndex.read(impactFile);
+					ImpactOrderedMatching impactMatching;
+					try {
+						impactMatching = new ImpactOrderedMatching(index, impacts, length);
+						for (int i = 0; i < topicSets.size(); i++) {
+							TopicSet topics = topicSets.get(i);
+							String[] runTags = { runTag(variant, model, topics) };
+							run(impactMatching, runTags, metaIndex, topics, terms.get(i), keyFrequencies.get(i));
+							report(topics, runTags, filters.get(i));
+							runs++;
+						}
+					} finally {
+						impacts.close();
+					}
+					logger.debug("{}: {} postings processed score at a time for {}, {} queries stopped early",
+							variant.name, impactMatching.getNumberOfProcessedPostings(), model,
+							impactMatching.getNumberOfStoppedQueries());
+					continue;
+				}
+				String blockMaxFile = BlockMaxIndex.filename(variant.path, ApplicationSetup.TERRIER_INDEX_PREFIX, model);
+				if (derived || !blockMax || !new File(blockMaxFile).exists()) {
+					exhaustiveModels.add(model);
+					continue;
+				}
+				BlockMaxWandMatching wand = new BlockMaxWandMatching(index, BlockMaxIndex.read(blockMaxFile), length);
+				for (int i = 0; i < topicSets.size(); i++) {
+					TopicSet topics = topicSets.get(i);
+					String[] runTags = { runTag(variant, model, topics) };
+					run(wand, runTags, metaIndex, topics, terms.get(i), keyFrequencies.get(i));
+					report(topics, runTags, filters.get(i));
+					runs++;
+				}
+				logger.debug("{}: {} documents scored by Block-Max WAND for {}", variant.name,
+						wand.getNumberOfScoredDocuments(), model);
+			}
+			String[] remaining = exhaustiveModels.toArray(new String[exhaustiveModels.size()]);
+
+			if (remaining.length == 0) {
+				/* every model has been run score at a time or with Block-Max WAND */
+			} else if (batch) {
+				for (String model : remaining) {
+					BatchMatching batchMatching = new BatchMatching(index, model, length);
+					for (int i = 0; i < topicSets.size(); i++) {
+						TopicSet topics = topicSets.get(i);
+						String[] runTags = { runTag(variant, model, topics) };
+						run(batchMatching, runTags[0], metaIndex, topics, terms.get(i), keyFrequencies.get(i));
+						report(topics, runTags, filters.get(i));
+						runs++;
+					}
+				}
+			} else if (multiModel) {
+				MultiModelMatching multiMatching = new MultiModelMatching(index, remaining, length);
+				String[] runTags = new String[remaining.length];
+				for (int i = 0; i < topicSets.size(); i++) {
+					TopicSet topics = topicSets.get(i);
+					for (int m = 0; m < remaining.length; m++) {
+						runTags[m] = runTag(variant, remaining[m], topics);
+					}
+					run(multiMatching, runTags, metaIndex, topics, terms.get(i), keyFrequencies.get(i));
+					report(topics, runTags, filters.get(i));
+					runs += runTags.length;
+				}
+			} else {
+				for (String model : remaining) {
+					for (TopicSet topics : topicSets) {
+						run(variant, manager, model, metaIndex, topics);
+						report(topics, new String[] { runTag(variant, model, topics) }, null);
+						runs++;
+					}
+				}
+			}
+			if (sweep) {
+				ParameterSweepMatching sweepMatching = createSweep(index);
+				String[] runTags = new String[sweepMatching.getNumberOfSettings()];
+				for (int i = 0; i < topicSets.size(); i++) {
+					TopicSet topics = topicSets.get(i);
+					for (int s = 0; s < runTags.length; s++) {
+						runTags[s] = runTag(variant, sweepMatching.getSettingName(s), topics);
+					}
+					run(sweepMatching, runTags, metaIndex, topics, terms.get(i), keyFrequencies.get(i));
+					report(topics, runTags, filters.get(i));
+					runs += runTags.length;
+				}
+			}
+		} finally {
+			PostingListCache cache = PostingListCache.release(index);
+			if (cache != null) {
+				logger.info("{}: posting list cache: {}", variant.name, cache);
+				cache.close();
+			}
+			onDisk.close();
+		}
+		logger.info("{}: index opened in {} ms, {} runs in {} ms", variant.name, opened - start, runs,
+				System.currentTimeMillis() - opened);
+	}
+
+	private Writer openRun(File directory, String runTag) throws IOException {
+		directory.mkdirs();
+		return new BufferedWriter(new FileWriter(new File(directory, runTag + ".txt")));
+	}
+
+	private String runTag(GridIndexer.Variant variant, String model, TopicSet topics) {
+		return variant.name + "_" + model.replace("_", "") + "_noqe_" + topics.field;
+	}
+
+	/**
+	 * Produces the run of a model on a topic set through the manager.
+	 */
+	private void run(GridIndexer.Variant variant, Manager manager, String model, MetaIndex metaIndex,
+			TopicSet topics) throws IOException {
+		String runTag = runTag(variant, model, topics);
+		Writer out = openRun(new File(runPath, topics.name), runTag);
+		try {
+			for (int q = 0; q < topics.ids.size(); q++) {
+				SearchRequest srq = manager.newSearchRequest(topics.ids.get(q), topics.queries.get(q));
+				srq.addMatchingModel(matching, model);
+				manager.runPreProcessing(srq);
+				manager.runMatching(srq);
+				manager.runPostProcessing(srq);
+				manager.runPostFilters(srq);
+				ResultSet results = srq.getResultSet();
+				if (results != null) {
+					write(out, metaIndex, topics.ids.get(q), results.getDocids(), results.getScores(),
+							results.getResultSize(), runTag);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Produces the runs of a topic set with a single traversal of the posting
+	 * lists of each query.
+	 */
+	private void run(MultiRunMatching multiMatching, String[] runTags, MetaIndex metaIndex, TopicSet topics,
+			String[][] terms, double[][] keyFrequencies) throws IOException {
+		Writer[] out = new Writer[runTags.length];
+		try {
+			for (int r = 0; r < runTags.length; r++) {
+				out[r] = openRun(new File(runPath, topics.name), runTags[r]);
+			}
+			for (int q = 0; q < topics.ids.size(); q++) {
+				multiMatching.match(terms[q], keyFrequencies[q]);
+				for (int r = 0; r < runTags.length; r++) {
+					write(out[r], metaIndex, topics.ids.get(q), multiMatching.getDocids(r),
+							multiMatching.getScores(r), multiMatching.getResultSize(r), runTags[r]);
+				}
+			}
+		} finally {
+			for (Writer writer : out) {
+				if (writer != null) {
+					writer.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Produces the run of a model on a topic set, reading the posting list of
+	 * each term of the topic set once.
+	 */
+	private void run(BatchMatching batch, String runTag, MetaIndex metaIndex, TopicSet topics, String[][] terms,
+			double[][] keyFrequencies) throws IOException {
+		batch.match(terms, keyFrequencies);
+		Writer out = openRun(new File(runPath, topics.name), runTag);
+		try {
+			for (int q = 0; q < topics.ids.size(); q++) {
+				write(out, metaIndex, topics.ids.get(q), batch.getDocids(q), batch.getScores(q),
+						batch.getResultSize(q), runTag);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Pre-processes the topics of a topic set through the manager and the
+	 * query term filter, giving the terms of each topic and their weights.
+	 */
+	private void preProcess(Manager manager, TopicSet topics, String[][] terms, double[][] keyFrequencies,
+			QueryTermFilter filter) {
+		for (int q = 0; q < topics.ids.size(); q++) {
+			SearchRequest srq = manager.newSearchRequest(topics.ids.get(q), topics.queries.get(q));
+			manager.runPreProcessing(srq);
+			MatchingQueryTerms queryTerms = ((Request) srq).getMatchingQueryTerms();
+			String[] queryTermStrings = queryTerms == null ? new String[0] : queryTerms.getTerms();
+			double[] weights = new double[queryTermStrings.length];
+			for (int t = 0; t < queryTermStrings.length; t++) {
+				weights[t] = queryTerms.getTermWeight(queryTermStrings[t]);
+			}
+			filter.filter(queryTermStrings, weights);
+			terms[q] = filter.getTerms();
+			keyFrequencies[q] = filter.getKeyFrequencies();
+		}
+	}
+
+	/**
+	 * Creates the report of a topic file, discarding that of an earlier run of
+	 * the grid, and writes its header.
+	 */
+	private void startReport(TopicSet topics) throws IOException {
+		File directory = new File(runPath, topics.name);
+		directory.mkdirs();
+		Writer out = new BufferedWriter(new FileWriter(new File(directory, "grid.report")));
+		try {
+			out.write("run\ttopics\tterms.in\tterms.out\tpostings.in\tpostings.out\tmap\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Appends the query statistics and, when the qrels of the topic set are
+	 * given, the mean average precision of some runs to the report of the
+	 * topic set.
+	 */
+	private void report(TopicSet topics, String[] runTags, QueryTermFilter filter) throws IOException {
+		File directory = new File(runPath, topics.name);
+		Writer out = new BufferedWriter(new FileWriter(new File(directory, "grid.report"), true));
+		try {
+			for (String runTag : runTags) {
+				StringBuilder line = new StringBuilder(runTag).append('\t').append(topics.ids.size());
+				if (filter == null) {
+					line.append("\t-\t-\t-\t-");
+				} else {
+					line.append('\t').append(filter.getTermsIn()).append('\t').append(filter.getTermsOut())
+							.append('\t').append(filter.getPostingsIn()).append('\t')
+							.append(filter.getPostingsOut());
+				}
+				line.append('\t');
+				if (topics.qrels == null) {
+					line.append('-');
+				} else {
+					line.append(String.format("%.4f",
+							meanAveragePrecision(new File(directory, runTag + ".txt"), topics.qrels, topics.ids)));
+				}
+				out.write(line.append('\n').toString());
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads the relevant documents of each topic from TREC qrels.
+	 * 
+	 * @param filename
+	 *            the qrels
+	 * @return the docnos of the relevant documents of each topic
+	 * @throws IOException
+	 *             if the qrels cannot be read
+	 */
+	public static Map<String, Set<String>> readQrels(String filename) throws IOException {
+		Map<String, Set<String>> qrels = new HashMap<String, Set<String>>();
+		BufferedReader reader = new BufferedReader(new FileReader(filename));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.trim().split("\\s+");
+				if (fields.length < 4 || Integer.parseInt(fields[3]) <= 0) {
+					continue;
+				}
+				Set<String> relevant = qrels.get(fields[0]);
+				if (relevant == null) {
+					qrels.put(fields[0], relevant = new HashSet<String>());
+				}
+				relevant.add(fields[2]);
+			}
+		} finally {
+			reader.close();
+		}
+		return qrels;
+	}
+
+	/**
+	 * Computes the mean average precision of a run over the given topics
+	 * having relevant documents, a topic without results counting 0 as with
+	 * <code>trec_eval -c</code>; the documents are taken in the order of the
+	 * run.
+	 */
+	private static double meanAveragePrecision(File run, Map<String, Set<String>> qrels, List<String> ids)
+			throws IOException {
+		Map<String, double[]> precision = new HashMap<String, double[]>();
+		BufferedReader reader = new BufferedReader(new FileReader(run));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(" ");
+				Set<String> relevant = qrels.get(fields[0]);
+				if (relevant == null) {
+					continue;
+				}
+				/* the number of documents and of relevant documents seen, and the sum of the precisions */
+				double[] topic = precision.get(fields[0]);
+				if (topic == null) {
+					precision.put(fields[0], topic = new double[3]);
+				}
+				topic[0]++;
+				if (relevant.contains(fields[2])) {
+					topic[1]++;
+					topic[2] += topic[1] / topic[0];
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		double sum = 0;
+		int topics = 0;
+		for (String id : ids) {
+			Set<String> relevant = qrels.get(id);
+			if (relevant == null || relevant.isEmpty()) {
+				continue;
+			}
+			double[] topic = precision.get(id);
+			sum += topic == null ? 0 : topic[2] / relevant.size();
+			topics++;
+		}
+		return topics == 0 ? 0 : sum / topics;
+	}
+
+	/**
+	 * Creates the parameter sweep of <code>grid.sweep</code>.
+	 */
+	private ParameterSweepMatching createSweep(Index index) {
+		String model = ApplicationSetup.getProperty("grid.sweep", "").trim();
+		if ("BM25".equals(model)) {
+			return ParameterSweepMatching.bm25(index, values("grid.sweep.k1", "1.2"), values("grid.sweep.b", "0.75"),
+					length);
+		}
+		if ("PL2".equals(model)) {
+			return ParameterSweepMatching.pl2(index, values("grid.sweep.c", "1.0"), length);
+		}
+		throw new IllegalArgumentException("Parameter sweeps are supported for BM25 and PL2, not " + model);
+	}
+
+	private static double[] values(String property, String defaultValue) {
+		String[] fields = ApplicationSetup.getProperty(property, defaultValue).trim().split("\\s*,\\s*");
+		double[] values = new double[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			values[i] = Double.parseDouble(fields[i]);
+		}
+		return values;
+	}
+
+	/**
+	 * Writes the results of a topic in TREC format.
+	 * 
+	 * @param out
+	 *            the run
+	 * @param metaIndex
+	 *            the meta index giving the docnos
+	 * @param qid
+	 *            the identifier of the topic
+	 * @param docids
+	 *            the retrieved documents, by decreasing score
+	 * @param scores
+	 *            the scores of the retrieved documents
+	 * @param resultSize
+	 *            the number of retrieved documents
+	 * @param runTag
+	 *            the tag of the run
+	 * @throws IOException
+	 *             if the run cannot be written
+	 */
+	protected void write(Writer out, MetaIndex metaIndex, String qid, int[] docids, double[] scores, int resultSize,
+			String runTag) throws IOException {
+		int size = Math.min(resultSize, length);
+		if (size == 0) {
+			return;
+		}
+		if (docids.length > size) {
+			int[] top = new int[size];
+			System.arraycopy(docids, 0, top, 0, size);
+			docids = top;
+		}
+		String[] docnos = metaIndex.getItems("docno", docids);
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			line.setLength(0);
+			line.append(qid).append(" Q0 ").append(docnos[i]).append(' ').append(i).append(' ').append(scores[i])
+					.append(' ').append(runTag).append('\n');
+			out.write(line.toString());
+		}
+	}
+
+	/**
+	 * Runs the grid.
+	 * 
+	 * @param args
+	 *            the file listing the indexes, the directory of the runs and
+	 *            the topic files
+	 * @throws IOException
+	 *             if the grid cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: GridRetrieval variants.spec runDirectory topics [topics ...]");
+			return;
+		}
+		String[] topicFiles = new String[args.length - 2];
+		System.arraycopy(args, 2, topicFiles, 0, topicFiles.length);
+		new GridRetrieval(args[0], args[1], topicFiles).run();
+	}
+}
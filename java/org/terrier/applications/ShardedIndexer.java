@@ -0,0 +1,234 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.applications;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.indexing.Collection;
+import org.terrier.indexing.MappedTRECCollection;
+import org.terrier.indexing.TRECCollection;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.merging.ShardMerger;
+import org.terrier.terms.VocabularySketch;
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * Builds the index of a collection by splitting the files of its
+ * <code>collection.spec</code> into contiguous shards, indexing the shards in
+ * parallel and merging them with a {@link ShardMerger}. Since the shards are
+ * contiguous and merged in order, the docids and the termIds are those of a
+ * sequential build.
+ * <p>
+ * <b>Properties:</b>
+ * <ul>
+ * <li><code>sharded.shards</code> - the number of shards, default the number
+ * of processors.</li>
+ * <li><code>sharded.memory.budget</code> - the memory of the inverters in MB,
+ * split evenly among the shards, default 1024.</li>
+ * <li><code>trec.indexer.class</code> - the indexer of the shards, default
+ * BasicIndexer.</li>
+ * <li><code>sharded.keep</code> - whether to keep the shard indexes after the
+ * merge, default false.</li>
+ * </ul>
+ * The shards are written to the <code>shards</code> directory of the index
+ * path.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class ShardedIndexer {
+
+	protected static final Logger logger = LoggerFactory.getLogger(ShardedIndexer.class);
+
+	/** The average memory of an inverted pointer, as assumed by GridIndexer */
+	protected static final long BYTES_PER_POINTER = 16;
+
+	protected final String path;
+
+	protected final String prefix;
+
+	protected final int numberOfShards;
+
+	/**
+	 * constructor
+	 * 
+	 * @param path
+	 *            the path of the index
+	 * @param prefix
+	 *            the prefix of the index
+	 * @param numberOfShards
+	 *            the number of shards
+	 */
+	public ShardedIndexer(String path, String prefix, int numberOfShards) {
+		this.path = path;
+		this.prefix = prefix;
+		this.numberOfShards = numberOfShards;
+	}
+
+	/**
+	 * Splits the files of the collection into contiguous shards of about the
+	 * same size in bytes, and writes a collection.spec for each of them.
+	 * 
+	 * @param files
+	 *            the files of the collection
+	 * @param directory
+	 *            the directory of the shards
+	 * @return the collection.spec of each shard
+	 * @throws IOException
+	 *             if a spec cannot be written
+	 */
+	protected List<String> writeShardSpecs(List<File> files, File directory) throws IOException {
+		long total = 0;
+		for (File file : files) {
+			total += file.length();
+		}
+		List<String> specs = new ArrayList<String>();
+		int next = 0;
+		long written = 0;
+		for (int shard = 0; shard < numberOfShards && next < files.size(); shard++) {
+			String spec = new File(directory, prefix + "-shard" + shard + ".spec").getPath();
+			PrintWriter out = new PrintWriter(new FileWriter(spec));
+			try {
+				long target = total * (shard + 1) / numberOfShards;
+				do {
+					File file = files.get(next++);
+					out.println(file.getPath());
+					written += file.length();
+				} while (next < files.size() && (written < target || shard == numberOfShards - 1));
+			} finally {
+				out.close();
+			}
+			specs.add(spec);
+		}
+		return specs;
+	}
+
+	/**
+	 * Indexes the shards in parallel and merges them.
+	 * 
+	 * @throws Exception
+	 *             if a shard cannot be indexed or the merge fails
+	 */
+	public void index() throws Exception {
+		File directory = new File(path, "shards");
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create the directory " + directory);
+		}
+		final List<String> specs = writeShardSpecs(MappedTRECCollection.readSpec(ApplicationSetup.COLLECTION_SPEC),
+				directory);
+		final int shards = specs.size();
+
+		long budget = Long.parseLong(ApplicationSetup.getProperty("sharded.memory.budget", "1024")) << 20;
+		ApplicationSetup.setProperty("invertedfile.processpointers",
+				Long.toString(Math.max(budget / shards / BYTES_PER_POINTER, 1000000)));
+
+		final String shardPath = directory.getPath();
+		final String blacklist = ApplicationSetup.makeAbsolute(
+				ApplicationSetup.getProperty("trec.blacklist.docids", ""), ApplicationSetup.TERRIER_ETC);
+		final Throwable[] failures = new Throwable[shards];
+		final long[] times = new long[shards];
+		Thread[] threads = new Thread[shards];
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < shards; i++) {
+			final int shard = i;
+			threads[i] = new Thread("shard-" + i) {
+				public void run() {
+					long shardStart = System.currentTimeMillis();
+					try {
+						Collection collection = new TRECCollection(specs.get(shard), "TrecDocTags", blacklist,
+								null);
+						GridIndexer.createIndexer(shardPath, prefix + "-shard" + shard)
+								.index(new Collection[] { collection });
+					} catch (Throwable t) {
+						failures[shard] = t;
+					}
+					times[shard] = System.currentTimeMillis() - shardStart;
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < shards; i++) {
+			threads[i].join();
+			if (failures[i] != null) {
+				throw new IllegalStateException("Shard " + i + " failed", failures[i]);
+			}
+			logger.info("Shard {} indexed in {} ms", i, times[i]);
+		}
+		VocabularySketch.writeAll();
+		long inverted = System.currentTimeMillis();
+
+		IndexOnDisk[] indexes = new IndexOnDisk[shards];
+		long tokens = 0;
+		for (int i = 0; i < shards; i++) {
+			indexes[i] = IndexOnDisk.createIndex(shardPath, prefix + "-shard" + i);
+			tokens += indexes[i].getCollectionStatistics().getNumberOfTokens();
+		}
+		new ShardMerger(indexes).merge(path, prefix);
+		for (IndexOnDisk index : indexes) {
+			index.close();
+		}
+
+		IndexOnDisk merged = IndexOnDisk.createIndex(path, prefix);
+		if (merged.getCollectionStatistics().getNumberOfTokens() != tokens) {
+			logger.warn("The merged index has {} tokens, the shards {}",
+					merged.getCollectionStatistics().getNumberOfTokens(), tokens);
+		}
+		merged.close();
+		logger.info("Indexed {} shards in {} ms, merged in {} ms", shards, inverted - start,
+				System.currentTimeMillis() - inverted);
+
+		if (!Boolean.parseBoolean(ApplicationSetup.getProperty("sharded.keep", "false"))) {
+			deleteShards(directory);
+		}
+	}
+
+	private void deleteShards(File directory) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.getName().startsWith(prefix + "-shard") && !file.delete()) {
+				logger.warn("Cannot delete {}", file);
+			}
+		}
+		directory.delete();
+	}
+
+	/**
+	 * Builds the index of the collection in collection.spec.
+	 * 
+	 * @param args
+	 *            optionally, the number of shards
+	 * @throws Exception
+	 *             if the index cannot be built
+	 */
+	public static void main(String[] args) throws Exception {
+		int shards = args.length > 0 ? Integer.parseInt(args[0])
+				: Integer.parseInt(ApplicationSetup.getProperty("sharded.shards",
+						Integer.toString(Runtime.getRuntime().availableProcessors())));
+		new ShardedIndexer(ApplicationSetup.TERRIER_INDEX_PATH, ApplicationSetup.TERRIER_INDEX_PREFIX, shards).index();
+	}
+}
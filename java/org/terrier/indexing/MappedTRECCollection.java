@@ -0,0 +1,431 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.indexing;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.indexing.tokenisation.Tokeniser;
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * TREC collection whose files are memory-mapped and split into documents by a
+ * {@link TRECDocumentSplitter}. The characters of a document are decoded only
+ * when its {@link TaggedDocument} is read, straight from the mapped bytes.
+ * Large files are mapped in windows of <code>trec.mapped.window</code> MB
+ * (default 256); compressed files are decompressed in memory.
+ * <p>
+ * The files are listed in <code>collection.spec</code>, and the tags are
+ * given by <code>TrecDocTags.doctag</code> and <code>TrecDocTags.idtag</code>
+ * as for {@link TRECCollection}. Built through
+ * <code>trec.collection.class</code>, it reads the given collection.spec and
+ * tag set, and skips the documents whose docno is in the given blacklist.
+ * <p>
+ * As in TRECCollection, the text of a document starts after its docno, and
+ * its properties are its <code>docno</code>, the <code>filename</code> and
+ * the <code>offsetInFile</code> of its opening tag (within the decompressed
+ * content for compressed files) and the content of the first occurrence of
+ * each tag of <code>TrecPropertyTags.process</code>, under the lower-case
+ * name of the tag.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class MappedTRECCollection implements Collection {
+
+	protected static final Logger logger = LoggerFactory.getLogger(MappedTRECCollection.class);
+
+	protected final List<File> files;
+
+	protected final String docTag;
+
+	protected final String docnoTag;
+
+	/** The docnos of the documents to skip */
+	protected final Set<String> blacklist;
+
+	/** The tags whose content is a property of the documents */
+	protected final String[] propertyTags;
+
+	protected final Charset charset = Charset
+			.forName(ApplicationSetup.getProperty("trec.encoding", Charset.defaultCharset().name()));
+
+	protected final long windowSize = Long.parseLong(ApplicationSetup.getProperty("trec.mapped.window", "256"))
+			<< 20;
+
+	/** The index of the next file to open */
+	protected int nextFile = 0;
+
+	protected File currentFile;
+
+	protected FileChannel channel;
+
+	/** The offset of the current window within the current file */
+	protected long windowOffset;
+
+	protected long windowLength;
+
+	protected TRECDocumentSplitter splitter;
+
+	protected boolean endOfCollection = false;
+
+	protected long bytes = 0;
+
+	/**
+	 * constructor, reading the files from <code>collection.spec</code>
+	 * 
+	 * @throws IOException
+	 *             if collection.spec cannot be read
+	 */
+	public MappedTRECCollection() throws IOException {
+		this(readSpec(ApplicationSetup.COLLECTION_SPEC));
+	}
+
+	/**
+	 * constructor
+	 * 
+	 * @param files
+	 *            the files of the collection
+	 */
+	public MappedTRECCollection(List<File> files) {
+		this(files, "TrecDocTags", new HashSet<String>());
+	}
+
+	/**
+	 * constructor used by <code>trec.collection.class</code>
+	 * 
+	 * @param collectionSpec
+	 *            the collection.spec listing the files
+	 * @param tagSet
+	 *            the prefix of the properties of the tags, e.g. TrecDocTags
+	 * @param blacklistSpec
+	 *            the file of the docnos to skip, ignored if it does not exist
+	 * @param docPointersFilename
+	 *            ignored
+	 * @throws IOException
+	 *             if collection.spec or the blacklist cannot be read
+	 */
+	public MappedTRECCollection(String collectionSpec, String tagSet, String blacklistSpec,
+			String docPointersFilename) throws IOException {
+		this(readSpec(collectionSpec), tagSet, readBlacklist(blacklistSpec));
+	}
+
+	/**
+	 * constructor
+	 * 
+	 * @param files
+	 *            the files of the collection
+	 * @param tagSet
+	 *            the prefix of the properties of the tags
+	 * @param blacklist
+	 *            the docnos of the documents to skip
+	 */
+	protected MappedTRECCollection(List<File> files, String tagSet, Set<String> blacklist) {
+		this.files = files;
+		this.docTag = ApplicationSetup.getProperty(tagSet + ".doctag", "DOC");
+		this.docnoTag = ApplicationSetup.getProperty(tagSet + ".idtag", "DOCNO");
+		this.blacklist = blacklist;
+		String tags = ApplicationSetup.getProperty("TrecPropertyTags.process", "").trim();
+		this.propertyTags = tags.length() == 0 ? new String[0] : tags.split("\\s*,\\s*");
+	}
+
+	/**
+	 * Reads the docnos of a blacklist, one per line.
+	 * 
+	 * @param blacklistSpec
+	 *            the blacklist, or null
+	 * @return the docnos, empty if the blacklist does not exist
+	 * @throws IOException
+	 *             if the blacklist cannot be read
+	 */
+	protected static Set<String> readBlacklist(String blacklistSpec) throws IOException {
+		Set<String> blacklist = new HashSet<String>();
+		if (blacklistSpec == null || !new File(blacklistSpec).isFile()) {
+			return blacklist;
+		}
+		BufferedReader reader = new BufferedReader(new FileReader(blacklistSpec));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0) {
+					blacklist.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		logger.info("Skipping the {} documents of {}", blacklist.size(), blacklistSpec);
+		return blacklist;
+	}
+
+	/**
+	 * Reads the files listed in a collection.spec, skipping empty lines and
+	 * comments.
+	 * 
+	 * @param spec
+	 *            the collection.spec file
+	 * @return the files
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static List<File> readSpec(String spec) throws IOException {
+		List<File> files = new ArrayList<File>();
+		BufferedReader reader = new BufferedReader(new FileReader(spec));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0 && !line.startsWith("#")) {
+					files.add(new File(line));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return files;
+	}
+
+	public boolean nextDocument() {
+		try {
+			while (!endOfCollection) {
+				if (splitter != null && splitter.next()) {
+					if (blacklist.isEmpty() || !blacklist.contains(splitter.getDocno())) {
+						return true;
+					}
+					continue;
+				}
+				nextWindow();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot read " + currentFile, e);
+		}
+		return false;
+	}
+
+	/**
+	 * Moves to the next window of the current file or to the next file.
+	 */
+	protected void nextWindow() throws IOException {
+		if (channel != null) {
+			long size = channel.size();
+			long resume = windowOffset + splitter.getResumePosition();
+			if (resume < size && windowOffset + windowLength < size) {
+				/* a document larger than the window doubles it */
+				long length = resume == windowOffset ? windowLength << 1 : windowSize;
+				map(resume, Math.min(length, size - resume));
+				return;
+			}
+			channel.close();
+			channel = null;
+		}
+		splitter = null;
+		if (nextFile >= files.size()) {
+			endOfCollection = true;
+			return;
+		}
+		currentFile = files.get(nextFile++);
+		logger.debug("Processing {}", currentFile);
+		String name = currentFile.getName();
+		if (name.endsWith(".gz") || name.endsWith(".Z")) {
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			InputStream in = StreamingTRECCollection.openFile(currentFile);
+			try {
+				byte[] b = new byte[1 << 16];
+				int n;
+				while ((n = in.read(b)) > 0) {
+					content.write(b, 0, n);
+				}
+			} finally {
+				in.close();
+			}
+			bytes += content.size();
+			windowOffset = 0;
+			splitter = new TRECDocumentSplitter(ByteBuffer.wrap(content.toByteArray()), true, docTag, docnoTag,
+					charset);
+			return;
+		}
+		channel = FileChannel.open(currentFile.toPath(), StandardOpenOption.READ);
+		bytes += channel.size();
+		map(0, Math.min(windowSize, channel.size()));
+	}
+
+	private void map(long offset, long length) throws IOException {
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Document larger than 2GB in " + currentFile);
+		}
+		windowOffset = offset;
+		windowLength = length;
+		ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+		splitter = new TRECDocumentSplitter(window, offset + length == channel.size(), docTag, docnoTag, charset);
+	}
+
+	public Document getDocument() {
+		Map<String, String> properties = new HashMap<String, String>(4 + propertyTags.length);
+		properties.put("docno", splitter.getDocno());
+		properties.put("filename", currentFile.getPath());
+		properties.put("offsetInFile", Long.toString(windowOffset + splitter.getTagStart()));
+		if (propertyTags.length > 0) {
+			ByteBuffer document = splitter.getDocument();
+			String text = charset.decode(document).toString();
+			for (String tag : propertyTags) {
+				String value = extractTag(text, tag);
+				if (value != null) {
+					properties.put(tag.toLowerCase(Locale.ROOT), value);
+				}
+			}
+		}
+		return new TaggedDocument(new InputStreamReader(new ByteBufferInputStream(splitter.getDocument()), charset),
+				properties, Tokeniser.getTokeniser());
+	}
+
+	/**
+	 * @return the trimmed content of the first occurrence of a tag in a text,
+	 *         regardless of case, or null if it does not occur
+	 */
+	protected static String extractTag(String text, String tag) {
+		int n = tag.length();
+		for (int i = text.indexOf('<'); i >= 0; i = text.indexOf('<', i + 1)) {
+			int after = i + n + 1;
+			if (after >= text.length() || !text.regionMatches(true, i + 1, tag, 0, n)
+					|| (text.charAt(after) != '>' && !Character.isWhitespace(text.charAt(after)))) {
+				continue;
+			}
+			int start = text.indexOf('>', after);
+			for (int j = start < 0 ? -1 : text.indexOf("</", start); j >= 0; j = text.indexOf("</", j + 1)) {
+				if (text.regionMatches(true, j + 2, tag, 0, n) && j + n + 2 < text.length()
+						&& text.charAt(j + n + 2) == '>') {
+					return text.substring(start + 1, j).trim();
+				}
+			}
+			return null;
+		}
+		return null;
+	}
+
+	public boolean endOfCollection() {
+		return endOfCollection;
+	}
+
+	public void reset() {
+		close();
+		nextFile = 0;
+		bytes = 0;
+		endOfCollection = false;
+	}
+
+	public void close() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.warn("Cannot close " + currentFile, e);
+			}
+			channel = null;
+		}
+		splitter = null;
+	}
+
+	/**
+	 * @return the number of bytes split so far
+	 */
+	public long getBytesRead() {
+		return bytes;
+	}
+
+	/**
+	 * Stream over the bytes of a buffer.
+	 */
+	protected static class ByteBufferInputStream extends InputStream {
+
+		protected final ByteBuffer buffer;
+
+		public ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!buffer.hasRemaining()) {
+				return len == 0 ? 0 : -1;
+			}
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+	/**
+	 * Splits the given files, or those of collection.spec, without
+	 * tokenising them and reports the throughput.
+	 * 
+	 * @param args
+	 *            the files to split
+	 * @throws IOException
+	 *             if a file cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		List<File> files = new ArrayList<File>();
+		for (String arg : args) {
+			files.add(new File(arg));
+		}
+		MappedTRECCollection collection = args.length > 0 ? new MappedTRECCollection(files)
+				: new MappedTRECCollection();
+		long start = System.currentTimeMillis();
+		int documents = 0;
+		int missing = 0;
+		while (collection.nextDocument()) {
+			documents++;
+			if (collection.splitter.getDocno() == null) {
+				missing++;
+			}
+		}
+		collection.close();
+		long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+		logger.info(String.format("Split %d documents (%d without docno) from %d bytes in %d ms, %.1f MB/s", documents,
+				missing, collection.getBytesRead(), elapsed, collection.getBytesRead() / 1048.576d / elapsed));
+	}
+}
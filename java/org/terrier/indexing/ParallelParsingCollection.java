@@ -0,0 +1,358 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.indexing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.terms.TermPipeline;
+import org.terrier.terms.TermPipelineChain;
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * Collection which passes the tokens of the documents of another collection
+ * through the term pipeline on several worker threads, while the indexer
+ * receives the resulting terms in the original order of the documents, so
+ * that the docids do not depend on the number of threads.
+ * <p>
+ * A reader thread takes the documents from the underlying collection, reads
+ * their tokens and numbers them: the documents of collections such as
+ * TRECCollection are read lazily from the stream of the collection, which
+ * moves on at the next document, hence they cannot be handed to another
+ * thread unread. The workers apply the term pipeline to the tokens and put
+ * their output in a reorder buffer, from which
+ * {@link #nextDocument()} takes the documents in order. A document is
+ * admitted only when fewer than <code>parallel.queue.size</code> documents are
+ * in flight, which bounds the memory used whatever the speed of the indexer.
+ * <p>
+ * The term pipeline is applied by the workers, hence the indexer must not
+ * apply it again: set <code>termpipelines</code> to the empty string and the
+ * pipeline in <code>parallel.termpipelines</code>. The underlying collection
+ * is chained through the {@link #ParallelParsingCollection(Collection)}
+ * constructor, e.g.
+ * 
+ * <pre>
+ * trec.collection.class=ParallelParsingCollection,TRECCollection
+ * </pre>
+ * <p>
+ * <b>Properties:</b>
+ * <ul>
+ * <li><code>parallel.termpipelines</code> - the term pipeline applied by the
+ * workers.</li>
+ * <li><code>parallel.threads</code> - the number of workers, default the
+ * number of processors minus one.</li>
+ * <li><code>parallel.queue.size</code> - the maximum number of documents in
+ * flight, default 1000.</li>
+ * </ul>
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class ParallelParsingCollection implements Collection {
+
+	protected static final Logger logger = LoggerFactory.getLogger(ParallelParsingCollection.class);
+
+	/** The tokens of a document and its position in the collection */
+	private static final class Task {
+
+		final long sequence;
+
+		final TokenisedDocument document;
+
+		Task(long sequence, TokenisedDocument document) {
+			this.sequence = sequence;
+			this.document = document;
+		}
+	}
+
+	/** Tells a worker to stop */
+	private static final Task STOP = new Task(-1, null);
+
+	/** The collection being parsed */
+	protected final Collection collection;
+
+	protected final String termPipelines;
+
+	protected final int capacity;
+
+	/** The documents waiting for a worker */
+	private final BlockingQueue<Task> tasks;
+
+	/** The permits of the documents that can enter the pipeline */
+	private final Semaphore permits;
+
+	/** The parsed documents, at their sequence number modulo the capacity */
+	private final TokenisedDocument[] ready;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition readyChanged = lock.newCondition();
+
+	private final List<Thread> threads = new ArrayList<Thread>();
+
+	/** The number of documents read, known once the reader is done */
+	private long total = -1;
+
+	/** The sequence number of the next document to hand out */
+	private long next = 0;
+
+	private Throwable failure = null;
+
+	private TokenisedDocument current = null;
+
+	private boolean endOfCollection = false;
+
+	/**
+	 * constructor, reading the settings from the properties
+	 * 
+	 * @param collection
+	 *            the collection to parse
+	 */
+	public ParallelParsingCollection(Collection collection) {
+		this(collection, ApplicationSetup.getProperty("parallel.termpipelines", ""),
+				Integer.parseInt(ApplicationSetup.getProperty("parallel.threads",
+						Integer.toString(Math.max(Runtime.getRuntime().availableProcessors() - 1, 1)))),
+				Integer.parseInt(ApplicationSetup.getProperty("parallel.queue.size", "1000")));
+	}
+
+	/**
+	 * constructor
+	 * 
+	 * @param collection
+	 *            the collection to parse
+	 * @param termPipelines
+	 *            the term pipeline applied by the workers
+	 * @param threads
+	 *            the number of workers
+	 * @param capacity
+	 *            the maximum number of documents in flight
+	 */
+	public ParallelParsingCollection(Collection collection, String termPipelines, int threads, int capacity) {
+		this.collection = collection;
+		this.termPipelines = termPipelines;
+		this.capacity = capacity;
+		this.tasks = new ArrayBlockingQueue<Task>(capacity + threads);
+		this.permits = new Semaphore(capacity);
+		this.ready = new TokenisedDocument[capacity];
+
+		/* fail early if the pipeline cannot be created */
+		TermPipelineChain.create(termPipelines, new TermCollector());
+
+		for (int i = 0; i < threads; i++) {
+			start(new Worker(), "parser-" + i);
+		}
+		start(new Reader(threads), "reader");
+		logger.info("Parsing with {} threads, at most {} documents in flight, term pipeline: {}", threads, capacity,
+				termPipelines);
+	}
+
+	private void start(Runnable runnable, String name) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		threads.add(thread);
+		thread.start();
+	}
+
+	private void fail(Throwable t) {
+		lock.lock();
+		try {
+			if (failure == null) {
+				failure = t;
+			}
+			readyChanged.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reads the tokens of the documents and numbers them, waiting for a permit
+	 * before passing each of them to the workers.
+	 */
+	private class Reader implements Runnable {
+
+		private final int workers;
+
+		Reader(int workers) {
+			this.workers = workers;
+		}
+
+		public void run() {
+			long sequence = 0;
+			try {
+				while (collection.nextDocument()) {
+					Document document = collection.getDocument();
+					if (document == null) {
+						continue;
+					}
+					TokenisedDocument tokens = TokenisedDocument.read(document);
+					permits.acquire();
+					tasks.put(new Task(sequence++, tokens));
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (Throwable t) {
+				fail(t);
+			}
+			lock.lock();
+			try {
+				total = sequence;
+				readyChanged.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			try {
+				for (int i = 0; i < workers; i++) {
+					tasks.put(STOP);
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Applies the term pipeline to the tokens of the documents.
+	 */
+	private class Worker implements Runnable {
+
+		public void run() {
+			TermCollector collector = new TermCollector();
+			TermPipeline pipeline = TermPipelineChain.create(termPipelines, collector);
+			try {
+				Task task;
+				while ((task = tasks.take()) != STOP) {
+					TokenisedDocument document = task.document;
+					while (!document.endOfDocument()) {
+						pipeline.processTerm(document.getNextTerm());
+					}
+					pipeline.reset();
+					TokenisedDocument parsed = collector.toDocument(document);
+
+					lock.lock();
+					try {
+						ready[(int) (task.sequence % capacity)] = parsed;
+						readyChanged.signalAll();
+					} finally {
+						lock.unlock();
+					}
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (Throwable t) {
+				fail(t);
+			}
+		}
+	}
+
+	/**
+	 * The end of the term pipeline of a worker, collecting the terms of a
+	 * document.
+	 */
+	private static class TermCollector implements TermPipeline {
+
+		private String[] terms = new String[256];
+
+		private int length = 0;
+
+		public void processTerm(String t) {
+			if (t == null) {
+				return;
+			}
+			if (length == terms.length) {
+				String[] tmp = new String[length << 1];
+				System.arraycopy(terms, 0, tmp, 0, length);
+				terms = tmp;
+			}
+			terms[length++] = t;
+		}
+
+		public boolean reset() {
+			return true;
+		}
+
+		TokenisedDocument toDocument(Document document) {
+			String[] copy = new String[length];
+			System.arraycopy(terms, 0, copy, 0, length);
+			length = 0;
+			return new TokenisedDocument(copy, copy.length, document.getAllProperties());
+		}
+	}
+
+	public boolean nextDocument() {
+		if (endOfCollection) {
+			return false;
+		}
+		int slot = (int) (next % capacity);
+		lock.lock();
+		try {
+			while (ready[slot] == null && failure == null && total != next) {
+				readyChanged.await();
+			}
+			if (failure != null) {
+				throw new IllegalStateException("Parsing failed", failure);
+			}
+			if (ready[slot] == null) {
+				endOfCollection = true;
+				current = null;
+				return false;
+			}
+			current = ready[slot];
+			ready[slot] = null;
+			next++;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a document", e);
+		} finally {
+			lock.unlock();
+		}
+		permits.release();
+		return true;
+	}
+
+	public Document getDocument() {
+		return current;
+	}
+
+	public boolean endOfCollection() {
+		return endOfCollection;
+	}
+
+	/**
+	 * The documents cannot be parsed again.
+	 */
+	public void reset() {
+		throw new UnsupportedOperationException("A parallel collection cannot be rewound");
+	}
+
+	public void close() throws IOException {
+		for (Thread thread : threads) {
+			thread.interrupt();
+		}
+		collection.close();
+		logger.info("Parsed {} documents", next);
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.indexing;
+
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Collection whose documents are taken from a queue filled by another thread,
+ * until the {@link #END} marker is taken. The producer blocks when the queue is
+ * full, which bounds the number of documents in flight. As for a
+ * {@link ParallelParsingCollection}, the documents taken are gone and the
+ * collection cannot be rewound: {@link #reset()} throws an
+ * UnsupportedOperationException.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class QueueCollection implements Collection {
+
+	/** The marker of the end of the collection */
+	public static final Document END = new TokenisedDocument(new String[0], 0,
+			Collections.<String, String> emptyMap());
+
+	protected final BlockingQueue<Document> queue;
+
+	protected Document current = null;
+
+	protected boolean endOfCollection = false;
+
+	/** The number of documents taken from the queue */
+	protected int numberOfDocuments = 0;
+
+	/**
+	 * constructor
+	 * 
+	 * @param queue
+	 *            the queue of the documents
+	 */
+	public QueueCollection(BlockingQueue<Document> queue) {
+		this.queue = queue;
+	}
+
+	public boolean nextDocument() {
+		if (endOfCollection) {
+			return false;
+		}
+		try {
+			current = queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a document", e);
+		}
+		if (current == END) {
+			current = null;
+			endOfCollection = true;
+		} else {
+			numberOfDocuments++;
+		}
+		return !endOfCollection;
+	}
+
+	/**
+	 * @return the number of documents taken from the queue so far
+	 */
+	public int getNumberOfDocuments() {
+		return numberOfDocuments;
+	}
+
+	public Document getDocument() {
+		return current;
+	}
+
+	public boolean endOfCollection() {
+		return endOfCollection;
+	}
+
+	/**
+	 * The documents cannot be taken again.
+	 */
+	public void reset() {
+		throw new UnsupportedOperationException("A queue collection cannot be rewound");
+	}
+
+	public void close() {
+	}
+}
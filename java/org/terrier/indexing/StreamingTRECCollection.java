@@ -0,0 +1,217 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.indexing;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.utility.ApplicationSetup;
+import org.terrier.utility.UnixCompressInputStream;
+
+/**
+ * TREC collection read directly from the directory trees where it is stored,
+ * without copying the files into a corpus directory nor listing them in a
+ * <code>collection.spec</code>. The files under the roots are visited in
+ * lexicographical order and streamed one after the other through large NIO
+ * buffers; <code>.gz</code> and <code>.Z</code> files are decompressed on the
+ * fly.
+ * <p>
+ * The roots are a comma-separated list of directories or files, taken from the
+ * property <code>trec.collection.roots.NAME</code> when
+ * <code>trec.collection.name</code> is NAME, and from
+ * <code>trec.collection.roots</code> otherwise, e.g.
+ * 
+ * <pre>
+ * trec.collection.name=en_ah_mono_0002
+ * trec.collection.roots.en_ah_mono_0002=/data/CLEF/AH-CLEF2000/documents/AH-MONO-EN-CLEF2000/LATIMES1994
+ * trec.collection.class=StreamingTRECCollection
+ * </pre>
+ * 
+ * Files whose name matches the regular expression
+ * <code>trec.collection.exclude</code> are skipped.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class StreamingTRECCollection extends TRECCollection {
+
+	protected static final Logger logger = LoggerFactory.getLogger(StreamingTRECCollection.class);
+
+	/** The size of the read buffers */
+	protected static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * constructor, reading the roots from the properties
+	 */
+	public StreamingTRECCollection() {
+		this(getRoots());
+	}
+
+	/**
+	 * constructor used by <code>trec.collection.class</code>; the files are
+	 * found under the roots given by the properties rather than listed in a
+	 * <code>collection.spec</code>, hence the arguments are ignored
+	 * 
+	 * @param collectionSpec
+	 *            ignored
+	 * @param tagSet
+	 *            ignored
+	 * @param blacklistSpec
+	 *            ignored
+	 * @param docPointersFilename
+	 *            ignored
+	 */
+	public StreamingTRECCollection(String collectionSpec, String tagSet, String blacklistSpec,
+			String docPointersFilename) {
+		this(getRoots());
+	}
+
+	/**
+	 * constructor
+	 * 
+	 * @param roots
+	 *            the directories or files holding the collection
+	 */
+	public StreamingTRECCollection(String[] roots) {
+		super(open(listFiles(roots, ApplicationSetup.getProperty("trec.collection.exclude", ""))));
+	}
+
+	/**
+	 * Reads the roots of the collection from the properties.
+	 * 
+	 * @return the roots
+	 */
+	protected static String[] getRoots() {
+		String name = ApplicationSetup.getProperty("trec.collection.name", "");
+		String roots = name.length() > 0 ? ApplicationSetup.getProperty("trec.collection.roots." + name, "") : "";
+		if (roots.length() == 0) {
+			roots = ApplicationSetup.getProperty("trec.collection.roots", "");
+		}
+		if (roots.length() == 0) {
+			throw new IllegalArgumentException("No roots given for the collection " + name);
+		}
+		return roots.split("\\s*,\\s*");
+	}
+
+	/**
+	 * Lists the files under the given roots, in lexicographical order within
+	 * each root.
+	 * 
+	 * @param roots
+	 *            the directories or files holding the collection
+	 * @param exclude
+	 *            the regular expression of the file names to skip, empty for
+	 *            none
+	 * @return the files
+	 */
+	public static List<File> listFiles(String[] roots, String exclude) {
+		Pattern pattern = exclude.length() > 0 ? Pattern.compile(exclude) : null;
+		List<File> files = new ArrayList<File>();
+		for (String root : roots) {
+			File file = new File(root);
+			if (!file.exists()) {
+				throw new IllegalArgumentException("Missing collection root " + root);
+			}
+			listFiles(file, pattern, files);
+		}
+		logger.info("Streaming {} files from {}", files.size(), Arrays.toString(roots));
+		return files;
+	}
+
+	private static void listFiles(File file, Pattern exclude, List<File> files) {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			if (children == null) {
+				throw new IllegalStateException("Cannot list " + file);
+			}
+			Arrays.sort(children);
+			for (File child : children) {
+				if (!child.isHidden()) {
+					listFiles(child, exclude, files);
+				}
+			}
+		} else if (exclude == null || !exclude.matcher(file.getName()).matches()) {
+			files.add(file);
+		}
+	}
+
+	/**
+	 * Opens a file through a large NIO buffer, decompressing it if its name
+	 * ends with <code>.gz</code> or <code>.Z</code>.
+	 * 
+	 * @param file
+	 *            the file to open
+	 * @return the stream of its content
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public static InputStream openFile(File file) throws IOException {
+		InputStream in = new BufferedInputStream(
+				Channels.newInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ)), BUFFER_SIZE);
+		String name = file.getName();
+		if (name.endsWith(".gz")) {
+			return new BufferedInputStream(new GZIPInputStream(in, 1 << 16), 1 << 16);
+		}
+		if (name.endsWith(".Z")) {
+			return new BufferedInputStream(new UnixCompressInputStream(in), 1 << 16);
+		}
+		return in;
+	}
+
+	/**
+	 * Concatenates the given files, opening each of them only when the
+	 * previous one is exhausted.
+	 */
+	private static InputStream open(final List<File> files) {
+		return new SequenceInputStream(new Enumeration<InputStream>() {
+			private int next = 0;
+
+			public boolean hasMoreElements() {
+				return next < files.size();
+			}
+
+			public InputStream nextElement() {
+				if (next >= files.size()) {
+					throw new NoSuchElementException();
+				}
+				File file = files.get(next++);
+				logger.debug("Processing {}", file);
+				try {
+					return openFile(file);
+				} catch (IOException e) {
+					throw new IllegalStateException("Cannot open " + file, e);
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.indexing;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Splits the bytes of a TREC file into documents, finding the document and
+ * docno tags directly on the bytes, without decoding the characters nor
+ * parsing the other tags. The search for the next <code>&lt;</code> reads
+ * eight bytes at a time, testing them all with a few arithmetic operations.
+ * Each document is handed out as a slice of the underlying buffer, so that
+ * a memory-mapped file is never copied, and only its docno is decoded.
+ * <p>
+ * Tag names are matched regardless of case. When the buffer is a window on a
+ * larger file, a document cut by the end of the window is not returned and
+ * {@link #getResumePosition()} tells where the next window should start.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class TRECDocumentSplitter {
+
+	private static final long ONES = 0x0101010101010101L;
+
+	private static final long HIGHS = 0x8080808080808080L;
+
+	private static final long LTS = ONES * '<';
+
+	/** Returned by matchTag when the buffer ends within the tag */
+	private static final int TRUNCATED = -2;
+
+	/** The bytes being split, in little endian order */
+	protected final ByteBuffer buffer;
+
+	/** Whether the end of the buffer is the end of the file */
+	protected final boolean endOfFile;
+
+	protected final Charset charset;
+
+	/** The upper-case and lower-case bytes of the document tag name */
+	private final byte[] docUpper, docLower;
+
+	/** The upper-case and lower-case bytes of the docno tag name */
+	private final byte[] docnoUpper, docnoLower;
+
+	/** The position where the search goes on */
+	protected int position;
+
+	/** The position where the current document starts being parsed */
+	protected int resumePosition;
+
+	/** The position of the opening tag of the current document */
+	protected int tagStart;
+
+	protected int documentStart;
+
+	/** The position following the docno of the current document, if any */
+	protected int contentStart;
+
+	protected int documentEnd;
+
+	protected String docno;
+
+	/**
+	 * constructor
+	 * 
+	 * @param buffer
+	 *            the bytes to split, from its position to its limit
+	 * @param endOfFile
+	 *            whether the buffer ends where the file ends
+	 * @param docTag
+	 *            the name of the document tag, e.g. DOC
+	 * @param docnoTag
+	 *            the name of the docno tag, e.g. DOCNO
+	 * @param charset
+	 *            the charset of the docnos
+	 */
+	public TRECDocumentSplitter(ByteBuffer buffer, boolean endOfFile, String docTag, String docnoTag,
+			Charset charset) {
+		this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		this.endOfFile = endOfFile;
+		this.charset = charset;
+		this.docUpper = docTag.toUpperCase(Locale.ROOT).getBytes(Charset.forName("US-ASCII"));
+		this.docLower = docTag.toLowerCase(Locale.ROOT).getBytes(Charset.forName("US-ASCII"));
+		this.docnoUpper = docnoTag.toUpperCase(Locale.ROOT).getBytes(Charset.forName("US-ASCII"));
+		this.docnoLower = docnoTag.toLowerCase(Locale.ROOT).getBytes(Charset.forName("US-ASCII"));
+		this.position = buffer.position();
+		this.resumePosition = position;
+	}
+
+	/**
+	 * Finds the next document.
+	 * 
+	 * @return false if there are no more complete documents in the buffer
+	 */
+	public boolean next() {
+		final int limit = buffer.limit();
+		int i;
+		/* the opening tag of the document */
+		while (true) {
+			i = indexOfTag(position, limit);
+			if (i < 0) {
+				position = limit;
+				resumePosition = limit;
+				return false;
+			}
+			int end = matchTag(i, false, docUpper, docLower, limit);
+			if (end == TRUNCATED && !endOfFile) {
+				position = i;
+				resumePosition = i;
+				return false;
+			}
+			if (end > 0) {
+				resumePosition = i;
+				tagStart = i;
+				documentStart = end;
+				contentStart = end;
+				position = end;
+				break;
+			}
+			position = i + 1;
+		}
+		/* the docno and the closing tag of the document */
+		docno = null;
+		while (true) {
+			i = indexOfTag(position, limit);
+			if (i < 0) {
+				if (!endOfFile) {
+					position = resumePosition;
+					return false;
+				}
+				documentEnd = limit;
+				position = limit;
+				resumePosition = limit;
+				return true;
+			}
+			int end = docno == null ? matchTag(i, false, docnoUpper, docnoLower, limit) : -1;
+			if (end > 0) {
+				int closeEnd = -1;
+				int close = indexOfTag(end, limit);
+				while (close >= 0 && (closeEnd = matchTag(close, true, docnoUpper, docnoLower, limit)) < 0) {
+					close = indexOfTag(close + 1, limit);
+				}
+				if (close < 0) {
+					position = end;
+					continue;
+				}
+				docno = decode(end, close).trim();
+				contentStart = closeEnd;
+				position = close + 1;
+				continue;
+			}
+			int close = matchTag(i, true, docUpper, docLower, limit);
+			if ((end == TRUNCATED || close == TRUNCATED) && !endOfFile) {
+				/* a tag cut by the end of the window */
+				position = resumePosition;
+				return false;
+			}
+			if (close > 0) {
+				documentEnd = i;
+				position = close;
+				resumePosition = close;
+				return true;
+			}
+			position = i + 1;
+		}
+	}
+
+	/**
+	 * Finds the next <code>&lt;</code>, testing eight bytes at a time: the
+	 * bytes equal to it become zero after the exclusive or, and the lowest
+	 * zero byte of a word is the lowest byte with its high bit set by the
+	 * subtraction and clear in the word itself.
+	 */
+	private int indexOfTag(int from, int limit) {
+		int i = from;
+		for (; i + 8 <= limit; i += 8) {
+			long word = buffer.getLong(i) ^ LTS;
+			long zeros = (word - ONES) & ~word & HIGHS;
+			if (zeros != 0) {
+				return i + (Long.numberOfTrailingZeros(zeros) >>> 3);
+			}
+		}
+		for (; i < limit; i++) {
+			if (buffer.get(i) == '<') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Matches the tag starting at the given position.
+	 * 
+	 * @return the position following the tag, -1 if it does not match or
+	 *         {@link #TRUNCATED} if the buffer ends within the tag
+	 */
+	private int matchTag(int i, boolean closing, byte[] upper, byte[] lower, int limit) {
+		int j = i + 1;
+		if (closing) {
+			if (j >= limit) {
+				return TRUNCATED;
+			}
+			if (buffer.get(j) != '/') {
+				return -1;
+			}
+			j++;
+		}
+		for (int k = 0; k < upper.length; k++, j++) {
+			if (j >= limit) {
+				return TRUNCATED;
+			}
+			byte b = buffer.get(j);
+			if (b != upper[k] && b != lower[k]) {
+				return -1;
+			}
+		}
+		if (j >= limit) {
+			return TRUNCATED;
+		}
+		byte b = buffer.get(j);
+		if (b == '>') {
+			return j + 1;
+		}
+		if (closing || (b != ' ' && b != '\t' && b != '\n' && b != '\r')) {
+			return -1;
+		}
+		/* attributes of an opening tag */
+		while (j < limit && buffer.get(j) != '>') {
+			j++;
+		}
+		return j < limit ? j + 1 : TRUNCATED;
+	}
+
+	private String decode(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int k = 0; k < bytes.length; k++) {
+			bytes[k] = buffer.get(start + k);
+		}
+		return new String(bytes, charset);
+	}
+
+	/**
+	 * @return the docno of the current document, null if it has none
+	 */
+	public String getDocno() {
+		return docno;
+	}
+
+	/**
+	 * @return the bytes of the current document from the end of its docno
+	 *         tag, or of its opening tag if it has no docno, to its closing
+	 *         tag, sharing the content of the buffer; as in TRECCollection,
+	 *         the docno is not part of the text
+	 */
+	public ByteBuffer getDocument() {
+		ByteBuffer slice = buffer.duplicate();
+		slice.limit(documentEnd).position(contentStart);
+		return slice.slice();
+	}
+
+	/**
+	 * @return the position of the opening tag of the current document within
+	 *         the buffer
+	 */
+	public int getTagStart() {
+		return tagStart;
+	}
+
+	/**
+	 * @return the position of the current document within the buffer
+	 */
+	public int getDocumentStart() {
+		return documentStart;
+	}
+
+	/**
+	 * @return the position of the text of the current document within the
+	 *         buffer, after its docno
+	 */
+	public int getContentStart() {
+		return contentStart;
+	}
+
+	/**
+	 * @return the position after the current document within the buffer
+	 */
+	public int getDocumentEnd() {
+		return documentEnd;
+	}
+
+	/**
+	 * @return the position from which the rest of the file must be split once
+	 *         {@link #next()} returned false
+	 */
+	public int getResumePosition() {
+		return resumePosition;
+	}
+}
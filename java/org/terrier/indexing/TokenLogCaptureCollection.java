@@ -0,0 +1,225 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.indexing;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * Collection which records the tokens of another collection in a token log
+ * while they are indexed, so that the other index variants of the same
+ * collection can be built by {@link TokenLogCollection} without parsing the
+ * corpus again. The tokens are logged as they come out of the tokeniser,
+ * before any term pipeline, hence a single log serves every stoplist,
+ * stemmer and n-grams setting. It can be set as
+ * <code>trec.collection.class</code>, reading the TRECCollection of the
+ * indexing arguments, or chained in front of another collection.
+ * <p>
+ * <b>Properties:</b>
+ * <ul>
+ * <li><code>tokenlog.file</code> - the token log to write.</li>
+ * </ul>
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class TokenLogCaptureCollection implements Collection {
+
+	protected static final Logger logger = LoggerFactory.getLogger(TokenLogCaptureCollection.class);
+
+	/** The collection being logged */
+	protected final Collection collection;
+
+	/** The name of the token log */
+	protected final String filename;
+
+	protected TokenLogWriter writer;
+
+	/** Whether a document has been started in the log and not yet ended */
+	private boolean inDocument = false;
+
+	/**
+	 * constructor, logging the TRECCollection described by the collection.spec
+	 * file to the log named by the <code>tokenlog.file</code> property
+	 */
+	public TokenLogCaptureCollection() {
+		this(new TRECCollection(), ApplicationSetup.getProperty("tokenlog.file", ""));
+	}
+
+	/**
+	 * constructor used by <code>trec.collection.class</code>, logging the
+	 * TRECCollection with the given arguments to the log named by the
+	 * <code>tokenlog.file</code> property
+	 * 
+	 * @param collectionSpec
+	 *            the collection.spec file
+	 * @param tagSet
+	 *            the tag set of the documents
+	 * @param blacklistSpec
+	 *            the file of the blacklisted docnos
+	 * @param docPointersFilename
+	 *            the file of the document pointers
+	 */
+	public TokenLogCaptureCollection(String collectionSpec, String tagSet, String blacklistSpec,
+			String docPointersFilename) {
+		this(new TRECCollection(collectionSpec, tagSet, blacklistSpec, docPointersFilename),
+				ApplicationSetup.getProperty("tokenlog.file", ""));
+	}
+
+	/**
+	 * constructor used when chained in <code>trec.collection.class</code>,
+	 * logging the given collection to the log named by the
+	 * <code>tokenlog.file</code> property
+	 * 
+	 * @param collection
+	 *            the collection to log
+	 */
+	public TokenLogCaptureCollection(Collection collection) {
+		this(collection, ApplicationSetup.getProperty("tokenlog.file", ""));
+	}
+
+	/**
+	 * constructor
+	 * 
+	 * @param collection
+	 *            the collection to log
+	 * @param filename
+	 *            the name of the token log
+	 */
+	public TokenLogCaptureCollection(Collection collection, String filename) {
+		this.collection = collection;
+		this.filename = filename;
+		this.writer = createWriter();
+	}
+
+	private TokenLogWriter createWriter() {
+		try {
+			return new TokenLogWriter(filename);
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot create the token log " + filename, e);
+		}
+	}
+
+	public boolean nextDocument() {
+		endDocument();
+		return collection.nextDocument();
+	}
+
+	public Document getDocument() {
+		Document document = collection.getDocument();
+		if (document == null) {
+			return null;
+		}
+		try {
+			writer.startDocument(document.getProperty("docno"));
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot write the token log", e);
+		}
+		inDocument = true;
+		return new CapturedDocument(document);
+	}
+
+	public boolean endOfCollection() {
+		return collection.endOfCollection();
+	}
+
+	/**
+	 * Rewinds the logged collection and starts the token log again.
+	 */
+	public void reset() {
+		endDocument();
+		try {
+			writer.close();
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot close the token log " + filename, e);
+		}
+		collection.reset();
+		writer = createWriter();
+	}
+
+	public void close() throws IOException {
+		endDocument();
+		writer.close();
+		collection.close();
+		logger.info("Token log: {} documents, {} tokens, {} distinct tokens, {} bytes",
+				writer.getNumberOfDocuments(), writer.getNumberOfTokens(), writer.getNumberOfTypes(),
+				writer.getBytesWritten());
+	}
+
+	private void endDocument() {
+		if (!inDocument) {
+			return;
+		}
+		try {
+			writer.endDocument();
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot write the token log", e);
+		}
+		inDocument = false;
+	}
+
+	/**
+	 * A document whose tokens are logged as they are read.
+	 */
+	protected class CapturedDocument implements Document {
+
+		private final Document document;
+
+		CapturedDocument(Document document) {
+			this.document = document;
+		}
+
+		public String getNextTerm() {
+			String term = document.getNextTerm();
+			if (term != null && term.length() > 0) {
+				try {
+					writer.addToken(term);
+				} catch (IOException e) {
+					throw new IllegalStateException("Cannot write the token log", e);
+				}
+			}
+			return term;
+		}
+
+		public Set<String> getFields() {
+			return document.getFields();
+		}
+
+		public boolean endOfDocument() {
+			return document.endOfDocument();
+		}
+
+		public Reader getReader() {
+			return document.getReader();
+		}
+
+		public String getProperty(String name) {
+			return document.getProperty(name);
+		}
+
+		public Map<String, String> getAllProperties() {
+			return document.getAllProperties();
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.indexing;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * Collection which replays a token log written by
+ * {@link TokenLogCaptureCollection}, so that an index variant can be built
+ * without reading and parsing the corpus again. The documents return the
+ * logged tokens, which the indexer passes through its own term pipeline.
+ * It can be set as <code>trec.collection.class</code>, in which case the
+ * collection.spec given to the indexing is ignored.
+ * <p>
+ * <b>Properties:</b>
+ * <ul>
+ * <li><code>tokenlog.file</code> - the token log to replay.</li>
+ * </ul>
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class TokenLogCollection implements Collection {
+
+	/** The name of the token log */
+	protected final String filename;
+
+	protected TokenLogReader reader;
+
+	protected boolean endOfCollection = false;
+
+	/**
+	 * constructor, reading the log named by the <code>tokenlog.file</code>
+	 * property
+	 */
+	public TokenLogCollection() {
+		this(ApplicationSetup.getProperty("tokenlog.file", ""));
+	}
+
+	/**
+	 * constructor used by <code>trec.collection.class</code>; the corpus is
+	 * not read, hence the arguments are ignored and the log named by the
+	 * <code>tokenlog.file</code> property is replayed
+	 * 
+	 * @param collectionSpec
+	 *            ignored
+	 * @param tagSet
+	 *            ignored
+	 * @param blacklistSpec
+	 *            ignored
+	 * @param docPointersFilename
+	 *            ignored
+	 */
+	public TokenLogCollection(String collectionSpec, String tagSet, String blacklistSpec,
+			String docPointersFilename) {
+		this(ApplicationSetup.getProperty("tokenlog.file", ""));
+	}
+
+	/**
+	 * constructor
+	 * 
+	 * @param filename
+	 *            the name of the token log
+	 */
+	public TokenLogCollection(String filename) {
+		this.filename = filename;
+		open();
+	}
+
+	public boolean nextDocument() {
+		try {
+			endOfCollection = !reader.nextDocument();
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot read the token log " + filename, e);
+		}
+		return !endOfCollection;
+	}
+
+	public Document getDocument() {
+		return new TokenLogDocument(reader.getDocno());
+	}
+
+	public boolean endOfCollection() {
+		return endOfCollection;
+	}
+
+	public void reset() {
+		try {
+			reader.close();
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot close the token log " + filename, e);
+		}
+		open();
+	}
+
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	private void open() {
+		try {
+			reader = new TokenLogReader(filename);
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot open the token log " + filename, e);
+		}
+		endOfCollection = false;
+	}
+
+	/**
+	 * The current document of the log; its tokens are read from the log as
+	 * they are requested.
+	 */
+	protected class TokenLogDocument implements Document {
+
+		private final Map<String, String> properties = new HashMap<String, String>(2);
+
+		/** The next token to return, null at the end of the document */
+		private String next;
+
+		TokenLogDocument(String docno) {
+			properties.put("docno", docno);
+			next = readToken();
+		}
+
+		public String getNextTerm() {
+			String term = next;
+			next = readToken();
+			return term;
+		}
+
+		public Set<String> getFields() {
+			return Collections.emptySet();
+		}
+
+		public boolean endOfDocument() {
+			return next == null;
+		}
+
+		/**
+		 * The text of the document is not in the log.
+		 * 
+		 * @return null
+		 */
+		public Reader getReader() {
+			return null;
+		}
+
+		public String getProperty(String name) {
+			return properties.get(name);
+		}
+
+		public Map<String, String> getAllProperties() {
+			return properties;
+		}
+
+		private String readToken() {
+			try {
+				return reader.nextToken();
+			} catch (IOException e) {
+				throw new IllegalStateException("Cannot read the token log " + filename, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.indexing;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.terms.TermCountMap;
+import org.terrier.terms.TermPipeline;
+import org.terrier.terms.TermPipelineChain;
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * Reads a token log written by {@link TokenLogWriter}, one document at a time.
+ * The log can also be replayed through any chain of TermPipeline objects with
+ * {@link #replay(TermPipeline)}; the pipeline is reset at the end of every
+ * document, as the indexer does.
+ * <p>
+ * Used from the command line, it replays a log through the pipeline given by
+ * the <code>termpipelines</code> property (or by the second argument) and
+ * reports the number of documents, tokens and terms that come out of it:
+ * 
+ * <pre>
+ * TokenLogReader tokens.log [Stopwords,KrovetzStemmer]
+ * </pre>
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class TokenLogReader implements Closeable {
+
+	protected static final Logger logger = LoggerFactory.getLogger(TokenLogReader.class);
+
+	/** The token dictionary, indexed by id */
+	private final List<String> dictionary = new ArrayList<String>();
+
+	private final DataInputStream in;
+
+	private final Inflater inflater = new Inflater();
+
+	/** The records of the current block */
+	private byte[] raw = new byte[TokenLogWriter.DEFAULT_BLOCK_SIZE];
+
+	/** The compressed current block */
+	private byte[] compressed = new byte[TokenLogWriter.DEFAULT_BLOCK_SIZE];
+
+	/** The position of the next record in raw */
+	private int pos = 0;
+
+	/** The end of the records in raw */
+	private int limit = 0;
+
+	private String docno = null;
+
+	private boolean inDocument = false;
+
+	/**
+	 * constructor
+	 * 
+	 * @param filename
+	 *            the name of the log file
+	 * @throws IOException
+	 *             if the log cannot be opened or is not a token log
+	 */
+	public TokenLogReader(String filename) throws IOException {
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 16));
+		if (in.readInt() != TokenLogWriter.MAGIC) {
+			in.close();
+			throw new IOException(filename + " is not a token log");
+		}
+	}
+
+	/**
+	 * Moves to the next document, skipping the tokens left in the current one.
+	 * 
+	 * @return false if there are no more documents
+	 * @throws IOException
+	 *             if the log cannot be read
+	 */
+	public boolean nextDocument() throws IOException {
+		while (inDocument) {
+			nextToken();
+		}
+		if (pos == limit && !readBlock()) {
+			docno = null;
+			return false;
+		}
+		if (readCode() != TokenLogWriter.START_DOC) {
+			throw new IOException("Corrupted token log: document start expected");
+		}
+		docno = readString();
+		inDocument = true;
+		return true;
+	}
+
+	/**
+	 * @return the docno of the current document
+	 */
+	public String getDocno() {
+		return docno;
+	}
+
+	/**
+	 * Returns the next token of the current document.
+	 * 
+	 * @return the next token, or null at the end of the document
+	 * @throws IOException
+	 *             if the log cannot be read
+	 */
+	public String nextToken() throws IOException {
+		if (!inDocument) {
+			return null;
+		}
+		int code = readCode();
+		if (code >= TokenLogWriter.FIRST_ID) {
+			return dictionary.get(code - TokenLogWriter.FIRST_ID);
+		} else if (code == TokenLogWriter.NEW_TOKEN) {
+			String token = readString();
+			dictionary.add(token);
+			return token;
+		} else if (code == TokenLogWriter.END_DOC) {
+			inDocument = false;
+			return null;
+		}
+		throw new IOException("Corrupted token log: unexpected document start");
+	}
+
+	/**
+	 * Passes all the remaining tokens of the log onto the given pipeline,
+	 * resetting it at the end of each document.
+	 * 
+	 * @param pipeline
+	 *            the first object of the pipeline
+	 * @return the number of documents replayed
+	 * @throws IOException
+	 *             if the log cannot be read
+	 */
+	public int replay(TermPipeline pipeline) throws IOException {
+		int documents = 0;
+		String token;
+		while (nextDocument()) {
+			while ((token = nextToken()) != null) {
+				pipeline.processTerm(token);
+			}
+			pipeline.reset();
+			documents++;
+		}
+		return documents;
+	}
+
+	/**
+	 * @return the number of distinct tokens read so far
+	 */
+	public int getNumberOfTypes() {
+		return dictionary.size();
+	}
+
+	public void close() throws IOException {
+		inflater.end();
+		in.close();
+	}
+
+	private boolean readBlock() throws IOException {
+		int rawLength;
+		try {
+			rawLength = in.readInt();
+		} catch (EOFException e) {
+			return false;
+		}
+		int compressedLength = in.readInt();
+		if (raw.length < rawLength) {
+			raw = new byte[rawLength];
+		}
+		if (compressed.length < compressedLength) {
+			compressed = new byte[compressedLength];
+		}
+		in.readFully(compressed, 0, compressedLength);
+
+		inflater.reset();
+		inflater.setInput(compressed, 0, compressedLength);
+		try {
+			limit = 0;
+			while (limit < rawLength) {
+				int n = inflater.inflate(raw, limit, rawLength - limit);
+				if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+					throw new IOException("Corrupted token log: truncated block");
+				}
+				limit += n;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupted token log", e);
+		}
+		pos = 0;
+		return limit > 0;
+	}
+
+	private int readCode() throws IOException {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			if (pos == limit) {
+				throw new IOException("Corrupted token log: record across blocks");
+			}
+			int b = raw[pos++] & 0xFF;
+			value |= (b & 0x7F) << shift;
+			if (b < 0x80) {
+				return value;
+			}
+		}
+	}
+
+	private String readString() throws IOException {
+		int length = readCode();
+		if (pos + length > limit) {
+			throw new IOException("Corrupted token log: string across blocks");
+		}
+		String s = new String(raw, pos, length, StandardCharsets.UTF_8);
+		pos += length;
+		return s;
+	}
+
+	/**
+	 * Replays a token log through a term pipeline and reports the resulting
+	 * statistics.
+	 * 
+	 * @param args
+	 *            the log file and, optionally, the term pipeline
+	 * @throws IOException
+	 *             if the log cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: TokenLogReader log [termpipelines]");
+			return;
+		}
+		final TermCountMap terms = new TermCountMap(1 << 16);
+		final long[] tokens = new long[1];
+		TermPipeline end = new TermPipeline() {
+			public void processTerm(String t) {
+				if (t != null) {
+					terms.add(t);
+					tokens[0]++;
+				}
+			}
+
+			public boolean reset() {
+				return true;
+			}
+		};
+		String pipes = args.length > 1 ? args[1] : ApplicationSetup.getProperty("termpipelines", "");
+
+		long start = System.currentTimeMillis();
+		TokenLogReader reader = new TokenLogReader(args[0]);
+		int documents = reader.replay(TermPipelineChain.create(pipes, end));
+		reader.close();
+
+		logger.info("Replayed {} documents through [{}] in {} ms: {} tokens, {} terms", documents, pipes,
+				System.currentTimeMillis() - start, tokens[0], terms.size());
+	}
+}
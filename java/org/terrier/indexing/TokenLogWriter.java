@@ -0,0 +1,249 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.indexing;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import org.terrier.utility.VByte;
+
+/**
+ * Writes the raw token stream of a collection to a compact binary log, which
+ * can be replayed by {@link TokenLogReader} to build any index variant without
+ * parsing the corpus again.
+ * <p>
+ * The log starts with the magic number {@link #MAGIC} and is made of
+ * independently deflated blocks, each starting on a document boundary and
+ * prefixed by its raw and compressed lengths. Inside the blocks every record is
+ * a variable-byte code:
+ * <ul>
+ * <li>{@link #END_DOC}: the end of the current document;</li>
+ * <li>{@link #START_DOC}: the start of a document, followed by its docno;</li>
+ * <li>{@link #NEW_TOKEN}: a token never seen before, followed by its text; it
+ * gets the next id of the dictionary;</li>
+ * <li>{@link #FIRST_ID} + id: a token already in the dictionary.</li>
+ * </ul>
+ * Strings are written as their UTF-8 byte length followed by the bytes. The
+ * log is written to a temporary file which is renamed on close, so that a
+ * partial log is never taken for a complete one.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class TokenLogWriter implements Closeable {
+
+	/** The magic number at the start of the log */
+	public static final int MAGIC = 0x544C4F47;
+
+	/** The code of the end of a document */
+	public static final int END_DOC = 0;
+
+	/** The code of the start of a document */
+	public static final int START_DOC = 1;
+
+	/** The code of a token not yet in the dictionary */
+	public static final int NEW_TOKEN = 2;
+
+	/** The code of the token with id 0 */
+	public static final int FIRST_ID = 3;
+
+	/** The default uncompressed size of a block */
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+	/** The token dictionary */
+	private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+
+	/** The records of the current block */
+	private final ByteArrayOutputStream block;
+
+	/** The buffer of the compressed block */
+	private byte[] deflated = new byte[1024];
+
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+	private final DataOutputStream out;
+
+	private final File tmpFile;
+
+	private final File file;
+
+	private final int blockSize;
+
+	private int numberOfDocuments = 0;
+
+	private long numberOfTokens = 0;
+
+	private long bytesWritten = 0;
+
+	/**
+	 * constructor
+	 * 
+	 * @param filename
+	 *            the name of the log file
+	 * @throws IOException
+	 *             if the log cannot be created
+	 */
+	public TokenLogWriter(String filename) throws IOException {
+		this(filename, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * constructor
+	 * 
+	 * @param filename
+	 *            the name of the log file
+	 * @param blockSize
+	 *            the uncompressed size after which a block is written
+	 * @throws IOException
+	 *             if the log cannot be created
+	 */
+	public TokenLogWriter(String filename, int blockSize) throws IOException {
+		this.file = new File(filename);
+		this.tmpFile = new File(filename + ".tmp");
+		this.blockSize = blockSize;
+		this.block = new ByteArrayOutputStream(blockSize + (blockSize >> 2));
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+		out.writeInt(MAGIC);
+		bytesWritten += 4;
+	}
+
+	/**
+	 * Starts a new document.
+	 * 
+	 * @param docno
+	 *            the docno of the document
+	 * @throws IOException
+	 *             if the log cannot be written
+	 */
+	public void startDocument(String docno) throws IOException {
+		VByte.write(block, START_DOC);
+		writeString(docno == null ? "" : docno);
+	}
+
+	/**
+	 * Appends a token to the current document.
+	 * 
+	 * @param token
+	 *            the token as returned by the tokeniser
+	 * @throws IOException
+	 *             if the log cannot be written
+	 */
+	public void addToken(String token) throws IOException {
+		Integer id = dictionary.get(token);
+		if (id == null) {
+			dictionary.put(token, dictionary.size());
+			VByte.write(block, NEW_TOKEN);
+			writeString(token);
+		} else {
+			VByte.write(block, FIRST_ID + id);
+		}
+		numberOfTokens++;
+	}
+
+	/**
+	 * Ends the current document.
+	 * 
+	 * @throws IOException
+	 *             if the log cannot be written
+	 */
+	public void endDocument() throws IOException {
+		VByte.write(block, END_DOC);
+		numberOfDocuments++;
+		if (block.size() >= blockSize) {
+			writeBlock();
+		}
+	}
+
+	/**
+	 * Writes the last block and makes the log available under its final name.
+	 * 
+	 * @throws IOException
+	 *             if the log cannot be written or renamed
+	 */
+	public void close() throws IOException {
+		if (block.size() > 0) {
+			writeBlock();
+		}
+		out.close();
+		deflater.end();
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Cannot replace " + file);
+		}
+		if (!tmpFile.renameTo(file)) {
+			throw new IOException("Cannot rename " + tmpFile + " to " + file);
+		}
+	}
+
+	/** @return the number of documents written */
+	public int getNumberOfDocuments() {
+		return numberOfDocuments;
+	}
+
+	/** @return the number of tokens written */
+	public long getNumberOfTokens() {
+		return numberOfTokens;
+	}
+
+	/** @return the number of distinct tokens written */
+	public int getNumberOfTypes() {
+		return dictionary.size();
+	}
+
+	/** @return the number of bytes of the log, up to the last block written */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	private void writeString(String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		VByte.write(block, bytes.length);
+		block.write(bytes);
+	}
+
+	private void writeBlock() throws IOException {
+		byte[] raw = block.toByteArray();
+		deflater.reset();
+		deflater.setInput(raw);
+		deflater.finish();
+
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == deflated.length) {
+				byte[] tmp = new byte[deflated.length << 1];
+				System.arraycopy(deflated, 0, tmp, 0, length);
+				deflated = tmp;
+			}
+			length += deflater.deflate(deflated, length, deflated.length - length);
+		}
+
+		out.writeInt(raw.length);
+		out.writeInt(length);
+		out.write(deflated, 0, length);
+		bytesWritten += 8 + length;
+		block.reset();
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.indexing;
+
+import java.io.Reader;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Document whose tokens have already been extracted, e.g. by a parsing thread,
+ * and are handed to an indexer from an array.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class TokenisedDocument implements Document {
+
+	protected final String[] tokens;
+
+	protected final int length;
+
+	protected final Map<String, String> properties;
+
+	/** The position of the next token */
+	protected int pos = 0;
+
+	/**
+	 * constructor
+	 * 
+	 * @param tokens
+	 *            the tokens of the document
+	 * @param length
+	 *            the number of tokens
+	 * @param properties
+	 *            the properties of the document, e.g. its docno
+	 */
+	public TokenisedDocument(String[] tokens, int length, Map<String, String> properties) {
+		this.tokens = tokens;
+		this.length = length;
+		this.properties = properties;
+	}
+
+	/**
+	 * Reads all the tokens of the given document.
+	 * 
+	 * @param document
+	 *            the document to read
+	 * @return the tokenised document
+	 */
+	public static TokenisedDocument read(Document document) {
+		String[] tokens = new String[256];
+		int length = 0;
+		String term;
+		while (!document.endOfDocument()) {
+			if ((term = document.getNextTerm()) != null && term.length() > 0) {
+				if (length == tokens.length) {
+					String[] tmp = new String[length << 1];
+					System.arraycopy(tokens, 0, tmp, 0, length);
+					tokens = tmp;
+				}
+				tokens[length++] = term;
+			}
+		}
+		return new TokenisedDocument(tokens, length, document.getAllProperties());
+	}
+
+	/**
+	 * @return a copy of this document positioned on its first token, sharing
+	 *         the tokens and properties
+	 */
+	public TokenisedDocument copy() {
+		return new TokenisedDocument(tokens, length, properties);
+	}
+
+	/**
+	 * @return the number of tokens of the document
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	public String getNextTerm() {
+		return pos < length ? tokens[pos++] : null;
+	}
+
+	public Set<String> getFields() {
+		return Collections.emptySet();
+	}
+
+	public boolean endOfDocument() {
+		return pos >= length;
+	}
+
+	/**
+	 * The text of the document is not kept.
+	 * 
+	 * @return null
+	 */
+	public Reader getReader() {
+		return null;
+	}
+
+	public String getProperty(String name) {
+		return properties.get(name);
+	}
+
+	public Map<String, String> getAllProperties() {
+		return properties;
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.indexing;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * Collection which validates another collection while it is being indexed:
+ * it counts the documents, checks that their docnos are present and unique,
+ * and computes a CRC32 checksum of the docnos and of the tokens as they are
+ * read by the indexer, so that no extra pass over the corpus is needed. When
+ * the expected number of documents is given, an excess is reported as soon as
+ * it happens and a shortfall when the collection is closed.
+ * <p>
+ * The results are written to a report when the collection is closed. The
+ * collection to validate is chained through the
+ * {@link #ValidatingCollection(Collection)} constructor, e.g.
+ * 
+ * <pre>
+ * trec.collection.class=ValidatingCollection,TRECCollection
+ * </pre>
+ * <p>
+ * <b>Properties:</b>
+ * <ul>
+ * <li><code>validation.expected.documents</code> - the expected number of
+ * documents, if known.</li>
+ * <li><code>validation.report</code> - the report, default
+ * <code>path/prefix.validation</code> in the index directory.</li>
+ * <li><code>validation.fail</code> - whether to throw an exception when the
+ * collection is closed if it is not valid, default false.</li>
+ * </ul>
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class ValidatingCollection implements Collection {
+
+	protected static final Logger logger = LoggerFactory.getLogger(ValidatingCollection.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The maximum number of problems logged one by one */
+	private static final int MAX_LOGGED = 10;
+
+	/** The collection being validated */
+	protected final Collection collection;
+
+	protected final long expectedDocuments;
+
+	protected final String report;
+
+	protected final Set<String> docnos = new HashSet<String>();
+
+	protected final CRC32 checksum = new CRC32();
+
+	protected long documents = 0;
+
+	protected long tokens = 0;
+
+	protected long duplicates = 0;
+
+	protected long missingDocnos = 0;
+
+	/**
+	 * constructor, reading the settings from the properties
+	 * 
+	 * @param collection
+	 *            the collection to validate
+	 */
+	public ValidatingCollection(Collection collection) {
+		this(collection, Long.parseLong(ApplicationSetup.getProperty("validation.expected.documents", "-1")),
+				ApplicationSetup.getProperty("validation.report", ApplicationSetup.TERRIER_INDEX_PATH + "/"
+						+ ApplicationSetup.TERRIER_INDEX_PREFIX + ".validation"));
+	}
+
+	/**
+	 * constructor
+	 * 
+	 * @param collection
+	 *            the collection to validate
+	 * @param expectedDocuments
+	 *            the expected number of documents, -1 if unknown
+	 * @param report
+	 *            the report to write
+	 */
+	public ValidatingCollection(Collection collection, long expectedDocuments, String report) {
+		this.collection = collection;
+		this.expectedDocuments = expectedDocuments;
+		this.report = report;
+	}
+
+	public boolean nextDocument() {
+		return collection.nextDocument();
+	}
+
+	public Document getDocument() {
+		Document document = collection.getDocument();
+		if (document == null) {
+			return null;
+		}
+		documents++;
+		if (documents == expectedDocuments + 1) {
+			logger.error("The collection has more than the {} documents expected", expectedDocuments);
+		}
+
+		String docno = document.getProperty("docno");
+		if (docno == null || docno.length() == 0) {
+			if (missingDocnos++ < MAX_LOGGED) {
+				logger.warn("Document {} has no docno", documents);
+			}
+			update("");
+		} else {
+			if (!docnos.add(docno) && duplicates++ < MAX_LOGGED) {
+				logger.warn("Duplicate docno {} at document {}", docno, documents);
+			}
+			update(docno);
+		}
+		return new ValidatedDocument(document);
+	}
+
+	private void update(String s) {
+		byte[] bytes = s.getBytes(UTF8);
+		checksum.update(bytes, 0, bytes.length);
+		/* separates the strings, so that their concatenation does not count */
+		checksum.update(0);
+	}
+
+	public boolean endOfCollection() {
+		return collection.endOfCollection();
+	}
+
+	/**
+	 * Rewinding starts the validation from scratch.
+	 */
+	public void reset() {
+		collection.reset();
+		docnos.clear();
+		checksum.reset();
+		documents = tokens = duplicates = missingDocnos = 0;
+	}
+
+	/**
+	 * @return true if the documents counted so far have unique docnos and, if
+	 *         known, match the expected number
+	 */
+	public boolean isValid() {
+		return duplicates == 0 && missingDocnos == 0 && (expectedDocuments < 0 || documents == expectedDocuments);
+	}
+
+	/**
+	 * @return the checksum of the docnos and tokens read so far
+	 */
+	public long getChecksum() {
+		return checksum.getValue();
+	}
+
+	/**
+	 * @return the number of documents read so far
+	 */
+	public long getNumberOfDocuments() {
+		return documents;
+	}
+
+	public void close() throws IOException {
+		collection.close();
+		boolean valid = isValid();
+		PrintWriter out = new PrintWriter(new FileWriter(report));
+		try {
+			out.println("documents=" + documents);
+			out.println("expected.documents=" + expectedDocuments);
+			out.println("unique.docnos=" + docnos.size());
+			out.println("duplicate.docnos=" + duplicates);
+			out.println("missing.docnos=" + missingDocnos);
+			out.println("tokens=" + tokens);
+			out.println("checksum=" + String.format("%08x", checksum.getValue()));
+			out.println("valid=" + valid);
+		} finally {
+			out.close();
+		}
+		if (valid) {
+			logger.info("Validated {} documents, {} tokens, checksum {}", documents, tokens,
+					String.format("%08x", checksum.getValue()));
+			return;
+		}
+		logger.error("The collection is not valid: {} documents ({} expected), {} duplicate and {} missing docnos, "
+				+ "see {}", documents, expectedDocuments, duplicates, missingDocnos, report);
+		if (Boolean.parseBoolean(ApplicationSetup.getProperty("validation.fail", "false"))) {
+			throw new IllegalStateException("The collection is not valid, see " + report);
+		}
+	}
+
+	/**
+	 * A document whose tokens are added to the checksum as they are read.
+	 */
+	protected class ValidatedDocument implements Document {
+
+		private final Document document;
+
+		ValidatedDocument(Document document) {
+			this.document = document;
+		}
+
+		public String getNextTerm() {
+			String term = document.getNextTerm();
+			if (term != null && term.length() > 0) {
+				tokens++;
+				update(term);
+			}
+			return term;
+		}
+
+		public Set<String> getFields() {
+			return document.getFields();
+		}
+
+		public boolean endOfDocument() {
+			return document.endOfDocument();
+		}
+
+		public Reader getReader() {
+			return document.getReader();
+		}
+
+		public String getProperty(String name) {
+			return document.getProperty(name);
+		}
+
+		public Map<String, String> getAllProperties() {
+			return document.getAllProperties();
+		}
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.matching;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.matching.models.WeightingModel;
+import org.terrier.structures.CollectionStatistics;
+import org.terrier.structures.Index;
+import org.terrier.structures.Lexicon;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.PostingIndex;
+import org.terrier.structures.PostingListCache;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * Scores a whole batch of queries, e.g. a topic set, term at a time, reading
+ * the posting list of each distinct term of the batch only once. Each posting
+ * is scored for every query containing the term and added to the dense
+ * accumulator of that query; the documents of each query are ranked once all
+ * the posting lists have been read. Meant for offline runs, where all the
+ * queries are known in advance.
+ * <p>
+ * The accumulators take 9 bytes per document per query, a score and a flag
+ * telling whether the document is matched: when the batch does not fit <code>batch.matching.memory</code> (MB, default 512), it is split
+ * into consecutive chunks of queries that do, each reading the posting lists
+ * of its own terms once. The accumulators are allocated on first use and
+ * reused by the later chunks and batches, only their touched entries being
+ * cleared. The terms whose frequency exceeds the number of documents are
+ * ignored only when <code>ignore.low.idf.terms</code> is true, by default
+ * false, and all the documents containing at least one query term are ranked. Documents with the
+ * same score are ranked by increasing docid. The contributions of the terms
+ * are added in the order in which the terms first appear in the batch, so a
+ * score may differ in its last bits from a query at a time evaluation.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class BatchMatching {
+
+	protected static final Logger logger = LoggerFactory.getLogger(BatchMatching.class);
+
+	protected final Lexicon<String> lexicon;
+
+	/** The inverted index, behind the {@link PostingListCache} of the index */
+	protected final PostingIndex<?> invertedIndex;
+
+	protected final CollectionStatistics cs;
+
+	protected final String modelName;
+
+	/** The heap selecting the documents of each query in turn */
+	protected final TopKHeap heap;
+
+	/** The number of queries whose accumulators fit the memory budget */
+	protected final int chunkSize;
+
+	/** The score of each document for each query of a chunk, allocated on first use */
+	protected double[][] accumulators = new double[0][];
+
+	/** Whether each document has been scored for each query of a chunk */
+	protected boolean[][] matched = new boolean[0][];
+
+	/** The documents scored for each query of a chunk */
+	protected int[][] touched = new int[0][];
+
+	protected int[] numberTouched = new int[0];
+
+	/** The ranked documents of each query */
+	protected int[][] docids;
+
+	/** The scores of the ranked documents of each query */
+	protected double[][] scores;
+
+	protected int[] resultSizes;
+
+	/** The number of posting lists read by the last batch */
+	protected int postingListsRead = 0;
+
+	private final boolean ignoreLowIdfTerms = Boolean
+			.parseBoolean(ApplicationSetup.getProperty("ignore.low.idf.terms", "false"));
+
+	/**
+	 * constructor
+	 * 
+	 * @param index
+	 *            the index to match against
+	 * @param modelName
+	 *            the weighting model; names without a package are looked up
+	 *            in <code>org.terrier.matching.models</code>
+	 * @param k
+	 *            the number of documents ranked for each query
+	 */
+	public BatchMatching(Index index, String modelName, int k) {
+		this.lexicon = index.getLexicon();
+		this.invertedIndex = PostingListCache.getPostingIndex(index);
+		this.cs = index.getCollectionStatistics();
+		this.modelName = modelName;
+		this.heap = new TopKHeap(k);
+		long budget = Long.parseLong(ApplicationSetup.getProperty("batch.matching.memory", "512")) << 20;
+		long bytesPerQuery = 9L * Math.max(cs.getNumberOfDocuments(), 1);
+		this.chunkSize = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budget / bytesPerQuery));
+	}
+
+	/**
+	 * Scores and ranks the documents for every query of the batch.
+	 * 
+	 * @param terms
+	 *            the terms of each query
+	 * @param keyFrequencies
+	 *            the weight of each term in each query
+	 * @throws IOException
+	 *             if a posting list cannot be read
+	 */
+	public void match(String[][] terms, double[][] keyFrequencies) throws IOException {
+		int numberOfQueries = terms.length;
+		docids = new int[numberOfQueries][];
+		scores = new double[numberOfQueries][];
+		resultSizes = new int[numberOfQueries];
+		postingListsRead = 0;
+		for (int from = 0; from < numberOfQueries; from += chunkSize) {
+			match(terms, keyFrequencies, from, Math.min(from + chunkSize, numberOfQueries));
+		}
+	}
+
+	/**
+	 * Scores and ranks the documents for the queries from (inclusive) to
+	 * (exclusive).
+	 */
+	private void match(String[][] terms, double[][] keyFrequencies, int from, int to) throws IOException {
+		int numberOfDocuments = cs.getNumberOfDocuments();
+
+		/* the queries containing each term, and the weight of the term in each of them */
+		Map<String, List<double[]>> occurrences = new LinkedHashMap<String, List<double[]>>();
+		for (int q = from; q < to; q++) {
+			for (int t = 0; t < terms[q].length; t++) {
+				List<double[]> list = occurrences.get(terms[q][t]);
+				if (list == null) {
+					occurrences.put(terms[q][t], list = new ArrayList<double[]>());
+				}
+				list.add(new double[] { q - from, keyFrequencies[q][t] });
+			}
+		}
+
+		allocate(to - from, numberOfDocuments);
+		try {
+			for (Map.Entry<String, List<double[]>> occurrence : occurrences.entrySet()) {
+				LexiconEntry entry = lexicon.getLexiconEntry(occurrence.getKey());
+				if (entry == null) {
+					continue;
+				}
+				if (ignoreLowIdfTerms && entry.getFrequency() > numberOfDocuments) {
+					logger.debug("Ignoring low idf term {}", occurrence.getKey());
+					continue;
+				}
+				List<double[]> list = occurrence.getValue();
+				int n = list.size();
+				int[] queries = new int[n];
+				WeightingModel[] models = new WeightingModel[n];
+				for (int i = 0; i < n; i++) {
+					queries[i] = (int) list.get(i)[0];
+					models[i] = MultiModelMatching.createModel(modelName);
+					models[i].setCollectionStatistics(cs);
+					models[i].setEntryStatistics(entry);
+					models[i].setKeyFrequency(list.get(i)[1]);
+					models[i].prepare();
+				}
+
+				IterablePosting postings = invertedIndex.getPostings(entry);
+				postingListsRead++;
+				int docid;
+				while ((docid = postings.next()) != IterablePosting.EOL) {
+					double tf = postings.getFrequency();
+					double length = postings.getDocumentLength();
+					for (int i = 0; i < n; i++) {
+						int q = queries[i];
+						accumulators[q][docid] += models[i].score(tf, length);
+						if (!matched[q][docid]) {
+							matched[q][docid] = true;
+							if (numberTouched[q] == touched[q].length) {
+								int[] tmp = new int[numberTouched[q] << 1];
+								System.arraycopy(touched[q], 0, tmp, 0, numberTouched[q]);
+								touched[q] = tmp;
+							}
+							touched[q][numberTouched[q]++] = docid;
+						}
+					}
+				}
+				postings.close();
+			}
+
+			for (int q = 0; q < to - from; q++) {
+				rank(from + q, accumulators[q], touched[q], numberTouched[q]);
+			}
+		} finally {
+			for (int q = 0; q < to - from; q++) {
+				clear(q);
+			}
+		}
+	}
+
+	/**
+	 * Makes sure that the accumulators of the given number of queries are
+	 * allocated, keeping those already allocated.
+	 */
+	private void allocate(int numberOfQueries, int numberOfDocuments) {
+		int allocated = accumulators.length;
+		if (allocated >= numberOfQueries) {
+			return;
+		}
+		accumulators = Arrays.copyOf(accumulators, numberOfQueries);
+		matched = Arrays.copyOf(matched, numberOfQueries);
+		touched = Arrays.copyOf(touched, numberOfQueries);
+		numberTouched = Arrays.copyOf(numberTouched, numberOfQueries);
+		for (int q = allocated; q < numberOfQueries; q++) {
+			accumulators[q] = new double[numberOfDocuments];
+			matched[q] = new boolean[numberOfDocuments];
+			touched[q] = new int[64];
+		}
+	}
+
+	/**
+	 * Clears the entries of the accumulator of a query touched by the last
+	 * chunk.
+	 */
+	private void clear(int q) {
+		double[] accumulator = accumulators[q];
+		boolean[] flags = matched[q];
+		int[] documents = touched[q];
+		for (int i = 0; i < numberTouched[q]; i++) {
+			int d = documents[i];
+			accumulator[d] = 0;
+			flags[d] = false;
+		}
+		numberTouched[q] = 0;
+	}
+
+	/**
+	 * Ranks the documents scored for a query.
+	 */
+	private void rank(int query, double[] accumulator, int[] touched, int numberTouched) {
+		heap.clear();
+		for (int i = 0; i < numberTouched; i++) {
+			int d = touched[i];
+			if (accumulator[d] >= heap.threshold()) {
+				heap.offer(d, accumulator[d]);
+			}
+		}
+		heap.sort();
+		int size = heap.size();
+		resultSizes[query] = size;
+		docids[query] = new int[size];
+		scores[query] = new double[size];
+		System.arraycopy(heap.getDocids(), 0, docids[query], 0, size);
+		System.arraycopy(heap.getScores(), 0, scores[query], 0, size);
+	}
+
+	/**
+	 * @return the number of posting lists read by the last batch
+	 */
+	public int getPostingListsRead() {
+		return postingListsRead;
+	}
+
+	/**
+	 * @param query
+	 *            the rank of the query in the batch
+	 * @return the number of documents ranked for the query
+	 */
+	public int getResultSize(int query) {
+		return resultSizes[query];
+	}
+
+	/**
+	 * @param query
+	 *            the rank of the query in the batch
+	 * @return the documents ranked for the query, by decreasing score
+	 */
+	public int[] getDocids(int query) {
+		return docids[query];
+	}
+
+	/**
+	 * @param query
+	 *            the rank of the query in the batch
+	 * @return the scores of the documents ranked for the query
+	 */
+	public double[] getScores(int query) {
+		return scores[query];
+	}
+}
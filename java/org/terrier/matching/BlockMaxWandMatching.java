@@ -0,0 +1,351 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.matching;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.matching.models.WeightingModel;
+import org.terrier.structures.BlockMaxIndex;
+import org.terrier.structures.CollectionStatistics;
+import org.terrier.structures.Index;
+import org.terrier.structures.Lexicon;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.PostingIndex;
+import org.terrier.structures.PostingListCache;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * Retrieves the top k documents of a query with Block-Max WAND, document at
+ * a time: the posting lists are kept sorted by current docid, the pivot is
+ * the first document whose terms may reach the score of the k-th document
+ * according to the maximum scores of the whole lists, and the pivot is
+ * scored only if it may also reach it according to the maximum scores of the
+ * blocks containing it; otherwise the lists skip to the end of the shortest
+ * of those blocks. Meant for the long queries of the n-gram indexes, whose
+ * many posting lists make exhaustive scoring slow.
+ * <p>
+ * The result is exactly that of the exhaustive evaluation of
+ * {@link MultiModelMatching}, including the ties: documents are scored in
+ * increasing docid order, so a document with the same score as the k-th one
+ * could not enter the results anyway, and the contributions of the terms are
+ * added in query order. The maximum scores come from the {@link BlockMaxIndex}
+ * of the model, clamped at 0 since a term missing from a document contributes
+ * nothing, and are compared with a small relative margin against rounding.
+ * The terms whose frequency exceeds the number of documents are ignored only
+ * when <code>ignore.low.idf.terms</code> is true, by default false.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class BlockMaxWandMatching implements MultiRunMatching {
+
+	protected static final Logger logger = LoggerFactory.getLogger(BlockMaxWandMatching.class);
+
+	/** The relative margin of the upper bounds against rounding errors */
+	protected static final double MARGIN = 1e-10;
+
+	/**
+	 * The current docid of an exhausted list: Terrier's EOL is -1, whereas
+	 * the exhausted lists must sort after all the others
+	 */
+	protected static final int END = Integer.MAX_VALUE;
+
+	protected final Lexicon<String> lexicon;
+
+	/** The inverted index, behind the {@link PostingListCache} of the index */
+	protected final PostingIndex<?> invertedIndex;
+
+	protected final CollectionStatistics cs;
+
+	protected final BlockMaxIndex blockMax;
+
+	protected final TopKHeap heap;
+
+	/* the posting list of each query term, in query order */
+
+	protected WeightingModel[] models = new WeightingModel[0];
+
+	protected IterablePosting[] postings = new IterablePosting[0];
+
+	/** The current docid of each list, END once exhausted */
+	protected int[] docids = new int[0];
+
+	/** The current block of each list */
+	protected int[] blocks = new int[0];
+
+	/** The end of the blocks of each list */
+	protected int[] blockEnds = new int[0];
+
+	/** The block whose maximum score is cached for each list, -1 if none */
+	protected int[] cachedBlocks = new int[0];
+
+	/** The cached maximum score of the current block of each list */
+	protected double[] blockMaxScores = new double[0];
+
+	/** The maximum score of each list */
+	protected double[] maxScores = new double[0];
+
+	/** The lists sorted by current docid */
+	protected int[] order = new int[0];
+
+	protected int numberOfLists = 0;
+
+	/** The number of documents scored so far */
+	protected long scored = 0;
+
+	private final boolean ignoreLowIdfTerms = Boolean
+			.parseBoolean(ApplicationSetup.getProperty("ignore.low.idf.terms", "false"));
+
+	private final String modelName;
+
+	/**
+	 * constructor
+	 * 
+	 * @param index
+	 *            the index to match against
+	 * @param blockMax
+	 *            the block-max metadata of the index for the weighting model
+	 * @param k
+	 *            the number of documents to retrieve
+	 */
+	public BlockMaxWandMatching(Index index, BlockMaxIndex blockMax, int k) {
+		this.lexicon = index.getLexicon();
+		this.invertedIndex = PostingListCache.getPostingIndex(index);
+		this.cs = index.getCollectionStatistics();
+		this.blockMax = blockMax;
+		this.modelName = blockMax.getModelName();
+		this.heap = new TopKHeap(k);
+	}
+
+	private void ensureCapacity(int n) {
+		if (models.length >= n) {
+			return;
+		}
+		int capacity = Math.max(n, models.length << 1);
+		WeightingModel[] newModels = new WeightingModel[capacity];
+		System.arraycopy(models, 0, newModels, 0, models.length);
+		for (int i = models.length; i < capacity; i++) {
+			newModels[i] = MultiModelMatching.createModel(modelName);
+			newModels[i].setCollectionStatistics(cs);
+		}
+		models = newModels;
+		postings = new IterablePosting[capacity];
+		docids = new int[capacity];
+		blocks = new int[capacity];
+		blockEnds = new int[capacity];
+		cachedBlocks = new int[capacity];
+		blockMaxScores = new double[capacity];
+		maxScores = new double[capacity];
+		order = new int[capacity];
+	}
+
+	/**
+	 * Opens the posting lists of the query terms.
+	 */
+	private void open(String[] terms, double[] keyFrequencies) throws IOException {
+		ensureCapacity(terms.length);
+		numberOfLists = 0;
+		for (int t = 0; t < terms.length; t++) {
+			LexiconEntry entry = lexicon.getLexiconEntry(terms[t]);
+			if (entry == null) {
+				continue;
+			}
+			if (ignoreLowIdfTerms && entry.getFrequency() > cs.getNumberOfDocuments()) {
+				logger.debug("Ignoring low idf term {}", terms[t]);
+				continue;
+			}
+			int i = numberOfLists;
+			WeightingModel model = models[i];
+			model.setEntryStatistics(entry);
+			model.setKeyFrequency(keyFrequencies[t]);
+			model.prepare();
+			postings[i] = invertedIndex.getPostings(entry);
+			docids[i] = docid(postings[i].next());
+			if (docids[i] == END) {
+				postings[i].close();
+				continue;
+			}
+			int termId = entry.getTermId();
+			blocks[i] = blockMax.getFirstBlock(termId);
+			blockEnds[i] = blocks[i] + blockMax.getNumberOfBlocks(termId);
+			cachedBlocks[i] = -1;
+			maxScores[i] = Math.max(0d,
+					model.score(blockMax.getTermMaxFrequency(termId), blockMax.getTermMaxDocumentLength(termId)));
+			order[i] = i;
+			numberOfLists++;
+		}
+	}
+
+	/**
+	 * Sorts the lists by current docid; the lists move little between two
+	 * sorts, hence an insertion sort.
+	 */
+	private void sort() {
+		for (int i = 1; i < numberOfLists; i++) {
+			int list = order[i];
+			int docid = docids[list];
+			int j = i - 1;
+			while (j >= 0 && docids[order[j]] > docid) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = list;
+		}
+	}
+
+	/**
+	 * Whether an upper bound may reach the threshold.
+	 */
+	private static boolean mayReach(double bound, double threshold) {
+		return bound + Math.abs(bound) * MARGIN > threshold;
+	}
+
+	/**
+	 * Moves the current block of a list to the block that may contain the
+	 * given docid and returns its maximum score, 0 if the list ends before
+	 * the docid.
+	 */
+	private double blockBound(int list, int docid) {
+		while (blocks[list] < blockEnds[list] && blockMax.getLastDocid(blocks[list]) < docid) {
+			blocks[list]++;
+		}
+		int block = blocks[list];
+		if (block == blockEnds[list]) {
+			return 0d;
+		}
+		if (cachedBlocks[list] != block) {
+			cachedBlocks[list] = block;
+			blockMaxScores[list] = Math.max(0d,
+					models[list].score(blockMax.getMaxFrequency(block), blockMax.getMaxDocumentLength(block)));
+		}
+		return blockMaxScores[list];
+	}
+
+	/**
+	 * @return the docid following the current block of a list, END after the
+	 *         last block
+	 */
+	private int blockEnd(int list) {
+		int block = blocks[list];
+		return block == blockEnds[list] ? END : blockMax.getLastDocid(block) + 1;
+	}
+
+	/**
+	 * @return the given docid, or END for EOL
+	 */
+	private static int docid(int id) {
+		return id == IterablePosting.EOL ? END : id;
+	}
+
+	public void match(String[] terms, double[] keyFrequencies) throws IOException {
+		open(terms, keyFrequencies);
+		heap.clear();
+		sort();
+		while (true) {
+			double threshold = heap.threshold();
+
+			/* the pivot, according to the maximum scores of the lists */
+			double bound = 0;
+			int pivot = -1;
+			for (int i = 0; i < numberOfLists && docids[order[i]] != END; i++) {
+				bound += maxScores[order[i]];
+				if (mayReach(bound, threshold)) {
+					pivot = i;
+					break;
+				}
+			}
+			if (pivot < 0) {
+				break;
+			}
+			int pivotDocid = docids[order[pivot]];
+			while (pivot + 1 < numberOfLists && docids[order[pivot + 1]] == pivotDocid) {
+				pivot++;
+			}
+
+			/* the maximum scores of the blocks containing the pivot */
+			double blockBound = 0;
+			int next = pivot + 1 < numberOfLists ? docids[order[pivot + 1]] : END;
+			for (int i = 0; i <= pivot; i++) {
+				blockBound += blockBound(order[i], pivotDocid);
+				next = Math.min(next, blockEnd(order[i]));
+			}
+
+			if (!mayReach(blockBound, threshold)) {
+				/* no document before the end of the shortest block can reach the threshold */
+				for (int i = 0; i <= pivot; i++) {
+					docids[order[i]] = next == END ? END : docid(postings[order[i]].next(next));
+				}
+			} else if (docids[order[0]] == pivotDocid) {
+				double score = 0;
+				for (int list = 0; list < numberOfLists; list++) {
+					if (docids[list] == pivotDocid) {
+						score += models[list].score(postings[list].getFrequency(),
+								postings[list].getDocumentLength());
+						docids[list] = docid(postings[list].next());
+					}
+				}
+				heap.offer(pivotDocid, score);
+				scored++;
+			} else {
+				for (int i = 0; i < pivot && docids[order[i]] < pivotDocid; i++) {
+					docids[order[i]] = docid(postings[order[i]].next(pivotDocid));
+				}
+			}
+			sort();
+		}
+		for (int list = 0; list < numberOfLists; list++) {
+			postings[list].close();
+			postings[list] = null;
+		}
+		heap.sort();
+	}
+
+	/**
+	 * @return the number of documents scored so far
+	 */
+	public long getNumberOfScoredDocuments() {
+		return scored;
+	}
+
+	/**
+	 * @param run
+	 *            ignored, there is a single run
+	 */
+	public int getResultSize(int run) {
+		return heap.size();
+	}
+
+	/**
+	 * @param run
+	 *            ignored, there is a single run
+	 */
+	public int[] getDocids(int run) {
+		return heap.getDocids();
+	}
+
+	/**
+	 * @param run
+	 *            ignored, there is a single run
+	 */
+	public double[] getScores(int run) {
+		return heap.getScores();
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.matching;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.structures.CollectionStatistics;
+import org.terrier.structures.ImpactIndex;
+import org.terrier.structures.Index;
+import org.terrier.structures.Lexicon;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * Retrieves the top k documents of a query score at a time from the
+ * {@link ImpactIndex} of a weighting model: the segments of the query terms
+ * are processed by decreasing contribution, i.e. impact times the weight of
+ * the term in the query, and each posting adds the contribution of its
+ * segment to the accumulator of its document. The documents are ranked by
+ * their accumulated impacts, scaled back to the scores of the model.
+ * <p>
+ * The processing is anytime: it stops before the next segment once
+ * <code>impact.postings.budget</code> postings have been processed or
+ * <code>impact.time.budget</code> milliseconds have elapsed, and ranks the
+ * documents with what has been accumulated so far. As the segments of
+ * largest contribution come first, an early stop mostly leaves out postings
+ * which could only reorder the tail of the ranking, and bounds the cost of
+ * every query. Both budgets are 0 by default, i.e. all the segments are
+ * processed and the ranking is that of the quantized scores. Documents with
+ * the same score are ranked by increasing docid. The terms whose frequency
+ * exceeds the number of documents are ignored only when
+ * <code>ignore.low.idf.terms</code> is true, by default false.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class ImpactOrderedMatching implements MultiRunMatching {
+
+	protected static final Logger logger = LoggerFactory.getLogger(ImpactOrderedMatching.class);
+
+	protected final Lexicon<String> lexicon;
+
+	protected final CollectionStatistics cs;
+
+	protected final ImpactIndex impacts;
+
+	/** The largest number of postings processed per query, 0 for no limit */
+	protected final long postingsBudget = Long
+			.parseLong(ApplicationSetup.getProperty("impact.postings.budget", "0"));
+
+	/** The largest time spent per query in ms, 0 for no limit */
+	protected final long timeBudget = Long.parseLong(ApplicationSetup.getProperty("impact.time.budget", "0"));
+
+	/** The accumulated impacts of each document */
+	protected final double[] accumulators;
+
+	/** Whether each document has been scored by the current query */
+	protected final boolean[] matched;
+
+	/** The documents scored by the current query */
+	protected int[] touched = new int[1024];
+
+	protected int numberTouched = 0;
+
+	/** The next segment and the end of the segments of each query term */
+	protected int[] segments = new int[0];
+
+	protected int[] segmentEnds = new int[0];
+
+	protected double[] weights = new double[0];
+
+	protected int[] docids = new int[1024];
+
+	protected final TopKHeap heap;
+
+	/** The number of postings processed so far */
+	protected long processed = 0;
+
+	/** The number of queries stopped by a budget so far */
+	protected int stopped = 0;
+
+	private final boolean ignoreLowIdfTerms = Boolean
+			.parseBoolean(ApplicationSetup.getProperty("ignore.low.idf.terms", "false"));
+
+	/**
+	 * constructor
+	 * 
+	 * @param index
+	 *            the index to match against
+	 * @param impacts
+	 *            the impact-ordered index of the index for the weighting model
+	 * @param k
+	 *            the number of documents to retrieve
+	 */
+	public ImpactOrderedMatching(Index index, ImpactIndex impacts, int k) {
+		this.lexicon = index.getLexicon();
+		this.cs = index.getCollectionStatistics();
+		this.impacts = impacts;
+		this.accumulators = new double[cs.getNumberOfDocuments()];
+		this.matched = new boolean[cs.getNumberOfDocuments()];
+		this.heap = new TopKHeap(k);
+	}
+
+	public void match(String[] terms, double[] keyFrequencies) {
+		long deadline = System.nanoTime() + timeBudget * 1000000L;
+		if (segments.length < terms.length) {
+			segments = new int[terms.length];
+			segmentEnds = new int[terms.length];
+			weights = new double[terms.length];
+		}
+		int numberOfTerms = 0;
+		for (int t = 0; t < terms.length; t++) {
+			LexiconEntry entry = lexicon.getLexiconEntry(terms[t]);
+			if (entry == null) {
+				continue;
+			}
+			if (ignoreLowIdfTerms && entry.getFrequency() > cs.getNumberOfDocuments()) {
+				logger.debug("Ignoring low idf term {}", terms[t]);
+				continue;
+			}
+			int termId = entry.getTermId();
+			segments[numberOfTerms] = impacts.getFirstSegment(termId);
+			segmentEnds[numberOfTerms] = segments[numberOfTerms] + impacts.getNumberOfSegments(termId);
+			weights[numberOfTerms] = keyFrequencies[t];
+			numberOfTerms++;
+		}
+
+		long budget = postingsBudget > 0 ? postingsBudget : Long.MAX_VALUE;
+		long queryProcessed = 0;
+		while (true) {
+			/* the segments of each term are by decreasing impact: the next one is the best of their heads */
+			int best = -1;
+			double contribution = 0;
+			for (int t = 0; t < numberOfTerms; t++) {
+				if (segments[t] < segmentEnds[t]) {
+					double c = impacts.getImpact(segments[t]) * weights[t];
+					if (best < 0 || c > contribution) {
+						best = t;
+						contribution = c;
+					}
+				}
+			}
+			if (best < 0) {
+				break;
+			}
+			if (queryProcessed >= budget || (timeBudget > 0 && System.nanoTime() - deadline > 0)) {
+				stopped++;
+				break;
+			}
+			int segment = segments[best]++;
+			int n = impacts.getNumberOfPostings(segment);
+			if (docids.length < n) {
+				docids = new int[Math.max(n, docids.length << 1)];
+			}
+			impacts.read(segment, docids);
+			for (int j = 0; j < n; j++) {
+				int docid = docids[j];
+				accumulators[docid] += contribution;
+				if (!matched[docid]) {
+					matched[docid] = true;
+					if (numberTouched == touched.length) {
+						int[] tmp = new int[numberTouched << 1];
+						System.arraycopy(touched, 0, tmp, 0, numberTouched);
+						touched = tmp;
+					}
+					touched[numberTouched++] = docid;
+				}
+			}
+			queryProcessed += n;
+		}
+		processed += queryProcessed;
+
+		heap.clear();
+		double scale = impacts.getScale();
+		for (int i = 0; i < numberTouched; i++) {
+			int docid = touched[i];
+			heap.offer(docid, accumulators[docid] * scale);
+			accumulators[docid] = 0;
+			matched[docid] = false;
+		}
+		numberTouched = 0;
+		heap.sort();
+	}
+
+	/**
+	 * @return the number of postings processed so far
+	 */
+	public long getNumberOfProcessedPostings() {
+		return processed;
+	}
+
+	/**
+	 * @return the number of queries stopped by a budget so far
+	 */
+	public int getNumberOfStoppedQueries() {
+		return stopped;
+	}
+
+	/**
+	 * @param run
+	 *            ignored, there is a single run
+	 */
+	public int getResultSize(int run) {
+		return heap.size();
+	}
+
+	/**
+	 * @param run
+	 *            ignored, there is a single run
+	 */
+	public int[] getDocids(int run) {
+		return heap.getDocids();
+	}
+
+	/**
+	 * @param run
+	 *            ignored, there is a single run
+	 */
+	public double[] getScores(int run) {
+		return heap.getScores();
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.matching;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.matching.models.WeightingModel;
+import org.terrier.structures.CollectionStatistics;
+import org.terrier.structures.Index;
+import org.terrier.structures.Lexicon;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.PostingIndex;
+import org.terrier.structures.PostingListCache;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * Scores a query with several weighting models in a single traversal of its
+ * posting lists. The posting lists are read one term at a time, and each
+ * posting is decoded once and fed to every model, which adds its score to its
+ * own dense accumulator; the documents of each model are then ranked
+ * separately. Hence a grid of models costs the I/O and the decoding of a
+ * single one.
+ * <p>
+ * The terms whose frequency exceeds the number of documents are ignored only
+ * when <code>ignore.low.idf.terms</code> is true, by default false, and all
+ * the documents containing at least one query term are ranked. Documents with the same score are ranked by increasing docid.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class MultiModelMatching implements MultiRunMatching {
+
+	protected static final Logger logger = LoggerFactory.getLogger(MultiModelMatching.class);
+
+	protected final Index index;
+
+	protected final Lexicon<String> lexicon;
+
+	/** The inverted index, behind the {@link PostingListCache} of the index */
+	protected final PostingIndex<?> invertedIndex;
+
+	protected final CollectionStatistics cs;
+
+	protected final WeightingModel[] models;
+
+	/** The score of each document for each model */
+	protected final double[][] scores;
+
+	/** Whether each document has been scored by the current query */
+	protected final boolean[] matched;
+
+	/** The documents scored by the current query */
+	protected int[] touched = new int[1024];
+
+	protected int numberTouched = 0;
+
+	/** The ranked documents of each model */
+	protected final TopKHeap[] results;
+
+	private final boolean ignoreLowIdfTerms = Boolean
+			.parseBoolean(ApplicationSetup.getProperty("ignore.low.idf.terms", "false"));
+
+	/**
+	 * constructor
+	 * 
+	 * @param index
+	 *            the index to match against
+	 * @param modelNames
+	 *            the weighting models; names without a package are looked up
+	 *            in <code>org.terrier.matching.models</code>
+	 * @param k
+	 *            the number of documents ranked for each model
+	 */
+	public MultiModelMatching(Index index, String[] modelNames, int k) {
+		this.index = index;
+		this.lexicon = index.getLexicon();
+		this.invertedIndex = PostingListCache.getPostingIndex(index);
+		this.cs = index.getCollectionStatistics();
+		this.models = new WeightingModel[modelNames.length];
+		for (int m = 0; m < models.length; m++) {
+			models[m] = createModel(modelNames[m]);
+			models[m].setCollectionStatistics(cs);
+		}
+		int numberOfDocuments = cs.getNumberOfDocuments();
+		this.scores = new double[models.length][numberOfDocuments];
+		this.matched = new boolean[numberOfDocuments];
+		this.results = new TopKHeap[models.length];
+		for (int m = 0; m < models.length; m++) {
+			results[m] = new TopKHeap(k);
+		}
+	}
+
+	/**
+	 * Creates a weighting model from its class name.
+	 * 
+	 * @param name
+	 *            the class name; names without a package are looked up in
+	 *            <code>org.terrier.matching.models</code>
+	 * @return the weighting model
+	 */
+	public static WeightingModel createModel(String name) {
+		String className = name.indexOf('.') < 0 ? "org.terrier.matching.models." + name : name;
+		try {
+			return Class.forName(className).asSubclass(WeightingModel.class).getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Cannot create the weighting model " + className, e);
+		}
+	}
+
+	/**
+	 * Scores the documents for the query with all the models and ranks them.
+	 * 
+	 * @param terms
+	 *            the terms of the query
+	 * @param keyFrequencies
+	 *            the weight of each term in the query
+	 * @throws IOException
+	 *             if a posting list cannot be read
+	 */
+	public void match(String[] terms, double[] keyFrequencies) throws IOException {
+		for (int t = 0; t < terms.length; t++) {
+			LexiconEntry entry = lexicon.getLexiconEntry(terms[t]);
+			if (entry == null) {
+				continue;
+			}
+			if (ignoreLowIdfTerms && entry.getFrequency() > cs.getNumberOfDocuments()) {
+				logger.debug("Ignoring low idf term {}", terms[t]);
+				continue;
+			}
+			for (WeightingModel model : models) {
+				model.setEntryStatistics(entry);
+				model.setKeyFrequency(keyFrequencies[t]);
+				model.prepare();
+			}
+
+			IterablePosting postings = invertedIndex.getPostings(entry);
+			int docid;
+			while ((docid = postings.next()) != IterablePosting.EOL) {
+				double tf = postings.getFrequency();
+				double length = postings.getDocumentLength();
+				for (int m = 0; m < models.length; m++) {
+					scores[m][docid] += models[m].score(tf, length);
+				}
+				if (!matched[docid]) {
+					matched[docid] = true;
+					if (numberTouched == touched.length) {
+						int[] tmp = new int[numberTouched << 1];
+						System.arraycopy(touched, 0, tmp, 0, numberTouched);
+						touched = tmp;
+					}
+					touched[numberTouched++] = docid;
+				}
+			}
+			postings.close();
+		}
+
+		for (int m = 0; m < models.length; m++) {
+			rank(m);
+		}
+
+		for (int i = 0; i < numberTouched; i++) {
+			int d = touched[i];
+			matched[d] = false;
+			for (int m = 0; m < models.length; m++) {
+				scores[m][d] = 0;
+			}
+		}
+		numberTouched = 0;
+	}
+
+	/**
+	 * Ranks the documents scored by the given model.
+	 */
+	private void rank(int m) {
+		double[] modelScores = scores[m];
+		TopKHeap heap = results[m];
+		heap.clear();
+		for (int i = 0; i < numberTouched; i++) {
+			int d = touched[i];
+			if (modelScores[d] >= heap.threshold()) {
+				heap.offer(d, modelScores[d]);
+			}
+		}
+		heap.sort();
+	}
+
+	/**
+	 * @return the number of models
+	 */
+	public int getNumberOfModels() {
+		return models.length;
+	}
+
+	/**
+	 * @param model
+	 *            the rank of the model
+	 * @return the number of documents ranked by the model for the last query
+	 */
+	public int getResultSize(int model) {
+		return results[model].size();
+	}
+
+	/**
+	 * @param model
+	 *            the rank of the model
+	 * @return the documents ranked by the model for the last query, by
+	 *         decreasing score; only the first getResultSize(model) are valid
+	 */
+	public int[] getDocids(int model) {
+		return results[model].getDocids();
+	}
+
+	/**
+	 * @param model
+	 *            the rank of the model
+	 * @return the scores of the documents ranked by the model for the last
+	 *         query; only the first getResultSize(model) are valid
+	 */
+	public double[] getScores(int model) {
+		return results[model].getScores();
+	}
+}
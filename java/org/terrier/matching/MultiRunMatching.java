@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.matching;
+
+import java.io.IOException;
+
+/**
+ * Interface for the matching strategies producing several rankings, i.e.
+ * several runs, of the same query with a single traversal of its posting
+ * lists.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public interface MultiRunMatching {
+
+	/**
+	 * Scores and ranks the documents for the query in every run.
+	 * 
+	 * @param terms
+	 *            the terms of the query
+	 * @param keyFrequencies
+	 *            the weight of each term in the query
+	 * @throws IOException
+	 *             if a posting list cannot be read
+	 */
+	void match(String[] terms, double[] keyFrequencies) throws IOException;
+
+	/**
+	 * @param run
+	 *            the rank of the run
+	 * @return the number of documents ranked in the run for the last query
+	 */
+	int getResultSize(int run);
+
+	/**
+	 * @param run
+	 *            the rank of the run
+	 * @return the documents ranked in the run for the last query, by
+	 *         decreasing score; only the first getResultSize(run) are valid
+	 */
+	int[] getDocids(int run);
+
+	/**
+	 * @param run
+	 *            the rank of the run
+	 * @return the scores of the documents ranked in the run for the last
+	 *         query; only the first getResultSize(run) are valid
+	 */
+	double[] getScores(int run);
+}
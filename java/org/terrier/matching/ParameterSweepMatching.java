@@ -0,0 +1,326 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.matching;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.structures.CollectionStatistics;
+import org.terrier.structures.Index;
+import org.terrier.structures.Lexicon;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.PostingIndex;
+import org.terrier.structures.PostingListCache;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * Scores a query with a vector of parameter settings of BM25 (k<sub>1</sub>
+ * and b) or PL2 (c) in a single traversal of its posting lists. Each posting
+ * is decoded once and scored for every setting by a loop over the parameter
+ * arrays, with the scores of a document for all the settings stored next to
+ * each other, so that the loop reads and writes contiguous memory. Hence a
+ * dense grid of settings costs roughly as much as a single run.
+ * <p>
+ * The kernels compute the same expressions as Terrier's BM25 (k<sub>3</sub> =
+ * 8) and PL2 weighting models, in the same order, so that each setting
+ * retrieves the same scores as a separate run of the model with that
+ * setting. The terms whose frequency exceeds the number of documents are
+ * ignored only when <code>ignore.low.idf.terms</code> is true, by default
+ * false. Documents with the same score are ranked by increasing
+ * docid.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class ParameterSweepMatching implements MultiRunMatching {
+
+	protected static final Logger logger = LoggerFactory.getLogger(ParameterSweepMatching.class);
+
+	/** 1/ln(2), as in Terrier's WeightingModelLibrary */
+	protected static final double REC_LOG_2_OF_E = 1.0D / Math.log(2.0D);
+
+	/** The k<sub>3</sub> parameter of BM25 */
+	protected static final double K_3 = 8d;
+
+	protected final Lexicon<String> lexicon;
+
+	/** The inverted index, behind the {@link PostingListCache} of the index */
+	protected final PostingIndex<?> invertedIndex;
+
+	protected final double numberOfDocuments;
+
+	protected final double averageDocumentLength;
+
+	/** Whether the kernel is PL2 rather than BM25 */
+	protected final boolean pl2;
+
+	/** The k<sub>1</sub> of each BM25 setting */
+	protected final double[] k1;
+
+	/** The b of each BM25 setting, or the c of each PL2 setting */
+	protected final double[] b;
+
+	/** The name of each setting */
+	protected final String[] names;
+
+	/** The number of settings */
+	protected final int n;
+
+	/** The accumulator slot of each document, -1 if not scored */
+	protected final int[] slots;
+
+	/** The document of each slot */
+	protected int[] slotDocids = new int[1024];
+
+	/** The scores of slot i for all the settings, from i*n to (i+1)*n-1 */
+	protected double[] accumulators;
+
+	protected int numberOfSlots = 0;
+
+	/** The ranked documents of each setting */
+	protected final TopKHeap[] results;
+
+	private final boolean ignoreLowIdfTerms = Boolean
+			.parseBoolean(ApplicationSetup.getProperty("ignore.low.idf.terms", "false"));
+
+	private ParameterSweepMatching(Index index, boolean pl2, double[] k1, double[] b, String[] names, int k) {
+		this.lexicon = index.getLexicon();
+		this.invertedIndex = PostingListCache.getPostingIndex(index);
+		CollectionStatistics cs = index.getCollectionStatistics();
+		this.numberOfDocuments = cs.getNumberOfDocuments();
+		this.averageDocumentLength = cs.getAverageDocumentLength();
+		this.pl2 = pl2;
+		this.k1 = k1;
+		this.b = b;
+		this.names = names;
+		this.n = names.length;
+		this.slots = new int[cs.getNumberOfDocuments()];
+		Arrays.fill(slots, -1);
+		this.accumulators = new double[slotDocids.length * n];
+		this.results = new TopKHeap[n];
+		for (int s = 0; s < n; s++) {
+			results[s] = new TopKHeap(k);
+		}
+	}
+
+	/**
+	 * Creates a sweep of BM25 over all the combinations of the given
+	 * k<sub>1</sub> and b values.
+	 * 
+	 * @param index
+	 *            the index to match against
+	 * @param k1Values
+	 *            the k<sub>1</sub> values
+	 * @param bValues
+	 *            the b values
+	 * @param k
+	 *            the number of documents ranked for each setting
+	 * @return the sweep
+	 */
+	public static ParameterSweepMatching bm25(Index index, double[] k1Values, double[] bValues, int k) {
+		int n = k1Values.length * bValues.length;
+		double[] k1 = new double[n];
+		double[] b = new double[n];
+		String[] names = new String[n];
+		for (int i = 0, s = 0; i < k1Values.length; i++) {
+			for (int j = 0; j < bValues.length; j++, s++) {
+				k1[s] = k1Values[i];
+				b[s] = bValues[j];
+				names[s] = "BM25k" + k1Values[i] + "b" + bValues[j];
+			}
+		}
+		return new ParameterSweepMatching(index, false, k1, b, names, k);
+	}
+
+	/**
+	 * Creates a sweep of PL2 over the given c values.
+	 * 
+	 * @param index
+	 *            the index to match against
+	 * @param cValues
+	 *            the c values
+	 * @param k
+	 *            the number of documents ranked for each setting
+	 * @return the sweep
+	 */
+	public static ParameterSweepMatching pl2(Index index, double[] cValues, int k) {
+		String[] names = new String[cValues.length];
+		for (int s = 0; s < cValues.length; s++) {
+			names[s] = "PL2c" + cValues[s];
+		}
+		return new ParameterSweepMatching(index, true, new double[cValues.length], cValues.clone(), names, k);
+	}
+
+	private static double log(double d) {
+		return Math.log(d) * REC_LOG_2_OF_E;
+	}
+
+	/**
+	 * Returns the accumulator slot of a document, assigning it if the document
+	 * has not been scored yet.
+	 */
+	private int slot(int docid) {
+		int slot = slots[docid];
+		if (slot < 0) {
+			if (numberOfSlots == slotDocids.length) {
+				int[] tmp = new int[numberOfSlots << 1];
+				System.arraycopy(slotDocids, 0, tmp, 0, numberOfSlots);
+				slotDocids = tmp;
+				double[] acc = new double[tmp.length * n];
+				System.arraycopy(accumulators, 0, acc, 0, numberOfSlots * n);
+				accumulators = acc;
+			}
+			slot = slots[docid] = numberOfSlots++;
+			slotDocids[slot] = docid;
+		}
+		return slot;
+	}
+
+	/**
+	 * Scores the documents for the query with all the settings and ranks them.
+	 * 
+	 * @param terms
+	 *            the terms of the query
+	 * @param keyFrequencies
+	 *            the weight of each term in the query
+	 * @throws IOException
+	 *             if a posting list cannot be read
+	 */
+	public void match(String[] terms, double[] keyFrequencies) throws IOException {
+		/* the per setting constants: 1 - b and k1 + 1 for BM25, c times the average length for PL2 */
+		double[] p = new double[n];
+		double[] q = new double[n];
+		for (int s = 0; s < n; s++) {
+			p[s] = pl2 ? b[s] * averageDocumentLength : 1 - b[s];
+			q[s] = k1[s] + 1d;
+		}
+
+		for (int t = 0; t < terms.length; t++) {
+			LexiconEntry entry = lexicon.getLexiconEntry(terms[t]);
+			if (entry == null) {
+				continue;
+			}
+			if (ignoreLowIdfTerms && entry.getFrequency() > numberOfDocuments) {
+				logger.debug("Ignoring low idf term {}", terms[t]);
+				continue;
+			}
+			double keyFrequency = keyFrequencies[t];
+			double documentFrequency = entry.getDocumentFrequency();
+			double f = entry.getFrequency() / numberOfDocuments;
+			double idf = log((numberOfDocuments - documentFrequency + 0.5d) / (documentFrequency + 0.5d));
+			double qtw = (K_3 + 1) * keyFrequency / (K_3 + keyFrequency);
+			double logInverseF = log(1d / f);
+			double fLog2E = f * REC_LOG_2_OF_E;
+
+			IterablePosting postings = invertedIndex.getPostings(entry);
+			int docid;
+			while ((docid = postings.next()) != IterablePosting.EOL) {
+				double tf = postings.getFrequency();
+				double docLength = postings.getDocumentLength();
+				int base = slot(docid) * n;
+				if (pl2) {
+					for (int s = 0; s < n; s++) {
+						double TF = tf * log(1.0d + p[s] / docLength);
+						double NORM = 1.0D / (TF + 1d);
+						accumulators[base + s] += NORM * keyFrequency * (TF * logInverseF + fLog2E
+								+ 0.5d * log(2 * Math.PI * TF) + TF * (log(TF) - REC_LOG_2_OF_E));
+					}
+				} else {
+					for (int s = 0; s < n; s++) {
+						double K = k1[s] * (p[s] + b[s] * docLength / averageDocumentLength);
+						accumulators[base + s] += idf * (q[s] * tf / (K + tf)) * qtw;
+					}
+				}
+			}
+			postings.close();
+		}
+
+		for (int s = 0; s < n; s++) {
+			rank(s);
+		}
+		for (int i = 0; i < numberOfSlots; i++) {
+			slots[slotDocids[i]] = -1;
+		}
+		Arrays.fill(accumulators, 0, numberOfSlots * n, 0d);
+		numberOfSlots = 0;
+	}
+
+	/**
+	 * Ranks the documents scored with the given setting.
+	 */
+	private void rank(int s) {
+		TopKHeap heap = results[s];
+		heap.clear();
+		for (int i = 0, j = s; i < numberOfSlots; i++, j += n) {
+			if (accumulators[j] >= heap.threshold()) {
+				heap.offer(slotDocids[i], accumulators[j]);
+			}
+		}
+		heap.sort();
+	}
+
+	/**
+	 * @return the number of settings
+	 */
+	public int getNumberOfSettings() {
+		return n;
+	}
+
+	/**
+	 * @param setting
+	 *            the rank of the setting
+	 * @return the name of the setting, e.g. BM25k1.2b0.75 or PL2c1.0
+	 */
+	public String getSettingName(int setting) {
+		return names[setting];
+	}
+
+	/**
+	 * @param setting
+	 *            the rank of the setting
+	 * @return the number of documents ranked with the setting for the last
+	 *         query
+	 */
+	public int getResultSize(int setting) {
+		return results[setting].size();
+	}
+
+	/**
+	 * @param setting
+	 *            the rank of the setting
+	 * @return the documents ranked with the setting for the last query, by
+	 *         decreasing score; only the first getResultSize(setting) are
+	 *         valid
+	 */
+	public int[] getDocids(int setting) {
+		return results[setting].getDocids();
+	}
+
+	/**
+	 * @param setting
+	 *            the rank of the setting
+	 * @return the scores of the documents ranked with the setting for the last
+	 *         query; only the first getResultSize(setting) are valid
+	 */
+	public double[] getScores(int setting) {
+		return results[setting].getScores();
+	}
+}
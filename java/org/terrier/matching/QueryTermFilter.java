@@ -0,0 +1,210 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.matching;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.terrier.structures.Index;
+import org.terrier.structures.Lexicon;
+import org.terrier.structures.LexiconEntry;
+
+/**
+ * Shrinks the terms of a query before matching, mostly for the queries of the
+ * n-gram indexes, where the grams of a topic repeat within and across its
+ * words and many of them are as frequent as stopwords. The repeated terms are
+ * aggregated into a single term whose weight is the sum of their weights, the
+ * weights are divided by the largest one, as Terrier does before matching, the
+ * terms missing from the index are dropped and, optionally, so are the terms
+ * whose idf, log<sub>2</sub>(N/df), is below a threshold and the terms beyond
+ * the given number of terms of largest idf. The term of largest idf is always
+ * kept, so that no query becomes empty. The terms kept are in order of first
+ * appearance; the numbers of terms and postings before and after the
+ * filtering are accumulated over the queries.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class QueryTermFilter {
+
+	protected final Lexicon<String> lexicon;
+
+	protected final double numberOfDocuments;
+
+	/** The smallest idf of the terms kept */
+	protected final double minIdf;
+
+	/** The largest number of terms kept, 0 for no limit */
+	protected final int maxTerms;
+
+	protected String[] terms;
+
+	protected double[] keyFrequencies;
+
+	protected long termsIn = 0;
+
+	protected long termsOut = 0;
+
+	protected long postingsIn = 0;
+
+	protected long postingsOut = 0;
+
+	/**
+	 * constructor
+	 * 
+	 * @param index
+	 *            the index of the queries
+	 * @param minIdf
+	 *            the smallest idf of the terms kept, negative infinity to keep
+	 *            all
+	 * @param maxTerms
+	 *            the largest number of terms kept, 0 for no limit
+	 */
+	public QueryTermFilter(Index index, double minIdf, int maxTerms) {
+		this.lexicon = index.getLexicon();
+		this.numberOfDocuments = index.getCollectionStatistics().getNumberOfDocuments();
+		this.minIdf = minIdf;
+		this.maxTerms = maxTerms;
+	}
+
+	/**
+	 * Filters the terms of a query; the result is given by
+	 * {@link #getTerms()} and {@link #getKeyFrequencies()}.
+	 * 
+	 * @param queryTerms
+	 *            the terms of the query, possibly repeated
+	 * @param queryKeyFrequencies
+	 *            the weight of each term
+	 */
+	public void filter(String[] queryTerms, double[] queryKeyFrequencies) {
+		Map<String, double[]> aggregated = new LinkedHashMap<String, double[]>();
+		for (int t = 0; t < queryTerms.length; t++) {
+			double[] weight = aggregated.get(queryTerms[t]);
+			if (weight == null) {
+				aggregated.put(queryTerms[t], new double[] { queryKeyFrequencies[t] });
+			} else {
+				weight[0] += queryKeyFrequencies[t];
+			}
+		}
+		termsIn += queryTerms.length;
+		double maxWeight = 0;
+		for (double[] weight : aggregated.values()) {
+			maxWeight = Math.max(maxWeight, weight[0]);
+		}
+
+		/* the terms of the index, with their idf and their rank of first appearance */
+		int n = 0;
+		String[] candidates = new String[aggregated.size()];
+		double[] weights = new double[candidates.length];
+		final double[] idfs = new double[candidates.length];
+		int[] frequencies = new int[candidates.length];
+		for (Map.Entry<String, double[]> entry : aggregated.entrySet()) {
+			LexiconEntry lexiconEntry = lexicon.getLexiconEntry(entry.getKey());
+			if (lexiconEntry == null || lexiconEntry.getDocumentFrequency() == 0) {
+				continue;
+			}
+			candidates[n] = entry.getKey();
+			weights[n] = maxWeight > 0 ? entry.getValue()[0] / maxWeight : entry.getValue()[0];
+			frequencies[n] = lexiconEntry.getDocumentFrequency();
+			idfs[n] = Math.log(numberOfDocuments / frequencies[n]) / Math.log(2);
+			postingsIn += frequencies[n];
+			n++;
+		}
+
+		/* the ranks of the terms by decreasing idf, the first appearance breaking ties */
+		Integer[] byIdf = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			byIdf[i] = i;
+		}
+		Arrays.sort(byIdf, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int c = Double.compare(idfs[b], idfs[a]);
+				return c != 0 ? c : a.compareTo(b);
+			}
+		});
+		boolean[] kept = new boolean[n];
+		int numberKept = 0;
+		for (int i = 0; i < n; i++) {
+			int t = byIdf[i];
+			if (i > 0 && (idfs[t] < minIdf || (maxTerms > 0 && numberKept >= maxTerms))) {
+				break;
+			}
+			kept[t] = true;
+			numberKept++;
+		}
+
+		terms = new String[numberKept];
+		keyFrequencies = new double[numberKept];
+		for (int i = 0, j = 0; i < n; i++) {
+			if (kept[i]) {
+				terms[j] = candidates[i];
+				keyFrequencies[j] = weights[i];
+				postingsOut += frequencies[i];
+				j++;
+			}
+		}
+		termsOut += numberKept;
+	}
+
+	/**
+	 * @return the terms kept from the last query
+	 */
+	public String[] getTerms() {
+		return terms;
+	}
+
+	/**
+	 * @return the weights of the terms kept from the last query, divided by
+	 *         the largest weight of the query
+	 */
+	public double[] getKeyFrequencies() {
+		return keyFrequencies;
+	}
+
+	/**
+	 * @return the number of terms of the queries filtered so far, repetitions
+	 *         included
+	 */
+	public long getTermsIn() {
+		return termsIn;
+	}
+
+	/**
+	 * @return the number of terms kept so far
+	 */
+	public long getTermsOut() {
+		return termsOut;
+	}
+
+	/**
+	 * @return the number of postings of the distinct terms of the index in the
+	 *         queries filtered so far
+	 */
+	public long getPostingsIn() {
+		return postingsIn;
+	}
+
+	/**
+	 * @return the number of postings of the terms kept so far
+	 */
+	public long getPostingsOut() {
+		return postingsOut;
+	}
+}
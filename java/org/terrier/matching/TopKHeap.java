@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.matching;
+
+/**
+ * Selects the k best documents of a stream of scored documents without
+ * allocating: a binary min-heap over parallel <code>int</code> docid and
+ * <code>double</code> score arrays, whose root is the worst document kept.
+ * A document is better than another if it has a larger score or, with the
+ * same score, a smaller docid, so that the selection and the final order do
+ * not depend on the order in which the documents are offered. Once the heap
+ * is full, {@link #threshold()} gives the score a new document must reach to
+ * be worth offering. After {@link #sort()} the documents are in decreasing
+ * order in {@link #getDocids()} and {@link #getScores()}; {@link #clear()}
+ * makes the heap ready for the next query.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class TopKHeap {
+
+	protected final int[] docids;
+
+	protected final double[] scores;
+
+	protected final int k;
+
+	protected int size = 0;
+
+	/**
+	 * constructor
+	 * 
+	 * @param k
+	 *            the number of documents to select
+	 */
+	public TopKHeap(int k) {
+		this.k = k;
+		this.docids = new int[k];
+		this.scores = new double[k];
+	}
+
+	/**
+	 * Whether the document (s1, d1) is worse than the document (s2, d2).
+	 */
+	private static boolean worse(double s1, int d1, double s2, int d2) {
+		return s1 < s2 || (s1 == s2 && d1 > d2);
+	}
+
+	/**
+	 * Offers a document.
+	 * 
+	 * @param docid
+	 *            the docid of the document
+	 * @param score
+	 *            the score of the document
+	 * @return true if the document is kept, for now
+	 */
+	public boolean offer(int docid, double score) {
+		if (size < k) {
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (!worse(score, docid, scores[parent], docids[parent])) {
+					break;
+				}
+				docids[i] = docids[parent];
+				scores[i] = scores[parent];
+				i = parent;
+			}
+			docids[i] = docid;
+			scores[i] = score;
+			return true;
+		}
+		if (k == 0 || !worse(scores[0], docids[0], score, docid)) {
+			return false;
+		}
+		siftDown(0, docid, score, size);
+		return true;
+	}
+
+	/**
+	 * Places the document (docid, score) in the subtree of root i of a heap of
+	 * n documents whose root i is being replaced.
+	 */
+	private void siftDown(int i, int docid, double score, int n) {
+		int child;
+		while ((child = (i << 1) + 1) < n) {
+			if (child + 1 < n && worse(scores[child + 1], docids[child + 1], scores[child], docids[child])) {
+				child++;
+			}
+			if (!worse(scores[child], docids[child], score, docid)) {
+				break;
+			}
+			docids[i] = docids[child];
+			scores[i] = scores[child];
+			i = child;
+		}
+		docids[i] = docid;
+		scores[i] = score;
+	}
+
+	/**
+	 * Returns the score a document must exceed to enter a full heap; a
+	 * document scoring exactly the threshold enters only if its docid is
+	 * smaller than that of the worst document kept.
+	 * 
+	 * @return the score of the worst document kept once the heap is full,
+	 *         negative infinity before
+	 */
+	public double threshold() {
+		return size < k || k == 0 ? Double.NEGATIVE_INFINITY : scores[0];
+	}
+
+	/**
+	 * Sorts the documents kept by decreasing score, in place: the heap is no
+	 * longer usable until it is cleared.
+	 */
+	public void sort() {
+		for (int n = size - 1; n > 0; n--) {
+			int docid = docids[n];
+			double score = scores[n];
+			docids[n] = docids[0];
+			scores[n] = scores[0];
+			siftDown(0, docid, score, n);
+		}
+	}
+
+	/**
+	 * Empties the heap.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * @return the number of documents kept
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the docids of the documents kept, by decreasing score after
+	 *         sort(); only the first size() are valid
+	 */
+	public int[] getDocids() {
+		return docids;
+	}
+
+	/**
+	 * @return the scores of the documents kept, decreasing after sort(); only
+	 *         the first size() are valid
+	 */
+	public double[] getScores() {
+		return scores;
+	}
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.structures;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.matching.MultiModelMatching;
+import org.terrier.matching.models.WeightingModel;
+import org.terrier.structures.postings.IterablePosting;
+
+/**
+ * The block-max metadata of the inverted index for a weighting model: the
+ * posting list of each term is cut into blocks of consecutive postings, and
+ * for each block the last docid and the posting of largest score are
+ * recorded, as well as the posting of largest score of the whole list. The
+ * postings rather than their scores are recorded, so that the maximum scores
+ * can be computed for any weight of the term in the query: the scores of
+ * Terrier's models are proportional to a non-negative function of the weight,
+ * hence the posting of largest score does not depend on it. Used by
+ * {@link org.terrier.matching.BlockMaxWandMatching}.
+ * 
+ * <pre>
+ * BlockMaxIndex path prefix model [blockSize]
+ * </pre>
+ * 
+ * writes the metadata of an index for a model to
+ * <code>path/prefix.blockmax.model</code>.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class BlockMaxIndex {
+
+	protected static final Logger logger = LoggerFactory.getLogger(BlockMaxIndex.class);
+
+	/** The default number of postings of a block */
+	public static final int DEFAULT_BLOCK_SIZE = 128;
+
+	/** The weighting model of the metadata */
+	protected final String modelName;
+
+	protected final int blockSize;
+
+	/** The first block of each termId */
+	protected final int[] termStarts;
+
+	/** The number of blocks of each termId */
+	protected final int[] termBlocks;
+
+	/** The frequency of the posting of largest score of each termId */
+	protected final int[] termTfs;
+
+	/** The document length of the posting of largest score of each termId */
+	protected final int[] termLengths;
+
+	/** The last docid of each block */
+	protected final int[] lastDocids;
+
+	/** The frequency of the posting of largest score of each block */
+	protected final int[] blockTfs;
+
+	/** The document length of the posting of largest score of each block */
+	protected final int[] blockLengths;
+
+	/**
+	 * constructor
+	 */
+	protected BlockMaxIndex(String modelName, int blockSize, int[] termStarts, int[] termBlocks, int[] termTfs,
+			int[] termLengths, int[] lastDocids, int[] blockTfs, int[] blockLengths) {
+		this.modelName = modelName;
+		this.blockSize = blockSize;
+		this.termStarts = termStarts;
+		this.termBlocks = termBlocks;
+		this.termTfs = termTfs;
+		this.termLengths = termLengths;
+		this.lastDocids = lastDocids;
+		this.blockTfs = blockTfs;
+		this.blockLengths = blockLengths;
+	}
+
+	/**
+	 * Returns the name of the metadata file of an index for a model.
+	 * 
+	 * @param path
+	 *            the path of the index
+	 * @param prefix
+	 *            the prefix of the index
+	 * @param modelName
+	 *            the weighting model
+	 * @return the name of the metadata file
+	 */
+	public static String filename(String path, String prefix, String modelName) {
+		return path + File.separator + prefix + ".blockmax." + modelName.substring(modelName.lastIndexOf('.') + 1);
+	}
+
+	/**
+	 * @return the weighting model of the metadata
+	 */
+	public String getModelName() {
+		return modelName;
+	}
+
+	/**
+	 * @param termId
+	 *            the termId
+	 * @return the first block of the term
+	 */
+	public int getFirstBlock(int termId) {
+		return termStarts[termId];
+	}
+
+	/**
+	 * @param termId
+	 *            the termId
+	 * @return the number of blocks of the term
+	 */
+	public int getNumberOfBlocks(int termId) {
+		return termBlocks[termId];
+	}
+
+	/**
+	 * @param termId
+	 *            the termId
+	 * @return the frequency of the posting of largest score of the term
+	 */
+	public int getTermMaxFrequency(int termId) {
+		return termTfs[termId];
+	}
+
+	/**
+	 * @param termId
+	 *            the termId
+	 * @return the document length of the posting of largest score of the term
+	 */
+	public int getTermMaxDocumentLength(int termId) {
+		return termLengths[termId];
+	}
+
+	/**
+	 * @param block
+	 *            the block
+	 * @return the last docid of the block
+	 */
+	public int getLastDocid(int block) {
+		return lastDocids[block];
+	}
+
+	/**
+	 * @param block
+	 *            the block
+	 * @return the frequency of the posting of largest score of the block
+	 */
+	public int getMaxFrequency(int block) {
+		return blockTfs[block];
+	}
+
+	/**
+	 * @param block
+	 *            the block
+	 * @return the document length of the posting of largest score of the block
+	 */
+	public int getMaxDocumentLength(int block) {
+		return blockLengths[block];
+	}
+
+	/**
+	 * Computes the metadata of an index for a model.
+	 * 
+	 * @param index
+	 *            the index
+	 * @param modelName
+	 *            the weighting model
+	 * @param blockSize
+	 *            the number of postings of a block
+	 * @return the metadata
+	 * @throws IOException
+	 *             if the index cannot be read
+	 */
+	public static BlockMaxIndex build(IndexOnDisk index, String modelName, int blockSize) throws IOException {
+		CollectionStatistics cs = index.getCollectionStatistics();
+		int numberOfTerms = cs.getNumberOfUniqueTerms();
+		int[] termStarts = new int[numberOfTerms];
+		int[] termBlocks = new int[numberOfTerms];
+		int[] termTfs = new int[numberOfTerms];
+		int[] termLengths = new int[numberOfTerms];
+		int capacity = (int) Math.min(Integer.MAX_VALUE - 8,
+				cs.getNumberOfPointers() / blockSize + numberOfTerms + 1);
+		int[] lastDocids = new int[capacity];
+		int[] blockTfs = new int[capacity];
+		int[] blockLengths = new int[capacity];
+		int blocks = 0;
+
+		WeightingModel model = MultiModelMatching.createModel(modelName);
+		model.setCollectionStatistics(cs);
+		PostingIndex<?> invertedIndex = index.getInvertedIndex();
+		for (Map.Entry<String, LexiconEntry> entry : index.getLexicon()) {
+			LexiconEntry lexiconEntry = entry.getValue();
+			int termId = lexiconEntry.getTermId();
+			model.setEntryStatistics(lexiconEntry);
+			model.setKeyFrequency(1d);
+			model.prepare();
+
+			termStarts[termId] = blocks;
+			double termMax = Double.NEGATIVE_INFINITY;
+			double blockMax = Double.NEGATIVE_INFINITY;
+			int inBlock = 0;
+			IterablePosting postings = invertedIndex.getPostings(lexiconEntry);
+			int docid;
+			while ((docid = postings.next()) != IterablePosting.EOL) {
+				int tf = postings.getFrequency();
+				int length = postings.getDocumentLength();
+				double score = model.score(tf, length);
+				if (inBlock == 0) {
+					if (blocks == lastDocids.length) {
+						throw new IllegalStateException("More blocks than pointers in the index");
+					}
+					blockMax = Double.NEGATIVE_INFINITY;
+				}
+				if (score > blockMax) {
+					blockMax = score;
+					blockTfs[blocks] = tf;
+					blockLengths[blocks] = length;
+				}
+				if (score > termMax) {
+					termMax = score;
+					termTfs[termId] = tf;
+					termLengths[termId] = length;
+				}
+				lastDocids[blocks] = docid;
+				if (++inBlock == blockSize) {
+					inBlock = 0;
+					blocks++;
+				}
+			}
+			postings.close();
+			if (inBlock > 0) {
+				blocks++;
+			}
+			termBlocks[termId] = blocks - termStarts[termId];
+		}
+		logger.info("{} blocks of {} postings for {} terms", blocks, blockSize, numberOfTerms);
+		return new BlockMaxIndex(modelName, blockSize, termStarts, termBlocks, termTfs, termLengths,
+				Arrays.copyOf(lastDocids, blocks), Arrays.copyOf(blockTfs, blocks),
+				Arrays.copyOf(blockLengths, blocks));
+	}
+
+	/**
+	 * Writes the metadata.
+	 * 
+	 * @param filename
+	 *            the file to write
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void write(String filename) throws IOException {
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(filename)), 1 << 16));
+		try {
+			out.writeUTF(modelName);
+			out.writeInt(blockSize);
+			out.writeInt(termStarts.length);
+			for (int termId = 0; termId < termStarts.length; termId++) {
+				out.writeInt(termStarts[termId]);
+				out.writeInt(termBlocks[termId]);
+				out.writeInt(termTfs[termId]);
+				out.writeInt(termLengths[termId]);
+			}
+			out.writeInt(lastDocids.length);
+			for (int block = 0; block < lastDocids.length; block++) {
+				out.writeInt(lastDocids[block]);
+				out.writeInt(blockTfs[block]);
+				out.writeInt(blockLengths[block]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads metadata written by {@link #write(String)}.
+	 * 
+	 * @param filename
+	 *            the file to read
+	 * @return the metadata
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static BlockMaxIndex read(String filename) throws IOException {
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(new FileInputStream(filename)), 1 << 16));
+		try {
+			String modelName = in.readUTF();
+			int blockSize = in.readInt();
+			int numberOfTerms = in.readInt();
+			int[] termStarts = new int[numberOfTerms];
+			int[] termBlocks = new int[numberOfTerms];
+			int[] termTfs = new int[numberOfTerms];
+			int[] termLengths = new int[numberOfTerms];
+			for (int termId = 0; termId < numberOfTerms; termId++) {
+				termStarts[termId] = in.readInt();
+				termBlocks[termId] = in.readInt();
+				termTfs[termId] = in.readInt();
+				termLengths[termId] = in.readInt();
+			}
+			int blocks = in.readInt();
+			int[] lastDocids = new int[blocks];
+			int[] blockTfs = new int[blocks];
+			int[] blockLengths = new int[blocks];
+			for (int block = 0; block < blocks; block++) {
+				lastDocids[block] = in.readInt();
+				blockTfs[block] = in.readInt();
+				blockLengths[block] = in.readInt();
+			}
+			return new BlockMaxIndex(modelName, blockSize, termStarts, termBlocks, termTfs, termLengths, lastDocids,
+					blockTfs, blockLengths);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Builds and writes the metadata of an index for a model.
+	 * 
+	 * @param path
+	 *            the path of the index
+	 * @param prefix
+	 *            the prefix of the index
+	 * @param modelName
+	 *            the weighting model
+	 * @param blockSize
+	 *            the number of postings of a block
+	 * @throws IOException
+	 *             if the index cannot be read or the metadata written
+	 */
+	public static void build(String path, String prefix, String modelName, int blockSize) throws IOException {
+		long start = System.currentTimeMillis();
+		IndexOnDisk index = IndexOnDisk.createIndex(path, prefix);
+		if (index == null) {
+			throw new IOException("Cannot open the index " + path + File.separator + prefix);
+		}
+		try {
+			build(index, modelName, blockSize).write(filename(path, prefix, modelName));
+		} finally {
+			index.close();
+		}
+		logger.info("Block-max metadata of {} for {} written in {} ms", prefix, modelName,
+				System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Builds and writes the metadata of an index for a model.
+	 * 
+	 * @param args
+	 *            the path and the prefix of the index, the weighting model
+	 *            and, optionally, the number of postings of a block
+	 * @throws IOException
+	 *             if the index cannot be read or the metadata written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: BlockMaxIndex path prefix model [blockSize]");
+			return;
+		}
+		build(args[0], args[1], args[2], args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_BLOCK_SIZE);
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.structures;
+
+/**
+ * Lexicon entry of a conflation class: its statistics are those of the class
+ * as a whole, while the entries of the member terms locate the posting lists
+ * to merge.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class ConflatedLexiconEntry extends BasicLexiconEntry {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The entries of the member terms */
+	protected final LexiconEntry[] members;
+
+	/**
+	 * constructor
+	 * 
+	 * @param documentFrequency
+	 *            the number of documents containing any member of the class
+	 * @param frequency
+	 *            the total frequency of the members of the class
+	 * @param members
+	 *            the entries of the member terms
+	 */
+	public ConflatedLexiconEntry(int documentFrequency, int frequency, LexiconEntry[] members) {
+		super(members[0].getTermId(), documentFrequency, frequency);
+		this.members = members;
+	}
+
+	/**
+	 * @return the entries of the member terms
+	 */
+	public LexiconEntry[] getMembers() {
+		return members;
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.structures;
+
+import java.io.IOException;
+
+import org.terrier.structures.postings.ConflatedIterablePosting;
+import org.terrier.structures.postings.IterablePosting;
+
+/**
+ * Inverted index returning the merged postings of a conflation class for a
+ * {@link ConflatedLexiconEntry}, and the plain postings for any other pointer.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class ConflatedPostingIndex implements PostingIndex<Pointer> {
+
+	/** The inverted index of the unstemmed index */
+	protected final PostingIndex<?> invertedIndex;
+
+	/**
+	 * constructor
+	 * 
+	 * @param invertedIndex
+	 *            the inverted index of the unstemmed index
+	 */
+	public ConflatedPostingIndex(PostingIndex<?> invertedIndex) {
+		this.invertedIndex = invertedIndex;
+	}
+
+	public IterablePosting getPostings(Pointer pointer) throws IOException {
+		if (!(pointer instanceof ConflatedLexiconEntry)) {
+			return invertedIndex.getPostings(pointer);
+		}
+		LexiconEntry[] members = ((ConflatedLexiconEntry) pointer).getMembers();
+		if (members.length == 1) {
+			return invertedIndex.getPostings(members[0]);
+		}
+		IterablePosting[] postings = new IterablePosting[members.length];
+		for (int i = 0; i < members.length; i++) {
+			postings[i] = invertedIndex.getPostings(members[i]);
+		}
+		return new ConflatedIterablePosting(postings);
+	}
+
+	/**
+	 * The underlying inverted index is owned by its index and is not closed.
+	 */
+	public void close() {
+	}
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.structures;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.structures.postings.ConflatedIterablePosting;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.terms.Stemmer;
+import org.terrier.terms.StemmingDictionary;
+
+/**
+ * The conflation classes of an unstemmed index for a given stemmer: each stem
+ * is mapped to the termIds of the surface forms it conflates, together with
+ * the document frequency and the frequency of the class as a whole. They allow
+ * stemmed runs to be produced from the unstemmed index, by expanding each
+ * query term into its class and merging the posting lists of the class on the
+ * fly with a {@link ConflatedPostingIndex}, instead of building a separate
+ * index for every stemmer.
+ * <p>
+ * The classes are built once per index and stemmer, and stored in the index
+ * directory as <code>prefix.conflation.StemmerName</code>:
+ * 
+ * <pre>
+ * ConflationClasses path prefix KrovetzStemmer [threads]
+ * </pre>
+ * 
+ * The query terms must go through the stopwords stage only; they are stemmed
+ * by {@link #getLexiconEntry(String, Lexicon)}.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class ConflationClasses {
+
+	protected static final Logger logger = LoggerFactory.getLogger(ConflationClasses.class);
+
+	/**
+	 * A conflation class
+	 */
+	protected static class ConflationClass {
+		/** The termIds of the members */
+		final int[] termIds;
+
+		/** The number of documents containing any member */
+		final int documentFrequency;
+
+		/** The total frequency of the members */
+		final int frequency;
+
+		ConflationClass(int[] termIds, int documentFrequency, int frequency) {
+			this.termIds = termIds;
+			this.documentFrequency = documentFrequency;
+			this.frequency = frequency;
+		}
+	}
+
+	/** The name of the stemmer which produced the classes */
+	private final String stemmerName;
+
+	/** The classes, keyed by stem */
+	private final Map<String, ConflationClass> classes;
+
+	/** The stemmer of the query terms, created on first use */
+	private Stemmer stemmer = null;
+
+	/**
+	 * constructor
+	 */
+	protected ConflationClasses(String stemmerName, Map<String, ConflationClass> classes) {
+		this.stemmerName = stemmerName;
+		this.classes = classes;
+	}
+
+	/**
+	 * @return the name of the stemmer which produced the classes
+	 */
+	public String getStemmerName() {
+		return stemmerName;
+	}
+
+	/**
+	 * @return the number of classes
+	 */
+	public int size() {
+		return classes.size();
+	}
+
+	/**
+	 * Returns the lexicon entry of the conflation class of the given query
+	 * term.
+	 * 
+	 * @param term
+	 *            the unstemmed query term
+	 * @param lexicon
+	 *            the lexicon of the unstemmed index
+	 * @return the entry of the class, or null if no term of the index has the
+	 *         stem of the given term
+	 */
+	public ConflatedLexiconEntry getLexiconEntry(String term, Lexicon<String> lexicon) {
+		if (stemmer == null) {
+			stemmer = StemmingDictionary.newStemmer(stemmerName);
+		}
+		ConflationClass c = classes.get(stemmer.stem(term));
+		if (c == null) {
+			return null;
+		}
+		LexiconEntry[] members = new LexiconEntry[c.termIds.length];
+		for (int i = 0; i < members.length; i++) {
+			members[i] = lexicon.getLexiconEntry(c.termIds[i]).getValue();
+		}
+		return new ConflatedLexiconEntry(c.documentFrequency, c.frequency, members);
+	}
+
+	/**
+	 * Returns the stemmed variant of the unstemmed index of the classes, whose
+	 * lexicon looks the query terms up by {@link #getLexiconEntry(String, Lexicon)}
+	 * and whose inverted index merges the postings of their classes.
+	 * 
+	 * @param index
+	 *            the unstemmed index
+	 * @return the stemmed variant of the index
+	 */
+	public VariantIndex getIndex(Index index) {
+		final PostingIndex<Pointer> invertedIndex = new ConflatedPostingIndex(index.getInvertedIndex());
+		return new VariantIndex(index) {
+			protected LexiconEntry getLexiconEntry(String term, Lexicon<String> lexicon) {
+				return ConflationClasses.this.getLexiconEntry(term, lexicon);
+			}
+
+			public PostingIndex<?> getInvertedIndex() {
+				return invertedIndex;
+			}
+		};
+	}
+
+	/**
+	 * Writes the classes, sorted by stem.
+	 * 
+	 * @param filename
+	 *            the file to write
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void write(String filename) throws IOException {
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(filename)), 1 << 16));
+		try {
+			out.writeUTF(stemmerName);
+			out.writeInt(classes.size());
+			for (Map.Entry<String, ConflationClass> entry : new TreeMap<String, ConflationClass>(classes)
+					.entrySet()) {
+				ConflationClass c = entry.getValue();
+				out.writeUTF(entry.getKey());
+				out.writeInt(c.documentFrequency);
+				out.writeInt(c.frequency);
+				out.writeInt(c.termIds.length);
+				for (int termId : c.termIds) {
+					out.writeInt(termId);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads the classes written by {@link #write(String)}.
+	 * 
+	 * @param filename
+	 *            the file to read
+	 * @return the classes
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static ConflationClasses read(String filename) throws IOException {
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(new FileInputStream(filename)), 1 << 16));
+		try {
+			String stemmerName = in.readUTF();
+			int size = in.readInt();
+			Map<String, ConflationClass> classes = new HashMap<String, ConflationClass>(size * 4 / 3 + 1);
+			for (int i = 0; i < size; i++) {
+				String stem = in.readUTF();
+				int documentFrequency = in.readInt();
+				int frequency = in.readInt();
+				int[] termIds = new int[in.readInt()];
+				for (int j = 0; j < termIds.length; j++) {
+					termIds[j] = in.readInt();
+				}
+				classes.put(stem, new ConflationClass(termIds, documentFrequency, frequency));
+			}
+			return new ConflationClasses(stemmerName, classes);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the name of the file holding the classes of the given index and
+	 * stemmer.
+	 * 
+	 * @param index
+	 *            the unstemmed index
+	 * @param stemmerName
+	 *            the name of the stemmer
+	 * @return the file name
+	 */
+	public static String getFilename(IndexOnDisk index, String stemmerName) {
+		return index.getPath() + "/" + index.getPrefix() + ".conflation." + stemmerName;
+	}
+
+	/**
+	 * Builds the conflation classes of an unstemmed index. The vocabulary is
+	 * stemmed in parallel; the document frequency of the classes with more
+	 * than one member is computed by merging their posting lists.
+	 * 
+	 * @param index
+	 *            the unstemmed index
+	 * @param stemmerName
+	 *            the name of the stemmer
+	 * @param threads
+	 *            the number of stemming threads
+	 * @return the classes
+	 * @throws IOException
+	 *             if the index cannot be read
+	 */
+	public static ConflationClasses build(IndexOnDisk index, String stemmerName, int threads) throws IOException {
+		Lexicon<String> lexicon = index.getLexicon();
+		PostingIndex<?> invertedIndex = index.getInvertedIndex();
+
+		List<String> terms = new ArrayList<String>(lexicon.numberOfEntries());
+		List<LexiconEntry> entries = new ArrayList<LexiconEntry>(lexicon.numberOfEntries());
+		for (Map.Entry<String, LexiconEntry> entry : lexicon) {
+			terms.add(entry.getKey());
+			entries.add(entry.getValue());
+		}
+		StemmingDictionary stems = StemmingDictionary.build(terms.toArray(new String[terms.size()]), stemmerName,
+				threads);
+
+		Map<String, List<LexiconEntry>> members = new HashMap<String, List<LexiconEntry>>();
+		for (int i = 0; i < terms.size(); i++) {
+			String stem = stems.get(terms.get(i));
+			List<LexiconEntry> list = members.get(stem);
+			if (list == null) {
+				list = new ArrayList<LexiconEntry>(2);
+				members.put(stem, list);
+			}
+			list.add(entries.get(i));
+		}
+
+		Map<String, ConflationClass> classes = new HashMap<String, ConflationClass>(members.size() * 4 / 3 + 1);
+		for (Map.Entry<String, List<LexiconEntry>> entry : members.entrySet()) {
+			List<LexiconEntry> list = entry.getValue();
+			int[] termIds = new int[list.size()];
+			int frequency = 0;
+			for (int i = 0; i < termIds.length; i++) {
+				termIds[i] = list.get(i).getTermId();
+				frequency += list.get(i).getFrequency();
+			}
+
+			int documentFrequency;
+			if (list.size() == 1) {
+				documentFrequency = list.get(0).getDocumentFrequency();
+			} else {
+				IterablePosting[] postings = new IterablePosting[list.size()];
+				for (int i = 0; i < postings.length; i++) {
+					postings[i] = invertedIndex.getPostings(list.get(i));
+				}
+				IterablePosting merged = new ConflatedIterablePosting(postings);
+				documentFrequency = 0;
+				while (merged.next() != IterablePosting.EOL) {
+					documentFrequency++;
+				}
+				merged.close();
+			}
+			classes.put(entry.getKey(), new ConflationClass(termIds, documentFrequency, frequency));
+		}
+		return new ConflationClasses(stemmerName, classes);
+	}
+
+	/**
+	 * Builds and writes the conflation classes of an unstemmed index.
+	 * 
+	 * @param args
+	 *            the index path and prefix, the stemmers and, optionally, the
+	 *            number of threads
+	 * @throws IOException
+	 *             if the index cannot be read or the classes written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: ConflationClasses path prefix stemmer[,stemmer...] [threads]");
+			return;
+		}
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		IndexOnDisk index = IndexOnDisk.createIndex(args[0], args[1]);
+
+		for (String stemmerName : args[2].split(",")) {
+			long start = System.currentTimeMillis();
+			ConflationClasses classes = build(index, stemmerName, threads);
+			classes.write(getFilename(index, stemmerName));
+			logger.info("{} conflates {} terms into {} classes in {} ms", stemmerName,
+					index.getLexicon().numberOfEntries(), classes.size(), System.currentTimeMillis() - start);
+		}
+		index.close();
+	}
+}
@@ -0,0 +1,512 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.structures;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per-document statistics held in memory-mapped primitive arrays rather than
+ * in per-document objects. The file holds a small header, naming the columns
+ * and their type, followed by one array of int or float values per column,
+ * indexed by docid:
+ * 
+ * <pre>
+ * int magic, int numberOfDocuments, int numberOfColumns
+ * numberOfColumns * (UTF name, byte type 'I' or 'F')
+ * padding to a multiple of 4 bytes
+ * numberOfColumns * numberOfDocuments * (int or float)
+ * </pre>
+ * 
+ * Opening the file reads only the header; each column is mapped read-only on
+ * its first access and its values are read in place, without being copied
+ * to the heap. Several retrieval processes on the same index therefore share
+ * a single copy of the statistics in the page cache. Columns are mapped in
+ * chunks of 2<sup>28</sup> values, so that they can exceed the 2 GB limit
+ * of a mapping.
+ * <p>
+ * {@link #build(IndexOnDisk)} writes the columns <code>length</code> and
+ * <code>terms</code>, the length and the number of distinct terms of each
+ * document, to <code>path/prefix.docstats</code> and adds the structure
+ * <code>docstats</code> to the index; {@link #getDocumentStatistics(Index)}
+ * then returns it, loaded once per index. As a {@link DocumentIndex}, the
+ * entries it returns have a length and a number of entries but no pointer
+ * into the direct index.
+ * 
+ * <pre>
+ * DocumentStatistics path prefix
+ * </pre>
+ * 
+ * builds the statistics of an index.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class DocumentStatistics implements DocumentIndex, Closeable {
+
+	protected static final Logger logger = LoggerFactory.getLogger(DocumentStatistics.class);
+
+	/** The name of the structure in the index */
+	public static final String STRUCTURE_NAME = "docstats";
+
+	/** The column of the document lengths */
+	public static final String LENGTH = "length";
+
+	/** The column of the numbers of distinct terms */
+	public static final String TERMS = "terms";
+
+	private static final int MAGIC = 0x44535431;
+
+	/** The log2 of the number of values of a mapped chunk */
+	private static final int CHUNK_SHIFT = 28;
+
+	private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+	protected final String filename;
+
+	protected final int numberOfDocuments;
+
+	protected final String[] names;
+
+	/** The type of each column, 'I' or 'F' */
+	protected final byte[] types;
+
+	/** The offset in the file of each column */
+	protected final long[] offsets;
+
+	/** The mapped chunks of the int columns, null until first accessed */
+	protected final IntBuffer[][] intColumns;
+
+	/** The mapped chunks of the float columns, null until first accessed */
+	protected final FloatBuffer[][] floatColumns;
+
+	/** The mapped chunks of the lengths, null until first accessed */
+	private volatile IntBuffer[] lengths = null;
+
+	/**
+	 * Opens the statistics of an index, to be loaded as an index structure.
+	 * 
+	 * @param index
+	 *            the index
+	 * @param structureName
+	 *            the name of the structure
+	 * @throws IOException
+	 *             if the header cannot be read
+	 */
+	public DocumentStatistics(IndexOnDisk index, String structureName) throws IOException {
+		this(filename(index.getPath(), index.getPrefix()));
+	}
+
+	/**
+	 * Opens a statistics file, reading its header only.
+	 * 
+	 * @param filename
+	 *            the file
+	 * @throws IOException
+	 *             if the header cannot be read
+	 */
+	public DocumentStatistics(String filename) throws IOException {
+		this.filename = filename;
+		DataInputStream in = new DataInputStream(new FileInputStream(filename));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(filename + " is not a document statistics file");
+			}
+			numberOfDocuments = in.readInt();
+			int numberOfColumns = in.readInt();
+			names = new String[numberOfColumns];
+			types = new byte[numberOfColumns];
+			int header = 12;
+			for (int c = 0; c < numberOfColumns; c++) {
+				names[c] = in.readUTF();
+				types[c] = in.readByte();
+				header += 2 + utfLength(names[c]) + 1;
+			}
+			offsets = new long[numberOfColumns];
+			long offset = (header + 3) & ~3;
+			for (int c = 0; c < numberOfColumns; c++) {
+				offsets[c] = offset;
+				offset += 4L * numberOfDocuments;
+			}
+			if (new File(filename).length() < offset) {
+				throw new IOException(filename + " is truncated");
+			}
+		} finally {
+			in.close();
+		}
+		intColumns = new IntBuffer[names.length][];
+		floatColumns = new FloatBuffer[names.length][];
+	}
+
+	/**
+	 * The number of bytes of a string in modified UTF-8, as written by
+	 * {@link DataOutputStream#writeUTF(String)}.
+	 */
+	private static int utfLength(String s) {
+		int length = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			length += c >= 0x0001 && c <= 0x007F ? 1 : c > 0x07FF ? 3 : 2;
+		}
+		return length;
+	}
+
+	/**
+	 * Returns the name of the statistics file of an index.
+	 * 
+	 * @param path
+	 *            the path of the index
+	 * @param prefix
+	 *            the prefix of the index
+	 * @return the file name
+	 */
+	public static String filename(String path, String prefix) {
+		return path + File.separator + prefix + "." + STRUCTURE_NAME;
+	}
+
+	/**
+	 * Returns the statistics of an index, loaded once as its
+	 * <code>docstats</code> structure.
+	 * 
+	 * @param index
+	 *            the index
+	 * @return the statistics, or null if they have not been built
+	 */
+	public static DocumentStatistics getDocumentStatistics(Index index) {
+		if (!index.hasIndexStructure(STRUCTURE_NAME)) {
+			return null;
+		}
+		return (DocumentStatistics) index.getIndexStructure(STRUCTURE_NAME);
+	}
+
+	/**
+	 * Writes a statistics file.
+	 * 
+	 * @param filename
+	 *            the file
+	 * @param intNames
+	 *            the names of the int columns
+	 * @param intValues
+	 *            the values of the int columns, indexed by docid
+	 * @param floatNames
+	 *            the names of the float columns
+	 * @param floatValues
+	 *            the values of the float columns, indexed by docid
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public static void write(String filename, String[] intNames, int[][] intValues, String[] floatNames,
+			float[][] floatValues) throws IOException {
+		int numberOfDocuments = intValues.length > 0 ? intValues[0].length
+				: floatValues.length > 0 ? floatValues[0].length : 0;
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(buffer);
+		header.writeInt(MAGIC);
+		header.writeInt(numberOfDocuments);
+		header.writeInt(intNames.length + floatNames.length);
+		for (String name : intNames) {
+			header.writeUTF(name);
+			header.writeByte('I');
+		}
+		for (String name : floatNames) {
+			header.writeUTF(name);
+			header.writeByte('F');
+		}
+		while (header.size() % 4 != 0) {
+			header.writeByte(0);
+		}
+		header.flush();
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+		try {
+			buffer.writeTo(out);
+			for (int[] values : intValues) {
+				if (values.length != numberOfDocuments) {
+					throw new IllegalArgumentException("The columns have different lengths");
+				}
+				for (int value : values) {
+					out.writeInt(value);
+				}
+			}
+			for (float[] values : floatValues) {
+				if (values.length != numberOfDocuments) {
+					throw new IllegalArgumentException("The columns have different lengths");
+				}
+				for (float value : values) {
+					out.writeFloat(value);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the lengths and the numbers of distinct terms of the documents
+	 * of an index, and adds the statistics to its structures.
+	 * 
+	 * @param index
+	 *            the index
+	 * @throws IOException
+	 *             if the document index cannot be read or the file written
+	 */
+	public static void build(IndexOnDisk index) throws IOException {
+		DocumentIndex documentIndex = index.getDocumentIndex();
+		int n = documentIndex.getNumberOfDocuments();
+		int[] lengths = new int[n];
+		int[] terms = new int[n];
+		for (int docid = 0; docid < n; docid++) {
+			DocumentIndexEntry entry = documentIndex.getDocumentEntry(docid);
+			lengths[docid] = entry.getDocumentLength();
+			terms[docid] = entry.getNumberOfEntries();
+		}
+		write(filename(index.getPath(), index.getPrefix()), new String[] { LENGTH, TERMS },
+				new int[][] { lengths, terms }, new String[0], new float[0][]);
+		index.addIndexStructure(STRUCTURE_NAME, DocumentStatistics.class.getName(),
+				"org.terrier.structures.IndexOnDisk,java.lang.String", "index,structureName");
+		index.flush();
+	}
+
+	/**
+	 * Builds the statistics of an index.
+	 * 
+	 * @param path
+	 *            the path of the index
+	 * @param prefix
+	 *            the prefix of the index
+	 * @throws IOException
+	 *             if the index cannot be read or the statistics written
+	 */
+	public static void build(String path, String prefix) throws IOException {
+		long start = System.currentTimeMillis();
+		IndexOnDisk index = IndexOnDisk.createIndex(path, prefix);
+		if (index == null) {
+			throw new IOException("Cannot open the index " + path + File.separator + prefix);
+		}
+		try {
+			build(index);
+		} finally {
+			index.close();
+		}
+		logger.info("Document statistics of {} written in {} ms", prefix, System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Maps a column in chunks of 2<sup>28</sup> values.
+	 */
+	private MappedByteBuffer[] map(int column) throws IOException {
+		int numberOfChunks = (int) (((long) numberOfDocuments + CHUNK_MASK) >>> CHUNK_SHIFT);
+		MappedByteBuffer[] chunks = new MappedByteBuffer[numberOfChunks];
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			for (int i = 0; i < numberOfChunks; i++) {
+				long first = (long) i << CHUNK_SHIFT;
+				long size = 4L * (Math.min(numberOfDocuments, first + (1L << CHUNK_SHIFT)) - first);
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offsets[column] + 4L * first, size);
+			}
+		} finally {
+			/* the mappings stay valid once the channel is closed */
+			file.close();
+		}
+		return chunks;
+	}
+
+	private int column(String name, byte type) {
+		for (int c = 0; c < names.length; c++) {
+			if (names[c].equals(name)) {
+				if (types[c] != type) {
+					throw new IllegalArgumentException("The column " + name + " is not of type " + (char) type);
+				}
+				return c;
+			}
+		}
+		throw new IllegalArgumentException("No column " + name + " in " + filename);
+	}
+
+	/**
+	 * Returns the mapped chunks of an int column, mapping them on the first
+	 * call.
+	 * 
+	 * @param name
+	 *            the name of the column
+	 * @return the chunks
+	 */
+	protected IntBuffer[] getIntColumn(String name) {
+		int c = column(name, (byte) 'I');
+		synchronized (intColumns) {
+			if (intColumns[c] == null) {
+				try {
+					MappedByteBuffer[] chunks = map(c);
+					IntBuffer[] buffers = new IntBuffer[chunks.length];
+					for (int i = 0; i < chunks.length; i++) {
+						buffers[i] = chunks[i].asIntBuffer();
+					}
+					intColumns[c] = buffers;
+				} catch (IOException e) {
+					throw new IllegalStateException("Cannot map the column " + name + " of " + filename, e);
+				}
+			}
+			return intColumns[c];
+		}
+	}
+
+	/**
+	 * Returns the mapped chunks of a float column, mapping them on the first
+	 * call.
+	 * 
+	 * @param name
+	 *            the name of the column
+	 * @return the chunks
+	 */
+	protected FloatBuffer[] getFloatColumn(String name) {
+		int c = column(name, (byte) 'F');
+		synchronized (floatColumns) {
+			if (floatColumns[c] == null) {
+				try {
+					MappedByteBuffer[] chunks = map(c);
+					FloatBuffer[] buffers = new FloatBuffer[chunks.length];
+					for (int i = 0; i < chunks.length; i++) {
+						buffers[i] = chunks[i].asFloatBuffer();
+					}
+					floatColumns[c] = buffers;
+				} catch (IOException e) {
+					throw new IllegalStateException("Cannot map the column " + name + " of " + filename, e);
+				}
+			}
+			return floatColumns[c];
+		}
+	}
+
+	/**
+	 * @param name
+	 *            the name of a column
+	 * @return whether the file has the column
+	 */
+	public boolean hasColumn(String name) {
+		for (String column : names) {
+			if (column.equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the names of the columns
+	 */
+	public String[] getColumnNames() {
+		return names.clone();
+	}
+
+	/**
+	 * Returns the value of an int column for a document.
+	 * 
+	 * @param name
+	 *            the name of the column
+	 * @param docid
+	 *            the docid
+	 * @return the value
+	 */
+	public int getInt(String name, int docid) {
+		return getIntColumn(name)[docid >>> CHUNK_SHIFT].get(docid & CHUNK_MASK);
+	}
+
+	/**
+	 * Returns the value of a float column for a document.
+	 * 
+	 * @param name
+	 *            the name of the column
+	 * @param docid
+	 *            the docid
+	 * @return the value
+	 */
+	public float getFloat(String name, int docid) {
+		return getFloatColumn(name)[docid >>> CHUNK_SHIFT].get(docid & CHUNK_MASK);
+	}
+
+	public int getDocumentLength(int docid) {
+		IntBuffer[] chunks = lengths;
+		if (chunks == null) {
+			chunks = lengths = getIntColumn(LENGTH);
+		}
+		return chunks[docid >>> CHUNK_SHIFT].get(docid & CHUNK_MASK);
+	}
+
+	public DocumentIndexEntry getDocumentEntry(int docid) {
+		DocumentIndexEntry entry = new SimpleDocumentIndexEntry();
+		entry.setDocumentLength(getDocumentLength(docid));
+		if (hasColumn(TERMS)) {
+			entry.setNumberOfEntries(getInt(TERMS, docid));
+		}
+		return entry;
+	}
+
+	public int getNumberOfDocuments() {
+		return numberOfDocuments;
+	}
+
+	/**
+	 * Drops the mappings, which are released once they are garbage
+	 * collected.
+	 */
+	public void close() {
+		synchronized (intColumns) {
+			for (int c = 0; c < names.length; c++) {
+				intColumns[c] = null;
+			}
+		}
+		synchronized (floatColumns) {
+			for (int c = 0; c < names.length; c++) {
+				floatColumns[c] = null;
+			}
+		}
+		lengths = null;
+	}
+
+	/**
+	 * Builds the statistics of an index.
+	 * 
+	 * @param args
+	 *            the path and the prefix of the index
+	 * @throws IOException
+	 *             if the index cannot be read or the statistics written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: DocumentStatistics path prefix");
+			return;
+		}
+		build(args[0], args[1]);
+	}
+}
@@ -0,0 +1,496 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.structures;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.matching.MultiModelMatching;
+import org.terrier.matching.models.WeightingModel;
+import org.terrier.structures.postings.ArrayIterablePosting;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.utility.VByte;
+
+/**
+ * Impact-ordered inverted index of an index for a weighting model. The score
+ * of every posting for a query weight of 1 is quantized into an impact
+ * between 1 and 2<sup>bits</sup> - 1, linearly over the largest score of
+ * the index, so that the impacts of all the terms are on the same scale; the
+ * postings whose score is not positive get the impact 1. The posting list of
+ * each term is then cut into segments of postings with the same impact,
+ * stored by decreasing impact and, within a segment, by increasing docid.
+ * Used by {@link org.terrier.matching.ImpactOrderedMatching}, which processes
+ * the segments of a query score at a time.
+ * <p>
+ * The segments are described in <code>path/prefix.impact.model</code>, read
+ * in memory, while their docids are written as variable-byte gaps to
+ * <code>path/prefix.impact.model.postings</code>, which is memory-mapped.
+ * 
+ * <pre>
+ * ImpactIndex path prefix model [bits]
+ * </pre>
+ * 
+ * builds the impact-ordered index of an index for a model.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class ImpactIndex implements Closeable {
+
+	protected static final Logger logger = LoggerFactory.getLogger(ImpactIndex.class);
+
+	/** The default number of bits of the impacts */
+	public static final int DEFAULT_BITS = 8;
+
+	/** The log2 of the size of a mapped chunk of the postings */
+	private static final int CHUNK_SHIFT = 30;
+
+	private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+	/** The weighting model of the impacts */
+	protected final String modelName;
+
+	protected final int bits;
+
+	/** The score of the impact 1 */
+	protected final double scale;
+
+	/** The first segment of each termId */
+	protected final int[] termStarts;
+
+	/** The number of segments of each termId */
+	protected final int[] termSegments;
+
+	/** The impact of each segment */
+	protected final int[] impacts;
+
+	/** The number of postings of each segment */
+	protected final int[] counts;
+
+	/** The offset of the postings of each segment */
+	protected final long[] offsets;
+
+	/** The mapped postings */
+	protected MappedByteBuffer[] chunks;
+
+	/**
+	 * constructor
+	 */
+	protected ImpactIndex(String modelName, int bits, double scale, int[] termStarts, int[] termSegments,
+			int[] impacts, int[] counts, long[] offsets, MappedByteBuffer[] chunks) {
+		this.modelName = modelName;
+		this.bits = bits;
+		this.scale = scale;
+		this.termStarts = termStarts;
+		this.termSegments = termSegments;
+		this.impacts = impacts;
+		this.counts = counts;
+		this.offsets = offsets;
+		this.chunks = chunks;
+	}
+
+	/**
+	 * Returns the name of the segment file of an index for a model; the
+	 * postings are in the file of the same name followed by
+	 * <code>.postings</code>.
+	 * 
+	 * @param path
+	 *            the path of the index
+	 * @param prefix
+	 *            the prefix of the index
+	 * @param modelName
+	 *            the weighting model
+	 * @return the name of the segment file
+	 */
+	public static String filename(String path, String prefix, String modelName) {
+		return path + File.separator + prefix + ".impact." + modelName.substring(modelName.lastIndexOf('.') + 1);
+	}
+
+	/**
+	 * @return the weighting model of the impacts
+	 */
+	public String getModelName() {
+		return modelName;
+	}
+
+	/**
+	 * @return the number of bits of the impacts
+	 */
+	public int getBits() {
+		return bits;
+	}
+
+	/**
+	 * @return the score corresponding to the impact 1, i.e. the largest score
+	 *         of the index divided by the largest impact
+	 */
+	public double getScale() {
+		return scale;
+	}
+
+	/**
+	 * @param termId
+	 *            the termId
+	 * @return the first segment of the term
+	 */
+	public int getFirstSegment(int termId) {
+		return termId < termStarts.length ? termStarts[termId] : 0;
+	}
+
+	/**
+	 * @param termId
+	 *            the termId
+	 * @return the number of segments of the term
+	 */
+	public int getNumberOfSegments(int termId) {
+		return termId < termSegments.length ? termSegments[termId] : 0;
+	}
+
+	/**
+	 * @param segment
+	 *            the segment
+	 * @return the impact of the postings of the segment
+	 */
+	public int getImpact(int segment) {
+		return impacts[segment];
+	}
+
+	/**
+	 * @param segment
+	 *            the segment
+	 * @return the number of postings of the segment
+	 */
+	public int getNumberOfPostings(int segment) {
+		return counts[segment];
+	}
+
+	/**
+	 * Decodes the docids of a segment.
+	 * 
+	 * @param segment
+	 *            the segment
+	 * @param docids
+	 *            the array receiving the docids, of at least
+	 *            getNumberOfPostings(segment) elements
+	 * @return the number of docids decoded
+	 */
+	public int read(int segment, int[] docids) {
+		long position = offsets[segment];
+		int n = counts[segment];
+		int docid = -1;
+		for (int j = 0; j < n; j++) {
+			int gap = 0;
+			int b;
+			int shift = 0;
+			do {
+				b = chunks[(int) (position >>> CHUNK_SHIFT)].get((int) (position & CHUNK_MASK)) & 0xFF;
+				position++;
+				gap |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b >= 0x80);
+			docid += gap + 1;
+			docids[j] = docid;
+		}
+		return n;
+	}
+
+	/**
+	 * Computes the impacts of an index for a model and writes its
+	 * impact-ordered index. The inverted index is read twice: once for the
+	 * largest score, once to quantize and write the postings.
+	 * 
+	 * @param index
+	 *            the index
+	 * @param modelName
+	 *            the weighting model
+	 * @param bits
+	 *            the number of bits of the impacts, between 1 and 16
+	 * @param filename
+	 *            the segment file to write
+	 * @throws IOException
+	 *             if the index cannot be read or the files written
+	 */
+	public static void build(IndexOnDisk index, String modelName, int bits, String filename) throws IOException {
+		if (bits < 1 || bits > 16) {
+			throw new IllegalArgumentException("The impacts must have between 1 and 16 bits, not " + bits);
+		}
+		CollectionStatistics cs = index.getCollectionStatistics();
+		int numberOfTerms = cs.getNumberOfUniqueTerms();
+		WeightingModel model = MultiModelMatching.createModel(modelName);
+		model.setCollectionStatistics(cs);
+		PostingIndex<?> invertedIndex = index.getInvertedIndex();
+
+		double maxScore = 0;
+		for (Map.Entry<String, LexiconEntry> entry : index.getLexicon()) {
+			LexiconEntry lexiconEntry = entry.getValue();
+			model.setEntryStatistics(lexiconEntry);
+			model.setKeyFrequency(1d);
+			model.prepare();
+			IterablePosting postings = invertedIndex.getPostings(lexiconEntry);
+			while (postings.next() != IterablePosting.EOL) {
+				maxScore = Math.max(maxScore, model.score(postings.getFrequency(), postings.getDocumentLength()));
+			}
+			postings.close();
+		}
+		int levels = (1 << bits) - 1;
+		double scale = maxScore > 0 ? maxScore / levels : 1d;
+
+		int[] termStarts = new int[numberOfTerms];
+		int[] termSegments = new int[numberOfTerms];
+		int[] impacts = new int[1024];
+		int[] counts = new int[impacts.length];
+		long[] offsets = new long[impacts.length];
+		int segments = 0;
+		long position = 0;
+		int[] levelCounts = new int[levels + 1];
+		int[] termDocids = new int[16];
+		int[] termImpacts = new int[16];
+		int[] sortedDocids = new int[16];
+		int[] sortedImpacts = new int[16];
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(filename + ".postings"), 1 << 16);
+		try {
+			for (Map.Entry<String, LexiconEntry> entry : index.getLexicon()) {
+				LexiconEntry lexiconEntry = entry.getValue();
+				int termId = lexiconEntry.getTermId();
+				model.setEntryStatistics(lexiconEntry);
+				model.setKeyFrequency(1d);
+				model.prepare();
+				ArrayIterablePosting postings = ArrayIterablePosting.decode(invertedIndex.getPostings(lexiconEntry));
+				int n = postings.size();
+				if (termDocids.length < n) {
+					int length = Math.max(n, termDocids.length << 1);
+					termDocids = new int[length];
+					termImpacts = new int[length];
+					sortedDocids = new int[length];
+					sortedImpacts = new int[length];
+				}
+
+				/* counting sort of the postings by decreasing impact, stable within an impact */
+				Arrays.fill(levelCounts, 0);
+				for (int j = 0; postings.next() != IterablePosting.EOL; j++) {
+					double score = model.score(postings.getFrequency(), postings.getDocumentLength());
+					int impact = score > 0 ? (int) Math.min(levels, Math.max(1, Math.ceil(score / scale))) : 1;
+					termDocids[j] = postings.getId();
+					termImpacts[j] = impact;
+					levelCounts[levels - impact]++;
+				}
+				for (int level = 0, first = 0; level <= levels; level++) {
+					int count = levelCounts[level];
+					levelCounts[level] = first;
+					first += count;
+				}
+				for (int j = 0; j < n; j++) {
+					int rank = levelCounts[levels - termImpacts[j]]++;
+					sortedDocids[rank] = termDocids[j];
+					sortedImpacts[rank] = termImpacts[j];
+				}
+
+				termStarts[termId] = segments;
+				int previous = -1;
+				for (int j = 0; j < n; j++) {
+					if (j == 0 || sortedImpacts[j] != sortedImpacts[j - 1]) {
+						if (segments == impacts.length) {
+							impacts = Arrays.copyOf(impacts, segments << 1);
+							counts = Arrays.copyOf(counts, segments << 1);
+							offsets = Arrays.copyOf(offsets, segments << 1);
+						}
+						impacts[segments] = sortedImpacts[j];
+						counts[segments] = 0;
+						offsets[segments] = position;
+						segments++;
+						previous = -1;
+					}
+					int gap = sortedDocids[j] - previous - 1;
+					VByte.write(out, gap);
+					position += vbyteLength(gap);
+					previous = sortedDocids[j];
+					counts[segments - 1]++;
+				}
+				termSegments[termId] = segments - termStarts[termId];
+			}
+		} finally {
+			out.close();
+		}
+
+		DataOutputStream meta = new DataOutputStream(
+				new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(filename)), 1 << 16));
+		try {
+			meta.writeUTF(modelName);
+			meta.writeInt(bits);
+			meta.writeDouble(scale);
+			meta.writeInt(numberOfTerms);
+			for (int termId = 0; termId < numberOfTerms; termId++) {
+				meta.writeInt(termStarts[termId]);
+				meta.writeInt(termSegments[termId]);
+			}
+			meta.writeInt(segments);
+			for (int segment = 0; segment < segments; segment++) {
+				meta.writeInt(impacts[segment]);
+				meta.writeInt(counts[segment]);
+				meta.writeLong(offsets[segment]);
+			}
+		} finally {
+			meta.close();
+		}
+		logger.info("{} segments of {} bit impacts for {} terms, {} bytes of postings", segments, bits,
+				numberOfTerms, position);
+	}
+
+	private static int vbyteLength(int value) {
+		int length = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Opens an impact-ordered index written by
+	 * {@link #build(IndexOnDisk, String, int, String)}, reading its segments
+	 * and mapping its postings.
+	 * 
+	 * @param filename
+	 *            the segment file
+	 * @return the impact-ordered index
+	 * @throws IOException
+	 *             if the files cannot be read
+	 */
+	public static ImpactIndex read(String filename) throws IOException {
+		String modelName;
+		int bits;
+		double scale;
+		int[] termStarts;
+		int[] termSegments;
+		int[] impacts;
+		int[] counts;
+		long[] offsets;
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(new FileInputStream(filename)), 1 << 16));
+		try {
+			modelName = in.readUTF();
+			bits = in.readInt();
+			scale = in.readDouble();
+			int numberOfTerms = in.readInt();
+			termStarts = new int[numberOfTerms];
+			termSegments = new int[numberOfTerms];
+			for (int termId = 0; termId < numberOfTerms; termId++) {
+				termStarts[termId] = in.readInt();
+				termSegments[termId] = in.readInt();
+			}
+			int segments = in.readInt();
+			impacts = new int[segments];
+			counts = new int[segments];
+			offsets = new long[segments];
+			for (int segment = 0; segment < segments; segment++) {
+				impacts[segment] = in.readInt();
+				counts[segment] = in.readInt();
+				offsets[segment] = in.readLong();
+			}
+		} finally {
+			in.close();
+		}
+
+		RandomAccessFile file = new RandomAccessFile(filename + ".postings", "r");
+		MappedByteBuffer[] chunks;
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			chunks = new MappedByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT)];
+			for (int i = 0; i < chunks.length; i++) {
+				long start = (long) i << CHUNK_SHIFT;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, 1L << CHUNK_SHIFT));
+			}
+		} finally {
+			/* the mappings stay valid once the channel is closed */
+			file.close();
+		}
+		return new ImpactIndex(modelName, bits, scale, termStarts, termSegments, impacts, counts, offsets, chunks);
+	}
+
+	/**
+	 * Builds the impact-ordered index of an index for a model.
+	 * 
+	 * @param path
+	 *            the path of the index
+	 * @param prefix
+	 *            the prefix of the index
+	 * @param modelName
+	 *            the weighting model
+	 * @param bits
+	 *            the number of bits of the impacts
+	 * @throws IOException
+	 *             if the index cannot be read or the files written
+	 */
+	public static void build(String path, String prefix, String modelName, int bits) throws IOException {
+		long start = System.currentTimeMillis();
+		IndexOnDisk index = IndexOnDisk.createIndex(path, prefix);
+		if (index == null) {
+			throw new IOException("Cannot open the index " + path + File.separator + prefix);
+		}
+		try {
+			build(index, modelName, bits, filename(path, prefix, modelName));
+		} finally {
+			index.close();
+		}
+		logger.info("Impact-ordered index of {} for {} written in {} ms", prefix, modelName,
+				System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Drops the mappings of the postings, which are released once they are
+	 * garbage collected.
+	 */
+	public void close() {
+		chunks = null;
+	}
+
+	/**
+	 * Builds the impact-ordered index of an index for a model.
+	 * 
+	 * @param args
+	 *            the path and the prefix of the index, the weighting model
+	 *            and, optionally, the number of bits of the impacts
+	 * @throws IOException
+	 *             if the index cannot be read or the files written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: ImpactIndex path prefix model [bits]");
+			return;
+		}
+		build(args[0], args[1], args[2], args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_BITS);
+	}
+}
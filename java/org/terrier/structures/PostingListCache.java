@@ -0,0 +1,346 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.structures;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.structures.postings.ArrayIterablePosting;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * Size-bounded cache of decoded posting lists, placed in front of the
+ * inverted index of an index. The postings of a term are decoded once into
+ * primitive arrays of docids, frequencies and document lengths, keyed by
+ * termId, and every later request for the term gets a new cursor over the same
+ * arrays, so that the lists of the terms shared by several queries, models,
+ * topic fields and runs are read from disk and decoded only once.
+ * <p>
+ * The cache keeps the number of requests of each term, halved every
+ * {@link #AGING_PERIOD} requests so that old requests weigh less. A list that
+ * does not fit in the free memory is admitted only if the lists evicted to
+ * make room for it, chosen from the least requested ones, have all been
+ * requested less often than it; otherwise its postings are returned as read
+ * from the inverted index, without being decoded. Hence a term requested once
+ * cannot push out the lists of the frequent terms.
+ * <p>
+ * One cache is shared by all the users of an index in a JVM through
+ * {@link #getPostingIndex(Index)}. The conflated lexicon entries of a
+ * {@link ConflatedPostingIndex} share the termId of their first member and
+ * are not cached. The cached arrays are shared by all the cursors, which must
+ * not be modified with {@link IterablePosting#setId(int)}. When the index has
+ * {@link DocumentStatistics}, the cached lists hold no document lengths: the
+ * cursors read them from the memory-mapped statistics, shared with the other
+ * processes using the index.
+ * <p>
+ * <b>Properties:</b>
+ * <ul>
+ * <li><code>postings.cache.memory</code> - the memory of the cache of each
+ * index in MB, default 256; 0 disables the cache.</li>
+ * </ul>
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class PostingListCache implements PostingIndex<Pointer> {
+
+	protected static final Logger logger = LoggerFactory.getLogger(PostingListCache.class);
+
+	/** The number of requests after which the request counts are halved */
+	public static final int AGING_PERIOD = 1 << 16;
+
+	/** The caches created so far, keyed by index */
+	private static final Map<Index, PostingListCache> caches = new WeakHashMap<Index, PostingListCache>();
+
+	/** The inverted index whose lists are cached */
+	protected final PostingIndex<?> invertedIndex;
+
+	/** The largest number of bytes held */
+	protected final long capacity;
+
+	/** The statistics providing the document lengths, or null */
+	protected final DocumentStatistics statistics;
+
+	/** The cached lists, keyed by termId */
+	protected final Map<Integer, ArrayIterablePosting> lists = new HashMap<Integer, ArrayIterablePosting>();
+
+	/** The number of requests of each termId since the last aging */
+	protected int[] requests = new int[1024];
+
+	protected int requestsSinceAging = 0;
+
+	protected long bytes = 0;
+
+	protected long hits = 0;
+
+	protected long misses = 0;
+
+	protected long admissions = 0;
+
+	protected long evictions = 0;
+
+	/**
+	 * constructor
+	 * 
+	 * @param invertedIndex
+	 *            the inverted index whose lists are cached
+	 * @param capacity
+	 *            the largest number of bytes held
+	 */
+	public PostingListCache(PostingIndex<?> invertedIndex, long capacity) {
+		this(invertedIndex, capacity, null);
+	}
+
+	/**
+	 * constructor
+	 * 
+	 * @param invertedIndex
+	 *            the inverted index whose lists are cached
+	 * @param capacity
+	 *            the largest number of bytes held
+	 * @param statistics
+	 *            the statistics providing the document lengths, or null to
+	 *            cache the lengths with the postings
+	 */
+	public PostingListCache(PostingIndex<?> invertedIndex, long capacity, DocumentStatistics statistics) {
+		this.invertedIndex = invertedIndex;
+		this.capacity = capacity;
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Returns the inverted index of the given index, behind the cache of the
+	 * index if <code>postings.cache.memory</code> is not 0. The cache is
+	 * created by the first call for the index and shared by the later ones.
+	 * 
+	 * @param index
+	 *            the index
+	 * @return the cached inverted index, or the inverted index of the index
+	 */
+	public static PostingIndex<?> getPostingIndex(Index index) {
+		long capacity = Long.parseLong(ApplicationSetup.getProperty("postings.cache.memory", "256")) << 20;
+		if (capacity <= 0) {
+			return index.getInvertedIndex();
+		}
+		synchronized (caches) {
+			PostingListCache cache = caches.get(index);
+			if (cache == null) {
+				cache = new PostingListCache(index.getInvertedIndex(), capacity,
+						DocumentStatistics.getDocumentStatistics(index));
+				caches.put(index, cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * Returns the cache of the given index, if any.
+	 * 
+	 * @param index
+	 *            the index
+	 * @return the cache of the index, or null
+	 */
+	public static PostingListCache getCache(Index index) {
+		synchronized (caches) {
+			return caches.get(index);
+		}
+	}
+
+	/**
+	 * Discards the cache of the given index, to be called before the index is
+	 * closed.
+	 * 
+	 * @param index
+	 *            the index
+	 * @return the discarded cache, or null if the index had none
+	 */
+	public static PostingListCache release(Index index) {
+		synchronized (caches) {
+			return caches.remove(index);
+		}
+	}
+
+	public synchronized IterablePosting getPostings(Pointer pointer) throws IOException {
+		if (!(pointer instanceof LexiconEntry) || pointer instanceof ConflatedLexiconEntry) {
+			return invertedIndex.getPostings(pointer);
+		}
+		LexiconEntry entry = (LexiconEntry) pointer;
+		int termId = entry.getTermId();
+		int frequency = request(termId);
+		ArrayIterablePosting postings = lists.get(termId);
+		if (postings != null) {
+			hits++;
+			return postings.view();
+		}
+		misses++;
+
+		/* the size of the list is estimated from its document frequency before it is decoded */
+		long estimate = 64L + (statistics == null ? 12L : 8L) * entry.getDocumentFrequency();
+		if (!makeRoom(estimate, frequency)) {
+			return invertedIndex.getPostings(pointer);
+		}
+		postings = ArrayIterablePosting.decode(invertedIndex.getPostings(pointer), statistics == null).trim();
+		if (statistics != null) {
+			postings = new StatisticsIterablePosting(postings, statistics);
+		}
+		lists.put(termId, postings);
+		bytes += postings.sizeInBytes();
+		admissions++;
+		return postings.view();
+	}
+
+	/**
+	 * Cached posting list reading the document lengths from the document
+	 * statistics.
+	 */
+	private static class StatisticsIterablePosting extends ArrayIterablePosting {
+
+		private final DocumentStatistics statistics;
+
+		StatisticsIterablePosting(ArrayIterablePosting postings, DocumentStatistics statistics) {
+			super(postings);
+			this.statistics = statistics;
+		}
+
+		@Override
+		public int getDocumentLength() {
+			return statistics.getDocumentLength(ids[i]);
+		}
+
+		@Override
+		public ArrayIterablePosting view() {
+			return new StatisticsIterablePosting(this, statistics);
+		}
+	}
+
+	/**
+	 * Counts a request of the given term, halving all the counts every
+	 * {@link #AGING_PERIOD} requests.
+	 * 
+	 * @return the number of requests of the term, including this one
+	 */
+	private int request(int termId) {
+		if (termId >= requests.length) {
+			requests = Arrays.copyOf(requests, Math.max(termId + 1, requests.length << 1));
+		}
+		if (++requestsSinceAging == AGING_PERIOD) {
+			for (int i = 0; i < requests.length; i++) {
+				requests[i] >>>= 1;
+			}
+			requestsSinceAging = 0;
+		}
+		return ++requests[termId];
+	}
+
+	/**
+	 * Evicts the least requested lists until the given number of bytes is
+	 * free, provided that each of them has been requested less often than
+	 * the new list. Nothing is evicted if the bytes cannot be freed.
+	 * 
+	 * @return whether the bytes are free
+	 */
+	private boolean makeRoom(long needed, int frequency) {
+		if (needed > capacity) {
+			return false;
+		}
+		if (bytes + needed <= capacity) {
+			return true;
+		}
+		int[] termIds = new int[lists.size()];
+		long[] keys = new long[termIds.length];
+		int n = 0;
+		for (Integer termId : lists.keySet()) {
+			termIds[n] = termId;
+			/* sorted by request count, then by termId */
+			keys[n] = ((long) requests[termId] << 32) | n;
+			n++;
+		}
+		Arrays.sort(keys);
+		long freed = 0;
+		int victims = 0;
+		while (bytes - freed + needed > capacity) {
+			if (victims == n || (int) (keys[victims] >>> 32) >= frequency) {
+				return false;
+			}
+			freed += lists.get(termIds[(int) keys[victims]]).sizeInBytes();
+			victims++;
+		}
+		for (int i = 0; i < victims; i++) {
+			lists.remove(termIds[(int) keys[i]]);
+		}
+		bytes -= freed;
+		evictions += victims;
+		return true;
+	}
+
+	/**
+	 * @return the number of requests served from the cache
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of requests not served from the cache
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the fraction of the requests served from the cache
+	 */
+	public synchronized double getHitRatio() {
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	/**
+	 * @return the approximate number of bytes held by the cached lists
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return the number of cached lists
+	 */
+	public synchronized int size() {
+		return lists.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return lists.size() + " lists, " + bytes + " bytes held, hit ratio " + getHitRatio() + " (" + hits + " hits, "
+				+ misses + " misses), " + admissions + " admissions, " + evictions + " evictions";
+	}
+
+	/**
+	 * Drops the cached lists; the inverted index is owned by its index and is
+	 * not closed.
+	 */
+	public synchronized void close() {
+		lists.clear();
+		bytes = 0;
+	}
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.structures;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.structures.postings.OverlayIterablePosting;
+import org.terrier.terms.Stemmer;
+import org.terrier.terms.StemmingDictionary;
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * A stoplist variant of an index without stoplist, stored as an overlay on the
+ * postings of the latter. Removing the stopwords only drops their posting
+ * lists and shortens the documents, so the variant keeps the termIds of its
+ * stopwords, its own document lengths and its own collection statistics, and
+ * shares the lexicon and the posting file of the index without stoplist of the
+ * same lexical unit generator (LUG).
+ * <p>
+ * The overlay is exact for unstemmed indexes. With a stemmer, the stopwords
+ * are stemmed and the matching stems are dropped as a whole, whereas a stopped
+ * and stemmed index keeps the postings of the non-stopwords conflated with a
+ * stopword; the number of such stems is logged when the overlay is built.
+ * N-gram indexes cannot be overlaid, since the n-grams of the stopwords are
+ * shared with the other words.
+ * 
+ * <pre>
+ * StoplistOverlay basePath basePrefix stoplist overlayFile [stemmer]
+ * </pre>
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class StoplistOverlay implements DocumentIndex {
+
+	protected static final Logger logger = LoggerFactory.getLogger(StoplistOverlay.class);
+
+	/** The path of the shared index */
+	protected final String basePath;
+
+	/** The prefix of the shared index */
+	protected final String basePrefix;
+
+	/** The termIds of the shared index excluded by the stoplist */
+	protected final BitSet excluded;
+
+	/** The document lengths of the variant */
+	protected final int[] documentLengths;
+
+	/** The collection statistics of the variant */
+	protected final CollectionStatistics statistics;
+
+	/**
+	 * constructor
+	 * 
+	 * @param basePath
+	 *            the path of the shared index
+	 * @param basePrefix
+	 *            the prefix of the shared index
+	 * @param excluded
+	 *            the excluded termIds
+	 * @param documentLengths
+	 *            the document lengths of the variant
+	 * @param statistics
+	 *            the collection statistics of the variant
+	 */
+	public StoplistOverlay(String basePath, String basePrefix, BitSet excluded, int[] documentLengths,
+			CollectionStatistics statistics) {
+		this.basePath = basePath;
+		this.basePrefix = basePrefix;
+		this.excluded = excluded;
+		this.documentLengths = documentLengths;
+		this.statistics = statistics;
+	}
+
+	/**
+	 * @return the path of the shared index
+	 */
+	public String getBasePath() {
+		return basePath;
+	}
+
+	/**
+	 * @return the prefix of the shared index
+	 */
+	public String getBasePrefix() {
+		return basePrefix;
+	}
+
+	/**
+	 * @param termId
+	 *            a termId of the shared index
+	 * @return true if the term is a stopword of the variant
+	 */
+	public boolean isExcluded(int termId) {
+		return excluded.get(termId);
+	}
+
+	/**
+	 * Looks up a term in the lexicon of the shared index.
+	 * 
+	 * @param term
+	 *            the term
+	 * @param lexicon
+	 *            the lexicon of the shared index
+	 * @return the entry of the term, null if it is missing or a stopword
+	 */
+	public LexiconEntry getLexiconEntry(String term, Lexicon<String> lexicon) {
+		LexiconEntry entry = lexicon.getLexiconEntry(term);
+		return entry == null || excluded.get(entry.getTermId()) ? null : entry;
+	}
+
+	/**
+	 * Returns the inverted index of the variant, whose postings report the
+	 * document lengths of the variant.
+	 * 
+	 * @param invertedIndex
+	 *            the inverted index of the shared index
+	 * @return the inverted index of the variant
+	 */
+	public PostingIndex<Pointer> getInvertedIndex(final PostingIndex<?> invertedIndex) {
+		return new PostingIndex<Pointer>() {
+			public IterablePosting getPostings(Pointer pointer) throws IOException {
+				return new OverlayIterablePosting(invertedIndex.getPostings(pointer), StoplistOverlay.this);
+			}
+
+			public void close() {
+			}
+		};
+	}
+
+	/**
+	 * Returns the variant of the shared index, whose lexicon drops the
+	 * stopwords and whose inverted index, document index and collection
+	 * statistics are those of the variant. The document statistics of the
+	 * shared index are hidden, since they hold its document lengths.
+	 * 
+	 * @param index
+	 *            the shared index
+	 * @return the variant of the shared index
+	 */
+	public VariantIndex getIndex(Index index) {
+		final PostingIndex<Pointer> invertedIndex = getInvertedIndex(index.getInvertedIndex());
+		return new VariantIndex(index) {
+			protected LexiconEntry getLexiconEntry(String term, Lexicon<String> lexicon) {
+				return StoplistOverlay.this.getLexiconEntry(term, lexicon);
+			}
+
+			public PostingIndex<?> getInvertedIndex() {
+				return invertedIndex;
+			}
+
+			public DocumentIndex getDocumentIndex() {
+				return StoplistOverlay.this;
+			}
+
+			public CollectionStatistics getCollectionStatistics() {
+				return statistics;
+			}
+
+			public boolean hasIndexStructure(String structureName) {
+				return !DocumentStatistics.STRUCTURE_NAME.equals(structureName)
+						&& super.hasIndexStructure(structureName);
+			}
+		};
+	}
+
+	/**
+	 * @return the collection statistics of the variant
+	 */
+	public CollectionStatistics getCollectionStatistics() {
+		return statistics;
+	}
+
+	public DocumentIndexEntry getDocumentEntry(int docid) {
+		DocumentIndexEntry entry = new SimpleDocumentIndexEntry();
+		entry.setDocumentLength(documentLengths[docid]);
+		return entry;
+	}
+
+	public int getDocumentLength(int docid) {
+		return documentLengths[docid];
+	}
+
+	public int getNumberOfDocuments() {
+		return documentLengths.length;
+	}
+
+	/**
+	 * Writes the overlay.
+	 * 
+	 * @param filename
+	 *            the file to write
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void write(String filename) throws IOException {
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(filename)), 1 << 16));
+		try {
+			out.writeUTF(basePath);
+			out.writeUTF(basePrefix);
+			out.writeInt(statistics.getNumberOfUniqueTerms());
+			out.writeLong(statistics.getNumberOfTokens());
+			out.writeLong(statistics.getNumberOfPointers());
+			long[] words = excluded.toLongArray();
+			out.writeInt(words.length);
+			for (long word : words) {
+				out.writeLong(word);
+			}
+			out.writeInt(documentLengths.length);
+			for (int length : documentLengths) {
+				out.writeInt(length);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads an overlay written by {@link #write(String)}.
+	 * 
+	 * @param filename
+	 *            the file to read
+	 * @return the overlay
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static StoplistOverlay read(String filename) throws IOException {
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(new FileInputStream(filename)), 1 << 16));
+		try {
+			String basePath = in.readUTF();
+			String basePrefix = in.readUTF();
+			int terms = in.readInt();
+			long tokens = in.readLong();
+			long pointers = in.readLong();
+			long[] words = new long[in.readInt()];
+			for (int i = 0; i < words.length; i++) {
+				words[i] = in.readLong();
+			}
+			int[] documentLengths = new int[in.readInt()];
+			for (int i = 0; i < documentLengths.length; i++) {
+				documentLengths[i] = in.readInt();
+			}
+			return new StoplistOverlay(basePath, basePrefix, BitSet.valueOf(words), documentLengths,
+					new CollectionStatistics(documentLengths.length, terms, tokens, pointers, new long[0]));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads a stoplist as Terrier's Stopwords does: the comma separated files
+	 * are resolved against <code>terrier.share</code> and read with the
+	 * encoding of <code>stopwords.encoding</code> or
+	 * <code>trec.encoding</code>, one word per line, trimmed but not
+	 * lower-cased.
+	 * 
+	 * @param filenames
+	 *            the comma separated stoplist files
+	 * @return the stopwords
+	 * @throws IOException
+	 *             if the stoplist cannot be read
+	 */
+	public static Set<String> readStoplist(String filenames) throws IOException {
+		String encoding = ApplicationSetup.getProperty("stopwords.encoding",
+				ApplicationSetup.getProperty("trec.encoding", Charset.defaultCharset().name()));
+		Set<String> stopwords = new HashSet<String>();
+		for (String filename : filenames.trim().split("\\s*,\\s*")) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(ApplicationSetup.makeAbsolute(filename, ApplicationSetup.TERRIER_SHARE)),
+					encoding));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (line.length() > 0) {
+						stopwords.add(line);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		return stopwords;
+	}
+
+	/**
+	 * Builds the overlay of a stoplist on an index without stoplist.
+	 * 
+	 * @param base
+	 *            the index without stoplist
+	 * @param stopwords
+	 *            the stopwords
+	 * @param stemmerName
+	 *            the stemmer of the index, null if unstemmed
+	 * @return the overlay
+	 * @throws IOException
+	 *             if the index cannot be read
+	 */
+	public static StoplistOverlay build(IndexOnDisk base, Set<String> stopwords, String stemmerName)
+			throws IOException {
+		if (stemmerName != null && stemmerName.toLowerCase(Locale.ROOT).contains("gram")) {
+			throw new IllegalArgumentException("N-gram indexes cannot be overlaid: " + stemmerName);
+		}
+		Stemmer stemmer = stemmerName == null ? null : StemmingDictionary.newStemmer(stemmerName);
+		Lexicon<String> lexicon = base.getLexicon();
+		PostingIndex<?> invertedIndex = base.getInvertedIndex();
+		DocumentIndex documentIndex = base.getDocumentIndex();
+		CollectionStatistics cs = base.getCollectionStatistics();
+
+		int[] documentLengths = new int[cs.getNumberOfDocuments()];
+		for (int i = 0; i < documentLengths.length; i++) {
+			documentLengths[i] = documentIndex.getDocumentLength(i);
+		}
+
+		BitSet excluded = new BitSet(cs.getNumberOfUniqueTerms());
+		Set<String> seen = new HashSet<String>();
+		long tokens = 0;
+		long pointers = 0;
+		int conflated = 0;
+		for (String stopword : stopwords) {
+			String term = stemmer == null ? stopword : stemmer.stem(stopword);
+			if (!seen.add(term)) {
+				continue;
+			}
+			LexiconEntry entry = lexicon.getLexiconEntry(term);
+			if (entry == null) {
+				continue;
+			}
+			if (stemmer != null && !stopwords.contains(term)) {
+				conflated++;
+			}
+			excluded.set(entry.getTermId());
+			tokens += entry.getFrequency();
+			pointers += entry.getDocumentFrequency();
+			IterablePosting postings = invertedIndex.getPostings(entry);
+			while (postings.next() != IterablePosting.EOL) {
+				documentLengths[postings.getId()] -= postings.getFrequency();
+			}
+			postings.close();
+		}
+		if (conflated > 0) {
+			logger.warn("{} excluded stems of {} are not stopwords themselves, the overlay is approximate",
+					conflated, stemmerName);
+		}
+		return new StoplistOverlay(base.getPath(), base.getPrefix(), excluded, documentLengths,
+				new CollectionStatistics(documentLengths.length,
+						cs.getNumberOfUniqueTerms() - excluded.cardinality(), cs.getNumberOfTokens() - tokens,
+						cs.getNumberOfPointers() - pointers, new long[0]));
+	}
+
+	/**
+	 * Builds and writes the overlay of a stoplist.
+	 * 
+	 * @param args
+	 *            the path and prefix of the index without stoplist, the
+	 *            stoplist, the overlay file and, optionally, the stemmer of
+	 *            the index
+	 * @throws IOException
+	 *             if the index cannot be read or the overlay written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 4) {
+			System.err.println("Usage: StoplistOverlay basePath basePrefix stoplist overlayFile [stemmer]");
+			return;
+		}
+		long start = System.currentTimeMillis();
+		IndexOnDisk base = IndexOnDisk.createIndex(args[0], args[1]);
+		StoplistOverlay overlay = build(base, readStoplist(args[2]), args.length > 4 ? args[4] : null);
+		overlay.write(args[3]);
+		base.close();
+
+		long overlaySize = new File(args[3]).length();
+		long postingsSize = new File(args[0], args[1] + ".inverted.bf").length();
+		logger.info("Overlay of {} excludes {} terms, {} tokens left; {} bytes against {} bytes of shared postings ({} ms)",
+				args[2], overlay.excluded.cardinality(), overlay.statistics.getNumberOfTokens(), overlaySize,
+				postingsSize, System.currentTimeMillis() - start);
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.structures;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Query-time variant of an index: it shares all the structures of the
+ * underlying index but for the lookups of the query terms and, when a
+ * subclass redefines them, the inverted index, the document index and the
+ * collection statistics. It gives the variants computed from an index, such as
+ * the {@link ConflationClasses} of a stemmer or a {@link StoplistOverlay}, to
+ * the matching models taking an {@link Index}.
+ * <p>
+ * The lexicon of the variant only redefines the lookups by term; the lookups
+ * by termId and the iteration are those of the underlying index. Closing the
+ * variant does not close the underlying index.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public abstract class VariantIndex extends Index {
+
+	/** The underlying index */
+	protected final Index index;
+
+	/** The lexicon of the variant */
+	protected final Lexicon<String> lexicon;
+
+	/**
+	 * constructor
+	 * 
+	 * @param index
+	 *            the underlying index
+	 */
+	protected VariantIndex(Index index) {
+		this.index = index;
+		this.lexicon = new VariantLexicon(index.getLexicon());
+	}
+
+	/**
+	 * Looks up a query term in the variant.
+	 * 
+	 * @param term
+	 *            the query term
+	 * @param lexicon
+	 *            the lexicon of the underlying index
+	 * @return the entry of the term, or null if the variant does not have it
+	 */
+	protected abstract LexiconEntry getLexiconEntry(String term, Lexicon<String> lexicon);
+
+	/**
+	 * Lexicon looking up the terms through {@link VariantIndex#getLexiconEntry(String, Lexicon)}.
+	 */
+	private class VariantLexicon extends Lexicon<String> {
+
+		private final Lexicon<String> lexicon;
+
+		VariantLexicon(Lexicon<String> lexicon) {
+			this.lexicon = lexicon;
+		}
+
+		public LexiconEntry getLexiconEntry(String term) {
+			return VariantIndex.this.getLexiconEntry(term, lexicon);
+		}
+
+		public Map.Entry<String, LexiconEntry> getLexiconEntry(int termId) {
+			return lexicon.getLexiconEntry(termId);
+		}
+
+		public Map.Entry<String, LexiconEntry> getIthLexiconEntry(int i) {
+			return lexicon.getIthLexiconEntry(i);
+		}
+
+		public Iterator<Map.Entry<String, LexiconEntry>> getLexiconEntryRange(String from, String to) {
+			return lexicon.getLexiconEntryRange(from, to);
+		}
+
+		public int numberOfEntries() {
+			return lexicon.numberOfEntries();
+		}
+
+		public Iterator<Map.Entry<String, LexiconEntry>> iterator() {
+			return lexicon.iterator();
+		}
+
+		/**
+		 * The lexicon of the underlying index is owned by its index and is
+		 * not closed.
+		 */
+		public void close() {
+		}
+	}
+
+	/**
+	 * @return the underlying index
+	 */
+	public Index getIndex() {
+		return index;
+	}
+
+	public Lexicon<String> getLexicon() {
+		return lexicon;
+	}
+
+	public PostingIndex<?> getInvertedIndex() {
+		return index.getInvertedIndex();
+	}
+
+	public PostingIndex<?> getDirectIndex() {
+		return index.getDirectIndex();
+	}
+
+	public DocumentIndex getDocumentIndex() {
+		return index.getDocumentIndex();
+	}
+
+	public MetaIndex getMetaIndex() {
+		return index.getMetaIndex();
+	}
+
+	public CollectionStatistics getCollectionStatistics() {
+		return index.getCollectionStatistics();
+	}
+
+	public Object getIndexStructure(String structureName) {
+		return index.getIndexStructure(structureName);
+	}
+
+	public Object getIndexStructureInputStream(String structureName) {
+		return index.getIndexStructureInputStream(structureName);
+	}
+
+	public boolean hasIndexStructure(String structureName) {
+		return index.hasIndexStructure(structureName);
+	}
+
+	public boolean hasIndexStructureInputStream(String structureName) {
+		return index.hasIndexStructureInputStream(structureName);
+	}
+
+	public String getIndexProperty(String key, String defaultValue) {
+		return index.getIndexProperty(key, defaultValue);
+	}
+
+	public int getIntIndexProperty(String key, int defaultValue) {
+		return index.getIntIndexProperty(key, defaultValue);
+	}
+
+	/**
+	 * The variant is read-only.
+	 */
+	public void setIndexProperty(String key, String value) {
+		throw new UnsupportedOperationException("Query-time variants are read-only");
+	}
+
+	public void flush() throws IOException {
+	}
+
+	public String toString() {
+		return index.toString();
+	}
+
+	/**
+	 * The underlying index is owned by its creator and is not closed.
+	 */
+	public void close() {
+	}
+}
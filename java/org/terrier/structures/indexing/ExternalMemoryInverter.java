@@ -0,0 +1,469 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.structures.indexing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.structures.DocumentIndex;
+import org.terrier.structures.DocumentIndexEntry;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.PostingIndex;
+import org.terrier.structures.postings.ArrayIterablePosting;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.utility.VByte;
+
+/**
+ * Inverts the direct index of an index within a fixed memory budget. The
+ * postings of the direct index are accumulated in primitive arrays; whenever
+ * the arrays are full they are sorted by the rank of their term in the
+ * lexicon and spilled to disk as a run, whose postings are compressed with
+ * variable byte codes of the docid gaps. The runs are then merged, at most
+ * <code>fanIn</code> at a time, and the last merge writes the inverted index
+ * and the lexicon with an {@link InvertedIndexWriter}. The memory used does not
+ * depend on the size of the collection, apart from one int per term.
+ * <p>
+ * Since the documents are read in docid order, the runs hold increasing docid
+ * ranges and the postings of a term are merged by concatenating them run by
+ * run.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class ExternalMemoryInverter {
+
+	protected static final Logger logger = LoggerFactory.getLogger(ExternalMemoryInverter.class);
+
+	/** The bytes used by a buffered posting: rank, docid, tf and sort key */
+	protected static final int BYTES_PER_POSTING = 20;
+
+	protected final IndexOnDisk index;
+
+	protected final int capacity;
+
+	protected final int fanIn;
+
+	protected final File tmpDirectory;
+
+	private int[] ranks;
+
+	private int[] docids;
+
+	private int[] tfs;
+
+	private long[] keys;
+
+	private int size = 0;
+
+	private final List<File> runs = new ArrayList<File>();
+
+	private int numberOfSpills = 0;
+
+	private int numberOfMergePasses = 0;
+
+	private long bytesWritten = 0;
+
+	/**
+	 * constructor
+	 * 
+	 * @param index
+	 *            the index with a direct index and a lexicon without pointers
+	 * @param budget
+	 *            the memory for the posting buffers, in bytes
+	 * @param fanIn
+	 *            the maximum number of runs merged at once
+	 */
+	public ExternalMemoryInverter(IndexOnDisk index, long budget, int fanIn) {
+		this.index = index;
+		this.capacity = (int) Math.max(Math.min(budget / BYTES_PER_POSTING, Integer.MAX_VALUE - 8), 1024);
+		this.fanIn = Math.max(fanIn, 2);
+		this.tmpDirectory = new File(index.getPath());
+	}
+
+	/**
+	 * Builds the inverted index and rewrites the lexicon with the pointers to
+	 * the posting lists.
+	 * 
+	 * @throws IOException
+	 *             if the index cannot be read or written
+	 */
+	public void invert() throws IOException {
+		long start = System.currentTimeMillis();
+		File terms = tmpFile("terms");
+		int[] rankOf = rankTerms(terms);
+
+		ranks = new int[capacity];
+		docids = new int[capacity];
+		tfs = new int[capacity];
+		keys = new long[capacity];
+
+		PostingIndex<?> directIndex = index.getDirectIndex();
+		DocumentIndex documentIndex = index.getDocumentIndex();
+		int numberOfDocuments = documentIndex.getNumberOfDocuments();
+		long postings = 0;
+		for (int docid = 0; docid < numberOfDocuments; docid++) {
+			DocumentIndexEntry entry = documentIndex.getDocumentEntry(docid);
+			if (entry.getNumberOfEntries() == 0) {
+				continue;
+			}
+			IterablePosting posting = directIndex.getPostings(entry);
+			while (posting.next() != IterablePosting.EOL) {
+				if (size == capacity) {
+					spill();
+				}
+				ranks[size] = rankOf[posting.getId()];
+				docids[size] = docid;
+				tfs[size] = posting.getFrequency();
+				size++;
+				postings++;
+			}
+			posting.close();
+		}
+		if (size > 0 || runs.isEmpty()) {
+			spill();
+		}
+		ranks = docids = tfs = null;
+		keys = null;
+		rankOf = null;
+		long inverted = System.currentTimeMillis();
+
+		List<File> level = runs;
+		while (level.size() > fanIn) {
+			numberOfMergePasses++;
+			List<File> next = new ArrayList<File>();
+			for (int i = 0; i < level.size(); i += fanIn) {
+				List<File> group = level.subList(i, Math.min(i + fanIn, level.size()));
+				if (group.size() == 1) {
+					next.add(group.get(0));
+					continue;
+				}
+				File merged = tmpFile("merge" + numberOfMergePasses + "." + next.size());
+				mergeRuns(group, merged);
+				next.add(merged);
+			}
+			level = next;
+		}
+		numberOfMergePasses++;
+		writeInvertedIndex(level, terms);
+		if (!terms.delete()) {
+			logger.warn("Cannot delete {}", terms);
+		}
+
+		logger.info("Inverted {} postings in {} ms, {} spills of at most {} postings, {} merge passes with fan-in {}, "
+				+ "{} bytes of runs written, merged in {} ms", postings, inverted - start, numberOfSpills, capacity,
+				numberOfMergePasses, Math.min(runs.size(), fanIn), bytesWritten, System.currentTimeMillis() - inverted);
+	}
+
+	/**
+	 * Reads the lexicon, writes its terms and termIds to a file in lexicon
+	 * order and returns the rank of each termId.
+	 */
+	private int[] rankTerms(File terms) throws IOException {
+		int[] rankOf = new int[Math.max(index.getIntIndexProperty("num.Terms", 0), 16)];
+		@SuppressWarnings("unchecked")
+		Iterator<Map.Entry<String, LexiconEntry>> lexicon = (Iterator<Map.Entry<String, LexiconEntry>>) index
+				.getIndexStructureInputStream("lexicon");
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(terms), 1 << 16));
+		int rank = 0;
+		try {
+			while (lexicon.hasNext()) {
+				Map.Entry<String, LexiconEntry> entry = lexicon.next();
+				int termId = entry.getValue().getTermId();
+				if (termId >= rankOf.length) {
+					rankOf = Arrays.copyOf(rankOf, Math.max(termId + 1, rankOf.length << 1));
+				}
+				rankOf[termId] = rank++;
+				out.writeInt(termId);
+				out.writeUTF(entry.getKey());
+			}
+		} finally {
+			out.close();
+			if (lexicon instanceof Closeable) {
+				((Closeable) lexicon).close();
+			}
+		}
+		return rankOf;
+	}
+
+	private File tmpFile(String name) {
+		return new File(tmpDirectory, index.getPrefix() + ".inversion." + name + ".tmp");
+	}
+
+	/**
+	 * Sorts the buffered postings by rank, keeping the docid order within each
+	 * rank, and writes them as a run.
+	 */
+	private void spill() throws IOException {
+		for (int i = 0; i < size; i++) {
+			keys[i] = ((long) ranks[i] << 32) | i;
+		}
+		Arrays.sort(keys, 0, size);
+
+		File run = tmpFile("run" + runs.size());
+		RunWriter writer = new RunWriter(run);
+		int i = 0;
+		while (i < size) {
+			int rank = (int) (keys[i] >>> 32);
+			int j = i;
+			while (j < size && (int) (keys[j] >>> 32) == rank) {
+				j++;
+			}
+			writer.startGroup(rank, j - i);
+			for (; i < j; i++) {
+				int p = (int) keys[i];
+				writer.writePosting(docids[p], tfs[p]);
+			}
+		}
+		writer.close();
+		runs.add(run);
+		numberOfSpills++;
+		size = 0;
+	}
+
+	/**
+	 * Merges runs into a single run.
+	 */
+	private void mergeRuns(List<File> inputs, File output) throws IOException {
+		PriorityQueue<RunReader> heap = openRuns(inputs);
+		RunWriter writer = new RunWriter(output);
+		int[] ids = new int[1024];
+		int[] frequencies = new int[1024];
+		while (!heap.isEmpty()) {
+			int rank = heap.peek().rank;
+			int count = 0;
+			while (!heap.isEmpty() && heap.peek().rank == rank) {
+				RunReader reader = heap.poll();
+				if (ids.length < count + reader.count) {
+					ids = Arrays.copyOf(ids, Integer.highestOneBit(count + reader.count) << 1);
+					frequencies = Arrays.copyOf(frequencies, ids.length);
+				}
+				count = reader.readGroup(ids, frequencies, count);
+				advance(reader, heap);
+			}
+			writer.startGroup(rank, count);
+			for (int i = 0; i < count; i++) {
+				writer.writePosting(ids[i], frequencies[i]);
+			}
+		}
+		writer.close();
+		for (File input : inputs) {
+			delete(input);
+		}
+	}
+
+	/**
+	 * Merges the last runs into the inverted index, reading the terms in
+	 * lexicon order.
+	 */
+	private void writeInvertedIndex(List<File> inputs, File terms) throws IOException {
+		PriorityQueue<RunReader> heap = openRuns(inputs);
+		DataInputStream termInput = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(terms), 1 << 16));
+		index.setIndexProperty("index.lexicon.valuefactory", "org.terrier.structures.BasicLexiconEntry$Factory()");
+		InvertedIndexWriter writer = new InvertedIndexWriter(index);
+		int[] ids = new int[1024];
+		int[] frequencies = new int[1024];
+		int rank = 0;
+		try {
+			while (!heap.isEmpty()) {
+				int next = heap.peek().rank;
+				int termId = 0;
+				String term = null;
+				for (; rank <= next; rank++) {
+					termId = termInput.readInt();
+					term = termInput.readUTF();
+				}
+				int count = 0;
+				while (!heap.isEmpty() && heap.peek().rank == next) {
+					RunReader reader = heap.poll();
+					if (ids.length < count + reader.count) {
+						ids = Arrays.copyOf(ids, Integer.highestOneBit(count + reader.count) << 1);
+						frequencies = Arrays.copyOf(frequencies, ids.length);
+					}
+					count = reader.readGroup(ids, frequencies, count);
+					advance(reader, heap);
+				}
+				writer.write(term, termId, new ArrayIterablePosting(ids, frequencies, null, count));
+			}
+		} finally {
+			termInput.close();
+		}
+		writer.close();
+		for (File input : inputs) {
+			delete(input);
+		}
+	}
+
+	private PriorityQueue<RunReader> openRuns(List<File> inputs) throws IOException {
+		PriorityQueue<RunReader> heap = new PriorityQueue<RunReader>(inputs.size());
+		for (int i = 0; i < inputs.size(); i++) {
+			RunReader reader = new RunReader(inputs.get(i), i);
+			if (reader.nextGroup()) {
+				heap.add(reader);
+			} else {
+				reader.close();
+			}
+		}
+		return heap;
+	}
+
+	private static void advance(RunReader reader, PriorityQueue<RunReader> heap) throws IOException {
+		if (reader.nextGroup()) {
+			heap.add(reader);
+		} else {
+			reader.close();
+		}
+	}
+
+	private static void delete(File file) {
+		if (!file.delete()) {
+			logger.warn("Cannot delete {}", file);
+		}
+	}
+
+	/**
+	 * @return the number of runs spilled
+	 */
+	public int getNumberOfSpills() {
+		return numberOfSpills;
+	}
+
+	/**
+	 * @return the number of merge passes, including the final one
+	 */
+	public int getNumberOfMergePasses() {
+		return numberOfMergePasses;
+	}
+
+	/**
+	 * @return the bytes of the runs written, including the merged ones
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Writes a run: a sequence of groups, each made of the rank plus one, the
+	 * number of postings and the postings as docid gap and frequency, ended by
+	 * a zero.
+	 */
+	private final class RunWriter {
+
+		private final File file;
+
+		private final OutputStream out;
+
+		private int lastDocid;
+
+		RunWriter(File file) throws IOException {
+			this.file = file;
+			this.out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		}
+
+		void startGroup(int rank, int count) throws IOException {
+			VByte.write(out, rank + 1);
+			VByte.write(out, count);
+			lastDocid = 0;
+		}
+
+		void writePosting(int docid, int tf) throws IOException {
+			VByte.write(out, docid - lastDocid);
+			VByte.write(out, tf);
+			lastDocid = docid;
+		}
+
+		void close() throws IOException {
+			out.write(0);
+			out.close();
+			bytesWritten += file.length();
+		}
+	}
+
+	/**
+	 * Reads a run, group by group; runs with the same rank are ordered by
+	 * their position, i.e. by docid.
+	 */
+	private static final class RunReader implements Comparable<RunReader> {
+
+		private final InputStream in;
+
+		private final int position;
+
+		int rank;
+
+		int count;
+
+		RunReader(File file, int position) throws IOException {
+			this.in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+			this.position = position;
+		}
+
+		boolean nextGroup() throws IOException {
+			int value = VByte.read(in);
+			if (value == 0) {
+				return false;
+			}
+			rank = value - 1;
+			count = VByte.read(in);
+			return true;
+		}
+
+		/**
+		 * Appends the postings of the current group to the given arrays.
+		 * 
+		 * @return the new number of postings in the arrays
+		 */
+		int readGroup(int[] ids, int[] frequencies, int offset) throws IOException {
+			int docid = 0;
+			for (int i = 0; i < count; i++) {
+				docid += VByte.read(in);
+				ids[offset] = docid;
+				frequencies[offset] = VByte.read(in);
+				offset++;
+			}
+			return offset;
+		}
+
+		void close() throws IOException {
+			in.close();
+		}
+
+		public int compareTo(RunReader other) {
+			return rank != other.rank ? (rank < other.rank ? -1 : 1) : position - other.position;
+		}
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.structures.indexing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.terrier.compression.bit.BitIn;
+import org.terrier.structures.BasicLexiconEntry;
+import org.terrier.structures.BitIndexPointer;
+import org.terrier.structures.DocumentStatistics;
+import org.terrier.structures.FSOMapFileLexiconOutputStream;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconOutputStream;
+import org.terrier.structures.bit.DirectInvertedOutputStream;
+import org.terrier.structures.postings.ArrayIterablePosting;
+
+/**
+ * Writes the inverted index and the lexicon of an index one posting list at a
+ * time, for the tools which derive a new index from existing ones (merging,
+ * stemming, pruning). The terms must be written in lexicographical order; the
+ * lexicon is optimised when the writer is closed.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class InvertedIndexWriter implements Closeable {
+
+	protected final IndexOnDisk index;
+
+	protected final DirectInvertedOutputStream postingOutput;
+
+	protected final LexiconOutputStream<String> lexiconOutput;
+
+	private int numberOfTerms = 0;
+
+	private long numberOfPointers = 0;
+
+	private long numberOfTokens = 0;
+
+	/**
+	 * constructor
+	 * 
+	 * @param index
+	 *            the index to write the inverted index and lexicon of
+	 * @throws IOException
+	 *             if the structures cannot be created
+	 */
+	public InvertedIndexWriter(IndexOnDisk index) throws IOException {
+		this.index = index;
+		this.postingOutput = new DirectInvertedOutputStream(
+				index.getPath() + "/" + index.getPrefix() + ".inverted" + BitIn.USUAL_EXTENSION);
+		this.lexiconOutput = new FSOMapFileLexiconOutputStream(index, "lexicon", BasicLexiconEntry.Factory.class);
+	}
+
+	/**
+	 * Writes the posting list of a term.
+	 * 
+	 * @param term
+	 *            the term, greater than the terms written so far
+	 * @param termId
+	 *            the termId of the term
+	 * @param postings
+	 *            the postings of the term; empty posting lists are skipped
+	 * @throws IOException
+	 *             if the posting list cannot be written
+	 */
+	public void write(String term, int termId, ArrayIterablePosting postings) throws IOException {
+		if (postings.size() == 0) {
+			return;
+		}
+		long frequency = postings.getTotalFrequency();
+		postings.rewind();
+		BitIndexPointer pointer = postingOutput.writePostings(postings);
+
+		BasicLexiconEntry entry = new BasicLexiconEntry(termId, postings.size(), (int) frequency);
+		entry.setPointer(pointer);
+		lexiconOutput.writeNextEntry(term, entry);
+
+		numberOfTerms++;
+		numberOfPointers += postings.size();
+		numberOfTokens += frequency;
+	}
+
+	/**
+	 * @return the number of terms written
+	 */
+	public int getNumberOfTerms() {
+		return numberOfTerms;
+	}
+
+	/**
+	 * @return the number of postings written
+	 */
+	public long getNumberOfPointers() {
+		return numberOfPointers;
+	}
+
+	/**
+	 * @return the sum of the frequencies of the postings written
+	 */
+	public long getNumberOfTokens() {
+		return numberOfTokens;
+	}
+
+	/**
+	 * Closes the structures, optimises the lexicon, registers the inverted
+	 * index and records the number of terms and pointers in the index
+	 * properties.
+	 * 
+	 * @throws IOException
+	 *             if the structures cannot be written
+	 */
+	public void close() throws IOException {
+		postingOutput.close();
+		lexiconOutput.close();
+		LexiconBuilder.optimise(index, "lexicon");
+		index.addIndexStructure("inverted", "org.terrier.structures.bit.BitPostingIndex",
+				"org.terrier.structures.IndexOnDisk,java.lang.String,java.lang.Class",
+				"index,structureName,org.terrier.structures.postings.bit.BasicIterablePosting");
+		index.addIndexStructureInputStream("inverted", "org.terrier.structures.bit.BitPostingIndexInputStream",
+				"org.terrier.structures.IndexOnDisk,java.lang.String,java.util.Iterator,java.lang.Class",
+				"index,structureName,lexicon-entry-inputstream,org.terrier.structures.postings.bit.BasicIterablePosting");
+		index.setIndexProperty("index.inverted.fields.count", "0");
+		index.setIndexProperty("num.Terms", Integer.toString(numberOfTerms));
+		index.setIndexProperty("num.Pointers", Long.toString(numberOfPointers));
+		index.flush();
+	}
+
+	/**
+	 * Creates a new index sharing the documents of the given one: the document
+	 * index, the meta index and the properties are copied, while the lexicon,
+	 * the inverted index and the direct index are left to be written: they are
+	 * dropped from the properties, so that the new index can be opened before
+	 * they exist, and the lexicon and the inverted index are registered again
+	 * by the {@link InvertedIndexWriter} writing them. The
+	 * structures computed from the postings of the given index, i.e. its
+	 * {@link org.terrier.structures.BlockMaxIndex},
+	 * {@link org.terrier.structures.ImpactIndex} and
+	 * {@link DocumentStatistics}, are not copied, as they do not hold for the
+	 * new postings; they can be built again once the new index is written.
+	 * 
+	 * @param source
+	 *            the index to derive from
+	 * @param path
+	 *            the path of the new index
+	 * @param prefix
+	 *            the prefix of the new index
+	 * @return the new index
+	 * @throws IOException
+	 *             if the index cannot be created
+	 */
+	public static IndexOnDisk createDerivedIndex(IndexOnDisk source, String path, String prefix)
+			throws IOException {
+		File destination = new File(path);
+		if (!destination.isDirectory() && !destination.mkdirs()) {
+			throw new IOException("Cannot create the directory " + path);
+		}
+
+		File[] files = new File(source.getPath()).listFiles();
+		if (files == null) {
+			throw new IOException("Cannot list the index directory " + source.getPath());
+		}
+		String sourcePrefix = source.getPrefix() + ".";
+		for (File file : files) {
+			String name = file.getName();
+			if (!name.startsWith(sourcePrefix)) {
+				continue;
+			}
+			String structure = name.substring(sourcePrefix.length());
+			if (structure.startsWith("lexicon") || structure.startsWith("inverted")
+					|| structure.startsWith("direct") || structure.equals("properties")
+					|| structure.startsWith("conflation.") || structure.equals("stems")
+					|| structure.startsWith("blockmax.") || structure.startsWith("impact.")
+					|| structure.equals(DocumentStatistics.STRUCTURE_NAME)) {
+				continue;
+			}
+			java.nio.file.Files.copy(file.toPath(), new File(destination, prefix + "." + structure).toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		Properties properties = new Properties();
+		InputStream in = new BufferedInputStream(
+				new FileInputStream(new File(source.getPath(), source.getPrefix() + ".properties")));
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		for (String key : properties.stringPropertyNames()) {
+			if (key.startsWith("index.direct.") || key.startsWith("index.direct-inputstream.")
+					|| key.startsWith("index.lexicon") || key.startsWith("index.inverted")
+					|| key.startsWith("index." + DocumentStatistics.STRUCTURE_NAME + ".")) {
+				properties.remove(key);
+			}
+		}
+		OutputStream out = new BufferedOutputStream(
+				new FileOutputStream(new File(destination, prefix + ".properties")));
+		try {
+			properties.store(out, "derived from " + source.getPath() + "/" + source.getPrefix());
+		} finally {
+			out.close();
+		}
+		IndexOnDisk index = IndexOnDisk.createIndex(path, prefix);
+		if (index == null) {
+			throw new IOException("Cannot open the derived index " + path + "/" + prefix);
+		}
+		return index;
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.structures.indexing.classical;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.indexing.ExternalMemoryInverter;
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * BasicIndexer whose inverted index is built by an
+ * {@link ExternalMemoryInverter}, so that the heap needed to invert the direct
+ * index does not grow with the collection. As a {@link TermFrequencyIndexer},
+ * it takes the aggregated terms of a
+ * {@link org.terrier.terms.TermFrequencyAggregator} once per term.
+ * <p>
+ * <b>Properties:</b>
+ * <ul>
+ * <li><code>externalmemory.budget</code> - the memory of the posting buffers
+ * in MB, default 256.</li>
+ * <li><code>externalmemory.merge.fanin</code> - the maximum number of runs
+ * merged at once, default 64.</li>
+ * </ul>
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class ExternalMemoryIndexer extends TermFrequencyIndexer {
+
+	protected static final Logger logger = LoggerFactory.getLogger(ExternalMemoryIndexer.class);
+
+	/**
+	 * constructor; as in BasicIndexer, the pipeline is initialised only by
+	 * the constructor of the class being instantiated
+	 * 
+	 * @param path
+	 *            the path of the index
+	 * @param prefix
+	 *            the prefix of the index
+	 */
+	public ExternalMemoryIndexer(String path, String prefix) {
+		super(path, prefix);
+		if (this.getClass() == ExternalMemoryIndexer.class) {
+			init();
+		}
+	}
+
+	@Override
+	public void createInvertedIndex() {
+		if (currentIndex == null) {
+			currentIndex = IndexOnDisk.createIndex(path, prefix);
+			if (currentIndex == null) {
+				logger.error("No index at (" + path + "," + prefix + ") to build an inverted index for ");
+				return;
+			}
+		}
+		long budget = Long.parseLong(ApplicationSetup.getProperty("externalmemory.budget", "256")) << 20;
+		int fanIn = Integer.parseInt(ApplicationSetup.getProperty("externalmemory.merge.fanin", "64"));
+		try {
+			new ExternalMemoryInverter(currentIndex, budget, fanIn).invert();
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot invert the index at (" + path + "," + prefix + ")", e);
+		}
+	}
+}
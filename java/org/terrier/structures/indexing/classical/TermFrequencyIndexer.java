@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.structures.indexing.classical;
+
+import org.terrier.terms.TermFrequencyPipeline;
+import org.terrier.terms.TermPipeline;
+
+/**
+ * BasicIndexer whose term pipeline ends with a {@link TermFrequencyPipeline},
+ * so that the terms aggregated by a
+ * {@link org.terrier.terms.TermFrequencyAggregator} are added to the document
+ * once per term with their frequency, rather than replayed once per
+ * occurrence. Selected with
+ * 
+ * <pre>
+ * trec.indexer.class = TermFrequencyIndexer
+ * </pre>
+ * 
+ * With any other pipeline it indexes exactly as BasicIndexer does.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class TermFrequencyIndexer extends BasicIndexer {
+
+	/**
+	 * The end of the pipeline, adding the terms to the current document.
+	 */
+	protected class TermFrequencyProcessor implements TermFrequencyPipeline {
+
+		public void processTerm(String t) {
+			if (t != null) {
+				termsInDocument.insert(t);
+				numOfTokensInDocument++;
+			}
+		}
+
+		public void processTerm(String t, int tf) {
+			if (t != null && tf > 0) {
+				termsInDocument.insert(tf, t);
+				numOfTokensInDocument += tf;
+			}
+		}
+
+		public boolean reset() {
+			return true;
+		}
+	}
+
+	/**
+	 * constructor; as in BasicIndexer, the pipeline is initialised only by
+	 * the constructor of the class being instantiated
+	 * 
+	 * @param path
+	 *            the path of the index
+	 * @param prefix
+	 *            the prefix of the index
+	 */
+	public TermFrequencyIndexer(String path, String prefix) {
+		super(path, prefix);
+		if (this.getClass() == TermFrequencyIndexer.class) {
+			init();
+		}
+	}
+
+	@Override
+	protected TermPipeline getEndOfPipeline() {
+		return new TermFrequencyProcessor();
+	}
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.structures.merging;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.compression.bit.BitIn;
+import org.terrier.structures.BitIndexPointer;
+import org.terrier.structures.DocumentIndex;
+import org.terrier.structures.DocumentIndexEntry;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.Lexicon;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.MetaIndex;
+import org.terrier.structures.PostingIndex;
+import org.terrier.structures.bit.DirectInvertedOutputStream;
+import org.terrier.structures.indexing.CompressingMetaIndexBuilder;
+import org.terrier.structures.indexing.DocumentIndexBuilder;
+import org.terrier.structures.indexing.InvertedIndexWriter;
+import org.terrier.structures.postings.ArrayIterablePosting;
+import org.terrier.structures.postings.IterablePosting;
+
+/**
+ * Merges the indexes of contiguous shards of a collection into a single
+ * index. The docids of each shard are shifted by the number of documents of
+ * the shards before it, and the lexicons are merged with a k-way merge over a
+ * heap. The termIds are assigned in the order in which the terms first appear
+ * in the shards, shard by shard and, within a shard, by local termId, which is
+ * the order in which a sequential build over the whole collection would have
+ * assigned them.
+ * <p>
+ * The merged index has the lexicon, the inverted index, the document index
+ * and the meta index and, when all the shards have one, the direct index: the
+ * direct posting lists of each document are rewritten with the merged termIds,
+ * in increasing termId order, and the document index points to them, as in a
+ * sequential build.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class ShardMerger {
+
+	protected static final Logger logger = LoggerFactory.getLogger(ShardMerger.class);
+
+	/** The shard indexes, in collection order */
+	protected final IndexOnDisk[] shards;
+
+	/** The docid of the first document of each shard in the merged index */
+	protected final int[] docidOffsets;
+
+	/** The termIds of the merged index, assigned by {@link #assignTermIds()} */
+	protected Map<String, Integer> termIds;
+
+	/**
+	 * The lexicon of a shard being merged, positioned on its current term.
+	 */
+	private static final class ShardCursor implements Comparable<ShardCursor> {
+
+		final int shard;
+
+		final Iterator<Map.Entry<String, LexiconEntry>> iterator;
+
+		Map.Entry<String, LexiconEntry> current;
+
+		ShardCursor(int shard, Iterator<Map.Entry<String, LexiconEntry>> iterator) {
+			this.shard = shard;
+			this.iterator = iterator;
+		}
+
+		boolean advance() {
+			current = iterator.hasNext() ? iterator.next() : null;
+			return current != null;
+		}
+
+		public int compareTo(ShardCursor other) {
+			int c = current.getKey().compareTo(other.current.getKey());
+			return c != 0 ? c : shard - other.shard;
+		}
+	}
+
+	/**
+	 * constructor
+	 * 
+	 * @param shards
+	 *            the shard indexes, in collection order
+	 */
+	public ShardMerger(IndexOnDisk[] shards) {
+		this.shards = shards;
+		this.docidOffsets = new int[shards.length];
+		for (int i = 1; i < shards.length; i++) {
+			docidOffsets[i] = docidOffsets[i - 1]
+					+ shards[i - 1].getCollectionStatistics().getNumberOfDocuments();
+		}
+	}
+
+	/**
+	 * Assigns the termIds of the merged index, shard by shard, in the order of
+	 * the local termIds.
+	 */
+	protected Map<String, Integer> assignTermIds() {
+		Map<String, Integer> termIds = new HashMap<String, Integer>();
+		for (IndexOnDisk shard : shards) {
+			Lexicon<String> lexicon = shard.getLexicon();
+			int size = lexicon.numberOfEntries();
+			long[] order = new long[size];
+			String[] terms = new String[size];
+			int i = 0;
+			for (Map.Entry<String, LexiconEntry> entry : lexicon) {
+				terms[i] = entry.getKey();
+				/* the local termId in the high bits, the position in the low bits */
+				order[i] = ((long) entry.getValue().getTermId() << 32) | i;
+				i++;
+			}
+			Arrays.sort(order, 0, i);
+			for (int j = 0; j < i; j++) {
+				String term = terms[(int) order[j]];
+				if (!termIds.containsKey(term)) {
+					termIds.put(term, termIds.size());
+				}
+			}
+		}
+		return termIds;
+	}
+
+	/**
+	 * Writes the merged index.
+	 * 
+	 * @param path
+	 *            the path of the merged index
+	 * @param prefix
+	 *            the prefix of the merged index
+	 * @throws IOException
+	 *             if an index cannot be read or written
+	 */
+	public void merge(String path, String prefix) throws IOException {
+		IndexOnDisk destination = InvertedIndexWriter.createDerivedIndex(shards[0], path, prefix);
+		mergeInvertedIndexes(destination);
+		mergeDocuments(destination);
+		destination.flush();
+		destination.close();
+	}
+
+	/**
+	 * Merges the lexicons and the posting lists of the shards.
+	 */
+	protected void mergeInvertedIndexes(IndexOnDisk destination) throws IOException {
+		termIds = assignTermIds();
+
+		PostingIndex<?>[] invertedIndexes = new PostingIndex<?>[shards.length];
+		PriorityQueue<ShardCursor> heap = new PriorityQueue<ShardCursor>(shards.length);
+		for (int i = 0; i < shards.length; i++) {
+			invertedIndexes[i] = shards[i].getInvertedIndex();
+			ShardCursor cursor = new ShardCursor(i, shards[i].getLexicon().iterator());
+			if (cursor.advance()) {
+				heap.add(cursor);
+			}
+		}
+
+		InvertedIndexWriter writer = new InvertedIndexWriter(destination);
+		List<ShardCursor> members = new ArrayList<ShardCursor>(shards.length);
+		int[] ids = new int[1024];
+		int[] tfs = new int[1024];
+		while (!heap.isEmpty()) {
+			members.clear();
+			String term = heap.peek().current.getKey();
+			int documentFrequency = 0;
+			while (!heap.isEmpty() && heap.peek().current.getKey().equals(term)) {
+				ShardCursor cursor = heap.poll();
+				members.add(cursor);
+				documentFrequency += cursor.current.getValue().getDocumentFrequency();
+			}
+			if (ids.length < documentFrequency) {
+				ids = new int[Integer.highestOneBit(documentFrequency) << 1];
+				tfs = new int[ids.length];
+			}
+
+			/* the members come out of the heap in shard order */
+			int size = 0;
+			for (ShardCursor cursor : members) {
+				int offset = docidOffsets[cursor.shard];
+				IterablePosting postings = invertedIndexes[cursor.shard].getPostings(cursor.current.getValue());
+				while (postings.next() != IterablePosting.EOL) {
+					ids[size] = postings.getId() + offset;
+					tfs[size] = postings.getFrequency();
+					size++;
+				}
+				postings.close();
+				if (cursor.advance()) {
+					heap.add(cursor);
+				}
+			}
+			writer.write(term, termIds.get(term), new ArrayIterablePosting(ids, tfs, null, size));
+		}
+		writer.close();
+		logger.info("Merged the lexicons of {} shards into {} terms, {} postings", shards.length,
+				writer.getNumberOfTerms(), writer.getNumberOfPointers());
+		destination.setIndexProperty("num.Tokens", Long.toString(writer.getNumberOfTokens()));
+	}
+
+	/**
+	 * @return the merged termId of each local termId of a shard
+	 */
+	protected int[] mapTermIds(IndexOnDisk shard) {
+		Lexicon<String> lexicon = shard.getLexicon();
+		int[] mapping = new int[lexicon.numberOfEntries()];
+		for (Map.Entry<String, LexiconEntry> entry : lexicon) {
+			int termId = entry.getValue().getTermId();
+			if (termId >= mapping.length) {
+				mapping = Arrays.copyOf(mapping, Math.max(termId + 1, mapping.length << 1));
+			}
+			mapping[termId] = termIds.get(entry.getKey());
+		}
+		return mapping;
+	}
+
+	/**
+	 * Appends the document and meta indexes of the shards and, when all the
+	 * shards have one, their direct indexes.
+	 */
+	protected void mergeDocuments(IndexOnDisk destination) throws IOException {
+		boolean direct = true;
+		for (IndexOnDisk shard : shards) {
+			direct &= shard.hasIndexStructure("direct");
+		}
+		if (!direct) {
+			logger.warn("Not all the shards have a direct index, the merged index will have none");
+		}
+
+		String[] keys = shards[0].getMetaIndex().getKeys();
+		String[] lengths = shards[0].getIndexProperty("index.meta.value-lengths", "").split("\\s*,\\s*");
+		String reverse = shards[0].getIndexProperty("index.meta.reverse-key-names", "").trim();
+		int[] valueLengths = new int[lengths.length];
+		for (int i = 0; i < lengths.length; i++) {
+			valueLengths[i] = Integer.parseInt(lengths[i]);
+		}
+
+		DocumentIndexBuilder documentIndexBuilder = new DocumentIndexBuilder(destination, "document");
+		CompressingMetaIndexBuilder metaIndexBuilder = new CompressingMetaIndexBuilder(destination, keys,
+				valueLengths, reverse.length() == 0 ? new String[0] : reverse.split("\\s*,\\s*"));
+		DirectInvertedOutputStream directOutput = direct ? new DirectInvertedOutputStream(
+				destination.getPath() + "/" + destination.getPrefix() + ".direct" + BitIn.USUAL_EXTENSION) : null;
+		int[] ids = new int[1024];
+		int[] tfs = new int[1024];
+		long[] postings = new long[1024];
+		int documents = 0;
+		for (IndexOnDisk shard : shards) {
+			DocumentIndex documentIndex = shard.getDocumentIndex();
+			MetaIndex metaIndex = shard.getMetaIndex();
+			PostingIndex<?> directIndex = direct ? shard.getDirectIndex() : null;
+			int[] mapping = direct ? mapTermIds(shard) : null;
+			int n = shard.getCollectionStatistics().getNumberOfDocuments();
+			for (int docid = 0; docid < n; docid++) {
+				DocumentIndexEntry entry = documentIndex.getDocumentEntry(docid);
+				if (direct) {
+					/* the merged termId in the high bits, the frequency in the low bits */
+					int size = 0;
+					if (entry.getNumberOfEntries() > 0) {
+						IterablePosting posting = directIndex.getPostings(entry);
+						while (posting.next() != IterablePosting.EOL) {
+							if (size == postings.length) {
+								postings = Arrays.copyOf(postings, size << 1);
+							}
+							postings[size++] = ((long) mapping[posting.getId()] << 32) | posting.getFrequency();
+						}
+						posting.close();
+					}
+					Arrays.sort(postings, 0, size);
+					if (ids.length < size) {
+						ids = new int[postings.length];
+						tfs = new int[postings.length];
+					}
+					for (int i = 0; i < size; i++) {
+						ids[i] = (int) (postings[i] >>> 32);
+						tfs[i] = (int) postings[i];
+					}
+					BitIndexPointer pointer = directOutput.writePostings(new ArrayIterablePosting(ids, tfs, null, size));
+					entry.setOffset(pointer.getOffset(), pointer.getOffsetBits());
+					entry.setNumberOfEntries(size);
+				} else {
+					/* there is no direct index to point to */
+					entry.setOffset(0L, (byte) 0);
+				}
+				documentIndexBuilder.addEntryToBuffer(entry);
+				metaIndexBuilder.writeDocumentEntry(metaIndex.getAllItems(docid));
+			}
+			documents += n;
+		}
+		documentIndexBuilder.finishedCollections();
+		metaIndexBuilder.close();
+		if (direct) {
+			directOutput.close();
+			destination.addIndexStructure("direct", "org.terrier.structures.bit.BitPostingIndex",
+					"org.terrier.structures.IndexOnDisk,java.lang.String,java.lang.Class",
+					"index,structureName,org.terrier.structures.postings.bit.BasicIterablePosting");
+			destination.addIndexStructureInputStream("direct",
+					"org.terrier.structures.bit.BitPostingIndexInputStream",
+					"org.terrier.structures.IndexOnDisk,java.lang.String,java.util.Iterator,java.lang.Class",
+					"index,structureName,document-inputstream,org.terrier.structures.postings.bit.BasicIterablePosting");
+			destination.setIndexProperty("index.direct.fields.count", "0");
+		}
+		destination.setIndexProperty("num.Documents", Integer.toString(documents));
+	}
+
+	/**
+	 * Merges shard indexes.
+	 * 
+	 * @param args
+	 *            the path and prefix of the merged index, followed by the path
+	 *            and prefix of each shard, in collection order
+	 * @throws IOException
+	 *             if an index cannot be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 4 || args.length % 2 != 0) {
+			System.err.println("Usage: ShardMerger path prefix shardPath shardPrefix [shardPath shardPrefix...]");
+			return;
+		}
+		long start = System.currentTimeMillis();
+		IndexOnDisk[] shards = new IndexOnDisk[args.length / 2 - 1];
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = IndexOnDisk.createIndex(args[2 * i + 2], args[2 * i + 3]);
+		}
+		new ShardMerger(shards).merge(args[0], args[1]);
+		for (IndexOnDisk shard : shards) {
+			shard.close();
+		}
+		logger.info("Merged {} shards in {} ms", shards.length, System.currentTimeMillis() - start);
+	}
+}
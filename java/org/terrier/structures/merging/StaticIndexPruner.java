@@ -0,0 +1,509 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.structures.merging;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.applications.GridRetrieval;
+import org.terrier.matching.TopKHeap;
+import org.terrier.structures.CollectionStatistics;
+import org.terrier.structures.DocumentIndex;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.Lexicon;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.MetaIndex;
+import org.terrier.structures.PostingIndex;
+import org.terrier.structures.indexing.InvertedIndexWriter;
+import org.terrier.structures.postings.ArrayIterablePosting;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.terms.TermPipeline;
+import org.terrier.terms.TermPipelineChain;
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * Statically prunes an index, typically an n-gram one, dropping the postings
+ * with the lowest impact. The impact of a posting is its frequency normalised
+ * by the length of the document, which does not depend on the weighting
+ * model. The budget is either per term, keeping the given fraction of each
+ * posting list, or global, keeping the given fraction of all the postings
+ * through a single impact threshold. Every term keeps at least its best
+ * posting, so that the lexicon is unchanged; the document lengths and the
+ * number of tokens are those of the original index.
+ * 
+ * <pre>
+ * StaticIndexPruner srcPath srcPrefix destPath destPrefix term|global ratio [queries [qrels]]
+ * </pre>
+ * 
+ * The sizes of the two indexes are reported. When a file of queries is given,
+ * one query per line as an identifier followed by its text, the queries are
+ * run through the <code>termpipelines</code> against both indexes with BM25,
+ * and the mean traversal time and the mean overlap of the top 1000 documents
+ * are reported. When TREC qrels are also given, the mean average precision
+ * and the mean precision at 10 of both indexes over the queries having
+ * relevant documents, and their deltas, are reported as well.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class StaticIndexPruner {
+
+	protected static final Logger logger = LoggerFactory.getLogger(StaticIndexPruner.class);
+
+	/** The number of bins of the impact histogram of the global budget */
+	protected static final int BINS = 1 << 16;
+
+	/** The number of documents compared by the overlap */
+	protected static final int DEPTH = 1000;
+
+	/** The cutoff of the precision reported with the qrels */
+	protected static final int PRECISION_DEPTH = 10;
+
+	protected final IndexOnDisk source;
+
+	/** Whether the budget is global rather than per term */
+	protected final boolean global;
+
+	/** The fraction of the postings to keep */
+	protected final double ratio;
+
+	/**
+	 * constructor
+	 * 
+	 * @param source
+	 *            the index to prune
+	 * @param global
+	 *            whether the budget is global rather than per term
+	 * @param ratio
+	 *            the fraction of the postings to keep
+	 */
+	public StaticIndexPruner(IndexOnDisk source, boolean global, double ratio) {
+		if (ratio <= 0 || ratio > 1) {
+			throw new IllegalArgumentException("The fraction of postings to keep must be in (0,1]: " + ratio);
+		}
+		this.source = source;
+		this.global = global;
+		this.ratio = ratio;
+	}
+
+	private static double impact(int tf, int length) {
+		return (double) tf / Math.max(length, 1);
+	}
+
+	/**
+	 * Computes the impact threshold keeping the given fraction of all the
+	 * postings, from a histogram of their impacts.
+	 */
+	protected double globalThreshold() throws IOException {
+		long[] histogram = new long[BINS];
+		long total = 0;
+		PostingIndex<?> invertedIndex = source.getInvertedIndex();
+		for (Map.Entry<String, LexiconEntry> entry : source.getLexicon()) {
+			IterablePosting postings = invertedIndex.getPostings(entry.getValue());
+			while (postings.next() != IterablePosting.EOL) {
+				double impact = impact(postings.getFrequency(), postings.getDocumentLength());
+				histogram[Math.min((int) (impact * BINS), BINS - 1)]++;
+				total++;
+			}
+			postings.close();
+		}
+		long budget = (long) Math.ceil(total * ratio);
+		long kept = 0;
+		int bin = BINS - 1;
+		while (bin > 0 && (kept += histogram[bin]) < budget) {
+			bin--;
+		}
+		return (double) bin / BINS;
+	}
+
+	/**
+	 * Writes the pruned index.
+	 * 
+	 * @param path
+	 *            the path of the pruned index
+	 * @param prefix
+	 *            the prefix of the pruned index
+	 * @throws IOException
+	 *             if an index cannot be read or written
+	 */
+	public void prune(String path, String prefix) throws IOException {
+		double threshold = global ? globalThreshold() : 0;
+		if (global) {
+			logger.info("Keeping the postings with impact at least {}", threshold);
+		}
+
+		PostingIndex<?> invertedIndex = source.getInvertedIndex();
+		IndexOnDisk destination = InvertedIndexWriter.createDerivedIndex(source, path, prefix);
+		InvertedIndexWriter writer = new InvertedIndexWriter(destination);
+		int[] ids = new int[1024];
+		int[] tfs = new int[1024];
+		double[] impacts = new double[1024];
+		long pointers = 0;
+		for (Map.Entry<String, LexiconEntry> entry : source.getLexicon()) {
+			ArrayIterablePosting postings = ArrayIterablePosting.decode(invertedIndex.getPostings(entry.getValue()));
+			int n = postings.size();
+			pointers += n;
+			if (impacts.length < n) {
+				impacts = new double[Integer.highestOneBit(n) << 1];
+				ids = new int[impacts.length];
+				tfs = new int[impacts.length];
+			}
+			double best = -1;
+			for (int i = 0; postings.next() != IterablePosting.EOL; i++) {
+				impacts[i] = impact(postings.getFrequency(), postings.getDocumentLength());
+				best = Math.max(best, impacts[i]);
+			}
+
+			/* the postings with impact above the threshold, and those equal to it up to the budget */
+			int equalBudget = Integer.MAX_VALUE;
+			if (!global) {
+				int keep = Math.max(1, (int) Math.ceil(n * ratio));
+				if (keep >= n) {
+					threshold = 0;
+				} else {
+					double[] sorted = Arrays.copyOf(impacts, n);
+					Arrays.sort(sorted);
+					threshold = sorted[n - keep];
+					int above = n - keep;
+					while (above < n && sorted[above] == threshold) {
+						above++;
+					}
+					equalBudget = keep - (n - above);
+				}
+			}
+			double termThreshold = Math.min(threshold, best);
+			int kept = 0;
+			postings.rewind();
+			for (int i = 0; postings.next() != IterablePosting.EOL; i++) {
+				if (impacts[i] > termThreshold || (impacts[i] == termThreshold && equalBudget-- > 0)) {
+					ids[kept] = postings.getId();
+					tfs[kept] = postings.getFrequency();
+					kept++;
+				}
+			}
+			writer.write(entry.getKey(), entry.getValue().getTermId(), new ArrayIterablePosting(ids, tfs, null, kept));
+		}
+		writer.close();
+		destination.close();
+
+		long sourceSize = new File(source.getPath(), source.getPrefix() + ".inverted.bf").length();
+		long prunedSize = new File(path, prefix + ".inverted.bf").length();
+		logger.info(String.format("Kept %d of %d postings (%.1f%%), inverted file %d -> %d bytes (%.1f%%)",
+				writer.getNumberOfPointers(), pointers, 100d * writer.getNumberOfPointers() / Math.max(pointers, 1),
+				sourceSize, prunedSize, 100d * prunedSize / Math.max(sourceSize, 1)));
+	}
+
+	/**
+	 * Reads a file of queries, one per line as an identifier followed by the
+	 * text, and turns their text into the terms of the index through the
+	 * <code>termpipelines</code>.
+	 * 
+	 * @param filename
+	 *            the file of queries
+	 * @return the terms of each query
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static List<String[]> readQueries(String filename) throws IOException {
+		return readQueries(filename, null);
+	}
+
+	/**
+	 * Reads a file of queries, as {@link #readQueries(String)}, also giving
+	 * the identifiers of the queries.
+	 * 
+	 * @param filename
+	 *            the file of queries
+	 * @param ids
+	 *            the list receiving the identifier of each query, or null
+	 * @return the terms of each query
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static List<String[]> readQueries(String filename, List<String> ids) throws IOException {
+		final List<String> terms = new ArrayList<String>();
+		TermPipeline pipeline = TermPipelineChain.create(ApplicationSetup.getProperty("termpipelines", ""),
+				new TermPipeline() {
+					public void processTerm(String t) {
+						if (t != null) {
+							terms.add(t);
+						}
+					}
+
+					public boolean reset() {
+						return true;
+					}
+				});
+		List<String[]> queries = new ArrayList<String[]>();
+		BufferedReader reader = new BufferedReader(new FileReader(filename));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.trim().split("\\s+", 2);
+				if (fields.length < 2) {
+					continue;
+				}
+				for (String token : fields[1].toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+					if (token.length() > 0) {
+						pipeline.processTerm(token);
+					}
+				}
+				pipeline.reset();
+				if (ids != null) {
+					ids.add(fields[0]);
+				}
+				Set<String> unique = new HashSet<String>(terms);
+				queries.add(unique.toArray(new String[unique.size()]));
+				terms.clear();
+			}
+		} finally {
+			reader.close();
+		}
+		return queries;
+	}
+
+	/**
+	 * Ranks the documents of an index for a query with BM25, traversing the
+	 * posting lists one term at a time.
+	 * 
+	 * @return the docids of the top documents, by decreasing score
+	 */
+	private static int[] rank(IndexOnDisk index, String[] query, float[] scores, int[] lengths, TopKHeap top)
+			throws IOException {
+		final double k1 = 1.2d;
+		final double b = 0.75d;
+		CollectionStatistics cs = index.getCollectionStatistics();
+		Lexicon<String> lexicon = index.getLexicon();
+		PostingIndex<?> invertedIndex = index.getInvertedIndex();
+		double averageLength = cs.getAverageDocumentLength();
+		int numberOfDocuments = cs.getNumberOfDocuments();
+
+		int[] touched = new int[64];
+		int numberTouched = 0;
+		for (String term : query) {
+			LexiconEntry entry = lexicon.getLexiconEntry(term);
+			if (entry == null) {
+				continue;
+			}
+			double df = entry.getDocumentFrequency();
+			double idf = Math.log((numberOfDocuments - df + 0.5d) / (df + 0.5d)) / Math.log(2);
+			IterablePosting postings = invertedIndex.getPostings(entry);
+			int docid;
+			while ((docid = postings.next()) != IterablePosting.EOL) {
+				double tf = postings.getFrequency();
+				if (scores[docid] == 0) {
+					if (numberTouched == touched.length) {
+						touched = Arrays.copyOf(touched, numberTouched << 1);
+					}
+					touched[numberTouched++] = docid;
+				}
+				scores[docid] += (float) (idf * tf * (k1 + 1)
+						/ (tf + k1 * (1 - b + b * lengths[docid] / averageLength)));
+				if (scores[docid] == 0) {
+					scores[docid] = Float.MIN_VALUE;
+				}
+			}
+			postings.close();
+		}
+
+		top.clear();
+		for (int i = 0; i < numberTouched; i++) {
+			int d = touched[i];
+			if (scores[d] >= top.threshold()) {
+				top.offer(d, scores[d]);
+			}
+		}
+		top.sort();
+		int[] result = new int[top.size()];
+		System.arraycopy(top.getDocids(), 0, result, 0, result.length);
+		for (int i = 0; i < numberTouched; i++) {
+			scores[touched[i]] = 0;
+		}
+		return result;
+	}
+
+	/**
+	 * Computes the average precision and the precision at
+	 * {@link #PRECISION_DEPTH} of a ranking.
+	 * 
+	 * @return the average precision and the precision
+	 */
+	private static double[] evaluate(MetaIndex metaIndex, int[] ranking, Set<String> relevant) throws IOException {
+		double found = 0;
+		double sum = 0;
+		double precision = 0;
+		for (int i = 0; i < ranking.length; i++) {
+			if (relevant.contains(metaIndex.getItem("docno", ranking[i]))) {
+				found++;
+				sum += found / (i + 1);
+			}
+			if (i + 1 == PRECISION_DEPTH) {
+				precision = found / PRECISION_DEPTH;
+			}
+		}
+		if (ranking.length < PRECISION_DEPTH) {
+			precision = found / PRECISION_DEPTH;
+		}
+		return new double[] { sum / relevant.size(), precision };
+	}
+
+	/**
+	 * Runs the queries against the original and the pruned index, and reports
+	 * the mean traversal time and the mean overlap of their top documents.
+	 * 
+	 * @param original
+	 *            the original index
+	 * @param pruned
+	 *            the pruned index
+	 * @param queries
+	 *            the terms of the queries
+	 * @throws IOException
+	 *             if an index cannot be read
+	 */
+	public static void compare(IndexOnDisk original, IndexOnDisk pruned, List<String[]> queries)
+			throws IOException {
+		compare(original, pruned, queries, null, null);
+	}
+
+	/**
+	 * Runs the queries against the original and the pruned index, and reports
+	 * the mean traversal time and the mean overlap of their top documents
+	 * and, when qrels are given, the mean average precision and the mean
+	 * precision at {@link #PRECISION_DEPTH} of both indexes, over the queries
+	 * having relevant documents, with their deltas.
+	 * 
+	 * @param original
+	 *            the original index
+	 * @param pruned
+	 *            the pruned index
+	 * @param queries
+	 *            the terms of the queries
+	 * @param ids
+	 *            the identifiers of the queries, or null
+	 * @param qrels
+	 *            the docnos of the relevant documents of each query, or null
+	 * @throws IOException
+	 *             if an index cannot be read
+	 */
+	public static void compare(IndexOnDisk original, IndexOnDisk pruned, List<String[]> queries, List<String> ids,
+			Map<String, Set<String>> qrels) throws IOException {
+		MetaIndex originalMeta = original.getMetaIndex();
+		MetaIndex prunedMeta = pruned.getMetaIndex();
+		DocumentIndex documentIndex = original.getDocumentIndex();
+		int[] lengths = new int[documentIndex.getNumberOfDocuments()];
+		for (int i = 0; i < lengths.length; i++) {
+			lengths[i] = documentIndex.getDocumentLength(i);
+		}
+		float[] scores = new float[lengths.length];
+		TopKHeap heap = new TopKHeap(DEPTH);
+
+		long originalTime = 0;
+		long prunedTime = 0;
+		double overlap = 0;
+		/* the sums of the average precisions and precisions of both indexes */
+		double[] effectiveness = new double[4];
+		int judged = 0;
+		for (int q = 0; q < queries.size(); q++) {
+			String[] query = queries.get(q);
+			long start = System.nanoTime();
+			int[] a = rank(original, query, scores, lengths, heap);
+			long middle = System.nanoTime();
+			int[] b = rank(pruned, query, scores, lengths, heap);
+			prunedTime += System.nanoTime() - middle;
+			originalTime += middle - start;
+
+			Set<Integer> top = new HashSet<Integer>();
+			for (int docid : a) {
+				top.add(docid);
+			}
+			int common = 0;
+			for (int docid : b) {
+				if (top.contains(docid)) {
+					common++;
+				}
+			}
+			overlap += a.length == 0 ? 1 : (double) common / a.length;
+
+			Set<String> relevant = qrels == null || ids == null ? null : qrels.get(ids.get(q));
+			if (relevant != null && !relevant.isEmpty()) {
+				double[] before = evaluate(originalMeta, a, relevant);
+				double[] after = evaluate(prunedMeta, b, relevant);
+				effectiveness[0] += before[0];
+				effectiveness[1] += before[1];
+				effectiveness[2] += after[0];
+				effectiveness[3] += after[1];
+				judged++;
+			}
+		}
+		int n = Math.max(queries.size(), 1);
+		logger.info(String.format("%d queries: %.2f ms per query on the original index, %.2f ms on the pruned one, "
+				+ "mean overlap of the top %d documents %.3f", queries.size(), originalTime / 1e6 / n,
+				prunedTime / 1e6 / n, DEPTH, overlap / n));
+		if (qrels != null) {
+			int m = Math.max(judged, 1);
+			logger.info(String.format(
+					"%d judged queries: MAP %.4f on the original index, %.4f on the pruned one (%+.4f), "
+							+ "P@%d %.4f and %.4f (%+.4f)",
+					judged, effectiveness[0] / m, effectiveness[2] / m, (effectiveness[2] - effectiveness[0]) / m,
+					PRECISION_DEPTH, effectiveness[1] / m, effectiveness[3] / m,
+					(effectiveness[3] - effectiveness[1]) / m));
+		}
+	}
+
+	/**
+	 * Prunes an index.
+	 * 
+	 * @param args
+	 *            the source path and prefix, the destination path and prefix,
+	 *            the budget (term or global), the fraction of postings to keep
+	 *            and, optionally, a file of queries and their qrels
+	 * @throws IOException
+	 *             if an index cannot be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 6) {
+			System.err.println(
+					"Usage: StaticIndexPruner srcPath srcPrefix destPath destPrefix term|global ratio [queries [qrels]]");
+			return;
+		}
+		long start = System.currentTimeMillis();
+		IndexOnDisk source = IndexOnDisk.createIndex(args[0], args[1]);
+		new StaticIndexPruner(source, "global".equals(args[4]), Double.parseDouble(args[5])).prune(args[2], args[3]);
+		logger.info("Index pruned in {} ms", System.currentTimeMillis() - start);
+
+		if (args.length > 6) {
+			IndexOnDisk pruned = IndexOnDisk.createIndex(args[2], args[3]);
+			List<String> ids = new ArrayList<String>();
+			List<String[]> queries = readQueries(args[6], ids);
+			compare(source, pruned, queries, ids, args.length > 7 ? GridRetrieval.readQrels(args[7]) : null);
+			pruned.close();
+		}
+		source.close();
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.structures.merging;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.Lexicon;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.PostingIndex;
+import org.terrier.structures.indexing.InvertedIndexWriter;
+import org.terrier.structures.postings.ArrayIterablePosting;
+import org.terrier.structures.postings.ConflatedIterablePosting;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.terms.StemmingDictionary;
+
+/**
+ * Derives a stemmed index from an unstemmed one without parsing the corpus
+ * again: every term of the lexicon is mapped through the given stemmer, and
+ * the posting lists of the terms sharing a stem are merged into the posting
+ * list of the stem. The document index and the meta index are copied, since
+ * stemming changes neither the documents nor their lengths; the direct index
+ * is not derived.
+ * 
+ * <pre>
+ * StemmedIndexDeriver srcPath srcPrefix destPath destPrefix KrovetzStemmer [threads]
+ * </pre>
+ * 
+ * The source index must have been built with the same stoplist as the wanted
+ * stemmed index, since the stopwords are removed before stemming.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class StemmedIndexDeriver {
+
+	protected static final Logger logger = LoggerFactory.getLogger(StemmedIndexDeriver.class);
+
+	protected final IndexOnDisk source;
+
+	protected final String stemmerName;
+
+	protected final int threads;
+
+	/**
+	 * constructor
+	 * 
+	 * @param source
+	 *            the unstemmed index
+	 * @param stemmerName
+	 *            the name of the stemmer
+	 * @param threads
+	 *            the number of stemming threads
+	 */
+	public StemmedIndexDeriver(IndexOnDisk source, String stemmerName, int threads) {
+		this.source = source;
+		this.stemmerName = stemmerName;
+		this.threads = threads;
+	}
+
+	/**
+	 * Writes the stemmed index.
+	 * 
+	 * @param path
+	 *            the path of the stemmed index
+	 * @param prefix
+	 *            the prefix of the stemmed index
+	 * @throws IOException
+	 *             if an index cannot be read or written
+	 */
+	public void derive(String path, String prefix) throws IOException {
+		Lexicon<String> lexicon = source.getLexicon();
+		PostingIndex<?> invertedIndex = source.getInvertedIndex();
+
+		List<String> terms = new ArrayList<String>(lexicon.numberOfEntries());
+		List<LexiconEntry> entries = new ArrayList<LexiconEntry>(lexicon.numberOfEntries());
+		for (Map.Entry<String, LexiconEntry> entry : lexicon) {
+			terms.add(entry.getKey());
+			entries.add(entry.getValue());
+		}
+		StemmingDictionary stems = StemmingDictionary.build(terms.toArray(new String[terms.size()]), stemmerName,
+				threads);
+
+		/* the stems must be written in lexicographical order */
+		TreeMap<String, List<LexiconEntry>> classes = new TreeMap<String, List<LexiconEntry>>();
+		for (int i = 0; i < terms.size(); i++) {
+			String stem = stems.get(terms.get(i));
+			List<LexiconEntry> members = classes.get(stem);
+			if (members == null) {
+				members = new ArrayList<LexiconEntry>(2);
+				classes.put(stem, members);
+			}
+			members.add(entries.get(i));
+		}
+
+		IndexOnDisk destination = InvertedIndexWriter.createDerivedIndex(source, path, prefix);
+		InvertedIndexWriter writer = new InvertedIndexWriter(destination);
+		int termId = 0;
+		for (Map.Entry<String, List<LexiconEntry>> entry : classes.entrySet()) {
+			List<LexiconEntry> members = entry.getValue();
+			IterablePosting[] postings = new IterablePosting[members.size()];
+			for (int i = 0; i < postings.length; i++) {
+				postings[i] = invertedIndex.getPostings(members.get(i));
+			}
+			IterablePosting merged = postings.length == 1 ? postings[0] : new ConflatedIterablePosting(postings);
+			writer.write(entry.getKey(), termId++, ArrayIterablePosting.decode(merged));
+		}
+		writer.close();
+
+		if (writer.getNumberOfTokens() != source.getCollectionStatistics().getNumberOfTokens()) {
+			logger.warn("The stemmed index has {} tokens, the unstemmed one {}", writer.getNumberOfTokens(),
+					source.getCollectionStatistics().getNumberOfTokens());
+		}
+		logger.info("Conflated {} terms into {} stems with {}, {} postings", terms.size(),
+				writer.getNumberOfTerms(), stemmerName, writer.getNumberOfPointers());
+		destination.close();
+	}
+
+	/**
+	 * Derives a stemmed index from an unstemmed one.
+	 * 
+	 * @param args
+	 *            the source path and prefix, the destination path and prefix,
+	 *            the stemmer and, optionally, the number of threads
+	 * @throws IOException
+	 *             if an index cannot be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 5) {
+			System.err.println("Usage: StemmedIndexDeriver srcPath srcPrefix destPath destPrefix stemmer [threads]");
+			return;
+		}
+		int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+
+		long start = System.currentTimeMillis();
+		IndexOnDisk source = IndexOnDisk.createIndex(args[0], args[1]);
+		new StemmedIndexDeriver(source, args[4], threads).derive(args[2], args[3]);
+		source.close();
+		logger.info("Stemmed index derived in {} ms", System.currentTimeMillis() - start);
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.structures.postings;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Posting list held in primitive arrays of docids, frequencies and, optionally,
+ * document lengths. It can be rewound and iterated again, and is used wherever
+ * a posting list is decoded once and then read or rewritten several times.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class ArrayIterablePosting implements IterablePosting {
+
+	protected final int[] ids;
+
+	protected final int[] tfs;
+
+	/** The document lengths, or null if they are not known */
+	protected final int[] lengths;
+
+	protected final int size;
+
+	/** The current posting, -1 before the first */
+	protected int i = -1;
+
+	/**
+	 * constructor
+	 * 
+	 * @param ids
+	 *            the docids, in increasing order
+	 * @param tfs
+	 *            the frequencies
+	 * @param lengths
+	 *            the document lengths, or null
+	 * @param size
+	 *            the number of postings
+	 */
+	public ArrayIterablePosting(int[] ids, int[] tfs, int[] lengths, int size) {
+		this.ids = ids;
+		this.tfs = tfs;
+		this.lengths = lengths;
+		this.size = size;
+	}
+
+	/**
+	 * constructor, sharing the arrays of the given posting list
+	 * 
+	 * @param postings
+	 *            the posting list
+	 */
+	protected ArrayIterablePosting(ArrayIterablePosting postings) {
+		this(postings.ids, postings.tfs, postings.lengths, postings.size);
+	}
+
+	/**
+	 * Decodes the remaining postings of the given posting list, together with
+	 * their document lengths, and closes it.
+	 * 
+	 * @param postings
+	 *            the posting list to decode
+	 * @return the decoded posting list
+	 * @throws IOException
+	 *             if the posting list cannot be read
+	 */
+	public static ArrayIterablePosting decode(IterablePosting postings) throws IOException {
+		return decode(postings, true);
+	}
+
+	/**
+	 * Decodes the remaining postings of the given posting list and closes it.
+	 * 
+	 * @param postings
+	 *            the posting list to decode
+	 * @param withLengths
+	 *            whether the document lengths are kept
+	 * @return the decoded posting list
+	 * @throws IOException
+	 *             if the posting list cannot be read
+	 */
+	public static ArrayIterablePosting decode(IterablePosting postings, boolean withLengths) throws IOException {
+		int[] ids = new int[16];
+		int[] tfs = new int[16];
+		int[] lengths = withLengths ? new int[16] : null;
+		int n = 0;
+		int id;
+		while ((id = postings.next()) != EOL) {
+			if (n == ids.length) {
+				ids = Arrays.copyOf(ids, n << 1);
+				tfs = Arrays.copyOf(tfs, n << 1);
+				if (withLengths) {
+					lengths = Arrays.copyOf(lengths, n << 1);
+				}
+			}
+			ids[n] = id;
+			tfs[n] = postings.getFrequency();
+			if (withLengths) {
+				lengths[n] = postings.getDocumentLength();
+			}
+			n++;
+		}
+		postings.close();
+		return new ArrayIterablePosting(ids, tfs, lengths, n);
+	}
+
+	/**
+	 * Returns a new posting list, positioned before its first posting, over the
+	 * same arrays. Views can be iterated independently of each other, as long
+	 * as none of them is modified through {@link #setId(int)}.
+	 * 
+	 * @return the view
+	 */
+	public ArrayIterablePosting view() {
+		return new ArrayIterablePosting(ids, tfs, lengths, size);
+	}
+
+	/**
+	 * Returns a copy whose arrays hold exactly the postings, or this posting
+	 * list if they already do.
+	 * 
+	 * @return the trimmed posting list, positioned before its first posting
+	 */
+	public ArrayIterablePosting trim() {
+		if (ids.length == size) {
+			return view();
+		}
+		return new ArrayIterablePosting(Arrays.copyOf(ids, size), Arrays.copyOf(tfs, size),
+				lengths == null ? null : Arrays.copyOf(lengths, size), size);
+	}
+
+	/**
+	 * @return the approximate number of bytes held by the arrays
+	 */
+	public long sizeInBytes() {
+		long bytes = 16L + 4L * ids.length + 16L + 4L * tfs.length;
+		if (lengths != null) {
+			bytes += 16L + 4L * lengths.length;
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return the number of postings
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the sum of the frequencies of the postings
+	 */
+	public long getTotalFrequency() {
+		long total = 0;
+		for (int j = 0; j < size; j++) {
+			total += tfs[j];
+		}
+		return total;
+	}
+
+	/**
+	 * Moves back before the first posting.
+	 */
+	public void rewind() {
+		i = -1;
+	}
+
+	public int next() {
+		if (i < size) {
+			i++;
+		}
+		return i < size ? ids[i] : EOL;
+	}
+
+	public int next(int target) {
+		int id;
+		do {
+			id = next();
+		} while (id != EOL && id < target);
+		return id;
+	}
+
+	public boolean endOfPostings() {
+		return i >= size;
+	}
+
+	public int getId() {
+		return i < size ? ids[i] : EOL;
+	}
+
+	public int getFrequency() {
+		return tfs[i];
+	}
+
+	public int getDocumentLength() {
+		return lengths == null ? 0 : lengths[i];
+	}
+
+	public void setId(int id) {
+		ids[i] = id;
+	}
+
+	public WritablePosting asWritablePosting() {
+		return new BasicPostingImpl(ids[i], tfs[i]);
+	}
+
+	public void close() {
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.structures.postings;
+
+import java.io.IOException;
+
+/**
+ * Merges on the fly the posting lists of the terms of a conflation class, so
+ * that they look like the posting list of their stem: the postings are
+ * returned in docid order and the frequency of each posting is the sum of the
+ * frequencies of the merged terms in the document. Conflation classes are
+ * small, hence the members are scanned linearly rather than kept in a heap.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class ConflatedIterablePosting implements IterablePosting {
+
+	/** The posting lists being merged */
+	protected final IterablePosting[] postings;
+
+	/** The current docid of each posting list, EOL once exhausted */
+	protected final int[] ids;
+
+	/** Whether next() has been called */
+	protected boolean started = false;
+
+	/** The current docid, EOL once all the posting lists are exhausted */
+	protected int id = EOL;
+
+	/** The frequency of the current posting */
+	protected int tf = 0;
+
+	/** The posting list providing the length of the current document */
+	protected int lengthSource = -1;
+
+	/**
+	 * constructor
+	 * 
+	 * @param postings
+	 *            the posting lists to merge, positioned before their first
+	 *            posting
+	 */
+	public ConflatedIterablePosting(IterablePosting[] postings) {
+		this.postings = postings;
+		this.ids = new int[postings.length];
+	}
+
+	public int next() throws IOException {
+		if (!started) {
+			started = true;
+			for (int i = 0; i < postings.length; i++) {
+				ids[i] = postings[i].next();
+			}
+			return merge();
+		}
+		if (id == EOL) {
+			return EOL;
+		}
+		for (int i = 0; i < postings.length; i++) {
+			if (ids[i] == id) {
+				ids[i] = postings[i].next();
+			}
+		}
+		return merge();
+	}
+
+	public int next(int target) throws IOException {
+		if (!started) {
+			started = true;
+			for (int i = 0; i < postings.length; i++) {
+				ids[i] = postings[i].next(target);
+			}
+			return merge();
+		}
+		if (id == EOL) {
+			return EOL;
+		}
+		if (target <= id) {
+			return next();
+		}
+		for (int i = 0; i < postings.length; i++) {
+			if (ids[i] != EOL && ids[i] < target) {
+				ids[i] = postings[i].next(target);
+			}
+		}
+		return merge();
+	}
+
+	/**
+	 * Moves to the smallest current docid of the posting lists which are not
+	 * exhausted, or to EOL if they all are, and sums the frequencies of the
+	 * lists positioned on it.
+	 */
+	private int merge() {
+		int min = Integer.MAX_VALUE;
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i] != EOL && ids[i] < min) {
+				min = ids[i];
+			}
+		}
+		tf = 0;
+		lengthSource = -1;
+		if (min == Integer.MAX_VALUE) {
+			id = EOL;
+			return id;
+		}
+		id = min;
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i] == min) {
+				tf += postings[i].getFrequency();
+				lengthSource = i;
+			}
+		}
+		return id;
+	}
+
+	public boolean endOfPostings() {
+		return started && id == EOL;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public int getFrequency() {
+		return tf;
+	}
+
+	public int getDocumentLength() {
+		return lengthSource < 0 ? 0 : postings[lengthSource].getDocumentLength();
+	}
+
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	public WritablePosting asWritablePosting() {
+		return new BasicPostingImpl(id, tf);
+	}
+
+	public void close() throws IOException {
+		for (IterablePosting posting : postings) {
+			posting.close();
+		}
+	}
+}
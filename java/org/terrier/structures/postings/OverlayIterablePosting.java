@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.structures.postings;
+
+import java.io.IOException;
+
+import org.terrier.structures.DocumentIndex;
+
+/**
+ * Posting list of a shared posting file, whose document lengths are taken from
+ * the document index of a stoplist variant rather than from the index the
+ * postings belong to.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class OverlayIterablePosting implements IterablePosting {
+
+	/** The shared posting list */
+	protected final IterablePosting postings;
+
+	/** The document lengths of the variant */
+	protected final DocumentIndex documentIndex;
+
+	/**
+	 * constructor
+	 * 
+	 * @param postings
+	 *            the shared posting list
+	 * @param documentIndex
+	 *            the document lengths of the variant
+	 */
+	public OverlayIterablePosting(IterablePosting postings, DocumentIndex documentIndex) {
+		this.postings = postings;
+		this.documentIndex = documentIndex;
+	}
+
+	public int next() throws IOException {
+		return postings.next();
+	}
+
+	public int next(int target) throws IOException {
+		return postings.next(target);
+	}
+
+	public boolean endOfPostings() {
+		return postings.endOfPostings();
+	}
+
+	public int getId() {
+		return postings.getId();
+	}
+
+	public int getFrequency() {
+		return postings.getFrequency();
+	}
+
+	public int getDocumentLength() {
+		try {
+			return documentIndex.getDocumentLength(postings.getId());
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot read the length of document " + postings.getId(), e);
+		}
+	}
+
+	public void setId(int id) {
+		postings.setId(id);
+	}
+
+	public WritablePosting asWritablePosting() {
+		return new BasicPostingImpl(postings.getId(), postings.getFrequency());
+	}
+
+	public void close() throws IOException {
+		postings.close();
+	}
+}
@@ -29,9 +29,10 @@ import org.terrier.utility.ApplicationSetup;
 public class BasicNGramsTokenizer extends NGramsTermPipeline {
 
 	/**
-	 * The ngram value; default is 4
+	 * The ngram value; default is 4. It is read when the tokenizer is created,
+	 * so that pipelines with different ngram values can live in the same JVM.
 	 */
-	private static final int NGRAM = Integer.parseInt(ApplicationSetup.getProperty("tokeniser.ngram", "4"));
+	private final int ngram = Integer.parseInt(ApplicationSetup.getProperty("tokeniser.ngram", "4"));
 
 	/**
 	 * constructor
@@ -52,17 +53,17 @@ public class BasicNGramsTokenizer extends NGramsTermPipeline {
 	@Override
 	public String[] tokenize(String s) {
 
-		if (s.length() >= NGRAM) {
-			int ngramTokens = (s.length() - NGRAM) + 1;
+		if (s.length() >= ngram) {
+			int ngramTokens = (s.length() - ngram) + 1;
 			char[] sc = s.toCharArray();
 			String[] ngramsArr = new String[ngramTokens];
 
 			int pos = 0;
 
 			for (int i = 0; i < ngramTokens; i++) {
-				char[] tmpS = new char[NGRAM];
+				char[] tmpS = new char[ngram];
 
-				System.arraycopy(sc, pos, tmpS, 0, NGRAM);
+				System.arraycopy(sc, pos, tmpS, 0, ngram);
 
 				pos++;
 				ngramsArr[i] = new String(tmpS);
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.terms;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * Stemmer which looks the stems up in a {@link StemmingDictionary} built for
+ * the collection, instead of running the stemming algorithm on every token.
+ * Terms missing from the dictionary, e.g. query terms that never occur in the
+ * collection, are stemmed by the stemmer which produced the dictionary, which
+ * is created only when the first miss occurs. The dictionaries are loaded once
+ * per JVM.
+ * <p>
+ * <b>Properties:</b>
+ * <ul>
+ * <li><code>stemmer.dictionary.file</code> - the dictionary to use, relative
+ * to the etc directory; by default <code>data.stems</code>. It does not
+ * default to the index directory, which while indexing is that of the index
+ * being built.</li>
+ * </ul>
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class DictionaryStemmer extends StemmerTermPipeline {
+
+	/** The dictionaries loaded so far, keyed by file name */
+	private static final Map<String, StemmingDictionary> dictionaries = new HashMap<String, StemmingDictionary>();
+
+	private final StemmingDictionary dictionary;
+
+	/** The stemmer for the terms missing from the dictionary */
+	private Stemmer fallback = null;
+
+	/**
+	 * constructor
+	 */
+	public DictionaryStemmer() {
+		super();
+		dictionary = load();
+	}
+
+	/**
+	 * constructor
+	 * 
+	 * @param next
+	 */
+	public DictionaryStemmer(TermPipeline next) {
+		super(next);
+		dictionary = load();
+	}
+
+	@Override
+	public String stem(String term) {
+		String stem = dictionary.get(term);
+		if (stem != null) {
+			return stem;
+		}
+		if (fallback == null) {
+			fallback = StemmingDictionary.newStemmer(dictionary.getStemmerName());
+		}
+		return fallback.stem(term);
+	}
+
+	private static StemmingDictionary load() {
+		String filename = ApplicationSetup.makeAbsolute(
+				ApplicationSetup.getProperty("stemmer.dictionary.file", "data.stems"), ApplicationSetup.TERRIER_ETC);
+		synchronized (dictionaries) {
+			StemmingDictionary dictionary = dictionaries.get(filename);
+			if (dictionary == null) {
+				try {
+					dictionary = StemmingDictionary.read(filename);
+				} catch (IOException e) {
+					throw new IllegalStateException("Cannot read the stemming dictionary " + filename, e);
+				}
+				dictionaries.put(filename, dictionary);
+			}
+			return dictionary;
+		}
+	}
+}
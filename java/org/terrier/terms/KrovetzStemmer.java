@@ -146,7 +146,7 @@ public class KrovetzStemmer extends StemmerTermPipeline {
 		}
 	}
 
-	private static HashMap dict_ht = null;
+	private static volatile HashMap dict_ht = null;
 	// private int MaxCacheSize;
 	// private HashMap stem_ht = null;
 	private StringBuffer word;
@@ -196,29 +196,29 @@ public class KrovetzStemmer extends StemmerTermPipeline {
 			return;
 		}
 
-		dict_ht = new HashMap();
+		HashMap dict = new HashMap();
 		for (int i = 0; i < exceptionWords.length; i++) {
-			if (!dict_ht.containsKey(exceptionWords[i])) {
+			if (!dict.containsKey(exceptionWords[i])) {
 				entry = new DictEntry(exceptionWords[i], true);
-				dict_ht.put(exceptionWords[i], entry);
+				dict.put(exceptionWords[i], entry);
 			} else {
 				System.out.println("Warning: Entry [" + exceptionWords[i] + "] already in dictionary 1");
 			}
 		}
 
 		for (int i = 0; i < directConflations.length; i++) {
-			if (!dict_ht.containsKey(directConflations[i][0])) {
+			if (!dict.containsKey(directConflations[i][0])) {
 				entry = new DictEntry(directConflations[i][1], false);
-				dict_ht.put(directConflations[i][0], entry);
+				dict.put(directConflations[i][0], entry);
 			} else {
 				System.out.println("Warning: Entry [" + directConflations[i][0] + "] already in dictionary 2");
 			}
 		}
 
 		for (int i = 0; i < countryNationality.length; i++) {
-			if (!dict_ht.containsKey(countryNationality[i][0])) {
+			if (!dict.containsKey(countryNationality[i][0])) {
 				entry = new DictEntry(countryNationality[i][1], false);
-				dict_ht.put(countryNationality[i][0], entry);
+				dict.put(countryNationality[i][0], entry);
 			} else {
 				System.out.println("Warning: Entry [" + countryNationality[i][0] + "] already in dictionary 3");
 			}
@@ -230,8 +230,8 @@ public class KrovetzStemmer extends StemmerTermPipeline {
 		array = KStemData1.data;
 
 		for (int i = 0; i < array.length; i++) {
-			if (!dict_ht.containsKey(array[i])) {
-				dict_ht.put(array[i], defaultEntry);
+			if (!dict.containsKey(array[i])) {
+				dict.put(array[i], defaultEntry);
 			} else {
 				System.out.println("Warning: Entry [" + array[i] + "] already in dictionary 4");
 			}
@@ -239,8 +239,8 @@ public class KrovetzStemmer extends StemmerTermPipeline {
 
 		array = KStemData2.data;
 		for (int i = 0; i < array.length; i++) {
-			if (!dict_ht.containsKey(array[i])) {
-				dict_ht.put(array[i], defaultEntry);
+			if (!dict.containsKey(array[i])) {
+				dict.put(array[i], defaultEntry);
 			} else {
 				System.out.println("Warning: Entry [" + array[i] + "] already in dictionary 4");
 			}
@@ -248,8 +248,8 @@ public class KrovetzStemmer extends StemmerTermPipeline {
 
 		array = KStemData3.data;
 		for (int i = 0; i < array.length; i++) {
-			if (!dict_ht.containsKey(array[i])) {
-				dict_ht.put(array[i], defaultEntry);
+			if (!dict.containsKey(array[i])) {
+				dict.put(array[i], defaultEntry);
 			} else {
 				System.out.println("Warning: Entry [" + array[i] + "] already in dictionary 4");
 			}
@@ -257,8 +257,8 @@ public class KrovetzStemmer extends StemmerTermPipeline {
 
 		array = KStemData4.data;
 		for (int i = 0; i < array.length; i++) {
-			if (!dict_ht.containsKey(array[i])) {
-				dict_ht.put(array[i], defaultEntry);
+			if (!dict.containsKey(array[i])) {
+				dict.put(array[i], defaultEntry);
 			} else {
 				System.out.println("Warning: Entry [" + array[i] + "] already in dictionary 4");
 			}
@@ -266,8 +266,8 @@ public class KrovetzStemmer extends StemmerTermPipeline {
 
 		array = KStemData5.data;
 		for (int i = 0; i < array.length; i++) {
-			if (!dict_ht.containsKey(array[i])) {
-				dict_ht.put(array[i], defaultEntry);
+			if (!dict.containsKey(array[i])) {
+				dict.put(array[i], defaultEntry);
 			} else {
 				System.out.println("Warning: Entry [" + array[i] + "] already in dictionary 4");
 			}
@@ -275,8 +275,8 @@ public class KrovetzStemmer extends StemmerTermPipeline {
 
 		array = KStemData6.data;
 		for (int i = 0; i < array.length; i++) {
-			if (!dict_ht.containsKey(array[i])) {
-				dict_ht.put(array[i], defaultEntry);
+			if (!dict.containsKey(array[i])) {
+				dict.put(array[i], defaultEntry);
 			} else {
 				System.out.println("Warning: Entry [" + array[i] + "] already in dictionary 4");
 			}
@@ -284,36 +284,39 @@ public class KrovetzStemmer extends StemmerTermPipeline {
 
 		array = KStemData7.data;
 		for (int i = 0; i < array.length; i++) {
-			if (!dict_ht.containsKey(array[i])) {
-				dict_ht.put(array[i], defaultEntry);
+			if (!dict.containsKey(array[i])) {
+				dict.put(array[i], defaultEntry);
 			} else {
 				System.out.println("Warning: Entry [" + array[i] + "] already in dictionary 4");
 			}
 		}
 
 		for (int i = 0; i < KStemData8.data.length; i++) {
-			if (!dict_ht.containsKey(KStemData8.data[i])) {
-				dict_ht.put(KStemData8.data[i], defaultEntry);
+			if (!dict.containsKey(KStemData8.data[i])) {
+				dict.put(KStemData8.data[i], defaultEntry);
 			} else {
 				System.out.println("Warning: Entry [" + KStemData8.data[i] + "] already in dictionary 4");
 			}
 		}
 
 		for (int i = 0; i < supplementDict.length; i++) {
-			if (!dict_ht.containsKey(supplementDict[i])) {
-				dict_ht.put(supplementDict[i], defaultEntry);
+			if (!dict.containsKey(supplementDict[i])) {
+				dict.put(supplementDict[i], defaultEntry);
 			} else {
 				System.out.println("Warning: Entry [" + supplementDict[i] + "] already in dictionary 5");
 			}
 		}
 
 		for (int i = 0; i < properNouns.length; i++) {
-			if (!dict_ht.containsKey(properNouns[i])) {
-				dict_ht.put(properNouns[i], defaultEntry);
+			if (!dict.containsKey(properNouns[i])) {
+				dict.put(properNouns[i], defaultEntry);
 			} else {
 				System.out.println("Warning: Entry [" + properNouns[i] + "] already in dictionary 6");
 			}
 		}
+
+		/* publish the dictionary only once it is complete */
+		dict_ht = dict;
 	}
 
 	private boolean isAlpha(char ch) {
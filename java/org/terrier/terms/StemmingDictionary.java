@@ -0,0 +1,292 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.terms;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.indexing.TokenLogReader;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+
+/**
+ * A persisted map from the surface forms of a collection to their stems.
+ * Since stemming is a pure function of the surface form, each distinct term
+ * of the collection is stemmed exactly once, in parallel, and the
+ * {@link DictionaryStemmer} then replaces the stemmer with a single hash
+ * lookup, both at indexing and at querying time.
+ * <p>
+ * The vocabulary is read either from the lexicon of an unstemmed index or from
+ * a token log written by
+ * {@link org.terrier.indexing.TokenLogCaptureCollection}:
+ * 
+ * <pre>
+ * StemmingDictionary -index path prefix KrovetzStemmer data.stems [threads]
+ * StemmingDictionary -log tokens.log LovinsStemmer data.stems [threads]
+ * </pre>
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class StemmingDictionary {
+
+	protected static final Logger logger = LoggerFactory.getLogger(StemmingDictionary.class);
+
+	/** The name of the stemmer which produced the stems */
+	private final String stemmerName;
+
+	/** The stems, keyed by surface form */
+	private final Map<String, String> stems;
+
+	/**
+	 * constructor
+	 * 
+	 * @param stemmerName
+	 *            the name of the stemmer which produced the stems
+	 * @param stems
+	 *            the stems, keyed by surface form
+	 */
+	public StemmingDictionary(String stemmerName, Map<String, String> stems) {
+		this.stemmerName = stemmerName;
+		this.stems = stems;
+	}
+
+	/**
+	 * Returns the stem of the given term.
+	 * 
+	 * @param term
+	 *            the surface form
+	 * @return the stem, or null if the term is not in the dictionary
+	 */
+	public String get(String term) {
+		return stems.get(term);
+	}
+
+	/**
+	 * @return the number of terms in the dictionary
+	 */
+	public int size() {
+		return stems.size();
+	}
+
+	/**
+	 * @return the name of the stemmer which produced the stems
+	 */
+	public String getStemmerName() {
+		return stemmerName;
+	}
+
+	/**
+	 * Writes the dictionary, sorted by surface form.
+	 * 
+	 * @param filename
+	 *            the file to write
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void write(String filename) throws IOException {
+		String[] terms = stems.keySet().toArray(new String[stems.size()]);
+		Arrays.sort(terms);
+
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(filename)), 1 << 16));
+		try {
+			out.writeUTF(stemmerName);
+			out.writeInt(terms.length);
+			for (String term : terms) {
+				out.writeUTF(term);
+				out.writeUTF(stems.get(term));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads a dictionary written by {@link #write(String)}.
+	 * 
+	 * @param filename
+	 *            the file to read
+	 * @return the dictionary
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static StemmingDictionary read(String filename) throws IOException {
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(new FileInputStream(filename)), 1 << 16));
+		try {
+			String stemmerName = in.readUTF();
+			int size = in.readInt();
+			Map<String, String> stems = new HashMap<String, String>(size * 4 / 3 + 1);
+			for (int i = 0; i < size; i++) {
+				String term = in.readUTF();
+				String stem = in.readUTF();
+				stems.put(term, stem.equals(term) ? term : stem);
+			}
+			return new StemmingDictionary(stemmerName, stems);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Stems the given vocabulary with the given number of threads, each using
+	 * its own stemmer instance.
+	 * 
+	 * @param vocabulary
+	 *            the distinct surface forms
+	 * @param stemmerName
+	 *            the name of the stemmer; names without a package are looked
+	 *            up in <code>org.terrier.terms</code>
+	 * @param threads
+	 *            the number of threads; 0 or less for the number of
+	 *            available processors
+	 * @return the dictionary
+	 */
+	public static StemmingDictionary build(final String[] vocabulary, final String stemmerName, int threads) {
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		final String[] result = new String[vocabulary.length];
+		final int chunk = (vocabulary.length + threads - 1) / threads;
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Void>> tasks = new ArrayList<Future<Void>>(threads);
+		for (int from = 0; from < vocabulary.length; from += chunk) {
+			final int start = from;
+			final int end = Math.min(from + chunk, vocabulary.length);
+			tasks.add(pool.submit(new Callable<Void>() {
+				public Void call() {
+					Stemmer stemmer = newStemmer(stemmerName);
+					for (int i = start; i < end; i++) {
+						result[i] = stemmer.stem(vocabulary[i]);
+					}
+					return null;
+				}
+			}));
+		}
+		try {
+			for (Future<Void> task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while stemming", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Cannot stem the vocabulary with " + stemmerName, e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+
+		Map<String, String> stems = new HashMap<String, String>(vocabulary.length * 4 / 3 + 1);
+		for (int i = 0; i < vocabulary.length; i++) {
+			stems.put(vocabulary[i], result[i].equals(vocabulary[i]) ? vocabulary[i] : result[i]);
+		}
+		return new StemmingDictionary(stemmerName, stems);
+	}
+
+	/**
+	 * Creates a new instance of the given stemmer.
+	 * 
+	 * @param stemmerName
+	 *            the name of the stemmer; names without a package are looked
+	 *            up in <code>org.terrier.terms</code>
+	 * @return the stemmer
+	 */
+	public static Stemmer newStemmer(String stemmerName) {
+		String className = stemmerName.indexOf('.') < 0 ? "org.terrier.terms." + stemmerName : stemmerName;
+		try {
+			return Class.forName(className).asSubclass(Stemmer.class).getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Cannot create the stemmer " + className, e);
+		}
+	}
+
+	/**
+	 * Builds and writes the stemming dictionary of a collection.
+	 * 
+	 * @param args
+	 *            the vocabulary source, the stemmer, the output file and,
+	 *            optionally, the number of threads
+	 * @throws IOException
+	 *             if the vocabulary cannot be read or the dictionary written
+	 */
+	public static void main(String[] args) throws IOException {
+		int arg = 0;
+		Set<String> vocabulary = new HashSet<String>();
+
+		if (args.length >= 5 && args[0].equals("-index")) {
+			IndexOnDisk index = IndexOnDisk.createIndex(args[1], args[2]);
+			for (Map.Entry<String, LexiconEntry> entry : index.getLexicon()) {
+				vocabulary.add(entry.getKey());
+			}
+			index.close();
+			arg = 3;
+		} else if (args.length >= 4 && args[0].equals("-log")) {
+			TokenLogReader reader = new TokenLogReader(args[1]);
+			String token;
+			while (reader.nextDocument()) {
+				while ((token = reader.nextToken()) != null) {
+					vocabulary.add(token);
+				}
+			}
+			reader.close();
+			arg = 2;
+		} else {
+			System.err.println("Usage: StemmingDictionary (-index path prefix | -log tokenlog) stemmer output [threads]");
+			return;
+		}
+
+		String stemmerName = args[arg];
+		String output = args[arg + 1];
+		int threads = args.length > arg + 2 ? Integer.parseInt(args[arg + 2]) : 0;
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+
+		long start = System.currentTimeMillis();
+		StemmingDictionary dictionary = build(vocabulary.toArray(new String[vocabulary.size()]), stemmerName,
+				threads);
+		dictionary.write(output);
+
+		Set<String> distinctStems = new HashSet<String>(dictionary.stems.values());
+		logger.info("Stemmed {} terms into {} stems with {} on {} threads in {} ms", dictionary.size(),
+				distinctStems.size(), stemmerName, threads, System.currentTimeMillis() - start);
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.terms;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from terms to primitive int counts. Slots are probed
+ * linearly and the map remembers which slots it has filled, so that it can be
+ * cleared and reused from one document (or query) to the next without
+ * reallocating or sweeping the whole table. Entries can be visited in
+ * insertion order through {@link #term(int)} and {@link #count(int)}.
+ *
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ *
+ */
+public class TermCountMap {
+
+	/**
+	 * The default initial number of slots
+	 */
+	private static final int DEFAULT_CAPACITY = 256;
+
+	/**
+	 * The keys of the table; null marks a free slot
+	 */
+	private String[] keys;
+
+	/**
+	 * The counts of the table, parallel to keys
+	 */
+	private int[] counts;
+
+	/**
+	 * The filled slots, in insertion order
+	 */
+	private int[] filled;
+
+	/**
+	 * The number of entries in the map
+	 */
+	private int size;
+
+	/**
+	 * The table size minus one; the table size is always a power of two
+	 */
+	private int mask;
+
+	/**
+	 * constructor
+	 */
+	public TermCountMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * constructor
+	 *
+	 * @param expected
+	 *            the number of distinct terms expected
+	 */
+	public TermCountMap(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(expected, 2) * 2 - 1) << 1;
+		keys = new String[capacity];
+		counts = new int[capacity];
+		filled = new int[capacity >> 1];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Adds one occurrence of the given term.
+	 *
+	 * @param term
+	 *            the term to count
+	 * @return the count of the term after the update
+	 */
+	public int add(String term) {
+		return add(term, 1);
+	}
+
+	/**
+	 * Adds the given number of occurrences of the given term.
+	 *
+	 * @param term
+	 *            the term to count
+	 * @param count
+	 *            the occurrences to add
+	 * @return the count of the term after the update
+	 */
+	public int add(String term, int count) {
+		int slot = slot(term);
+		if (keys[slot] == null) {
+			keys[slot] = term;
+			counts[slot] = count;
+			filled[size++] = slot;
+			if (size == filled.length) {
+				grow();
+			}
+			return count;
+		}
+		return counts[slot] += count;
+	}
+
+	/**
+	 * Returns the count of the given term, 0 if it is not in the map.
+	 *
+	 * @param term
+	 *            the term to look up
+	 * @return the count of the term
+	 */
+	public int get(String term) {
+		int slot = slot(term);
+		return keys[slot] == null ? 0 : counts[slot];
+	}
+
+	/**
+	 * @return the number of distinct terms in the map
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param i
+	 *            the insertion rank of an entry, between 0 and size() - 1
+	 * @return the term of the i-th entry
+	 */
+	public String term(int i) {
+		return keys[filled[i]];
+	}
+
+	/**
+	 * @param i
+	 *            the insertion rank of an entry, between 0 and size() - 1
+	 * @return the count of the i-th entry
+	 */
+	public int count(int i) {
+		return counts[filled[i]];
+	}
+
+	/**
+	 * Removes all the entries, touching only the slots that were filled.
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			keys[filled[i]] = null;
+		}
+		size = 0;
+	}
+
+	/**
+	 * Finds the slot holding the given term, or the free slot where it should
+	 * be inserted.
+	 */
+	private int slot(String term) {
+		int h = term.hashCode() * 0x9E3779B9;
+		int slot = (h ^ (h >>> 16)) & mask;
+		String key;
+		while ((key = keys[slot]) != null && !key.equals(term)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Doubles the table, reinserting the entries in insertion order.
+	 */
+	private void grow() {
+		String[] oldKeys = keys;
+		int[] oldCounts = counts;
+		int[] oldFilled = filled;
+
+		keys = new String[oldKeys.length << 1];
+		counts = new int[keys.length];
+		filled = Arrays.copyOf(oldFilled, keys.length >> 1);
+		mask = keys.length - 1;
+
+		for (int i = 0; i < size; i++) {
+			int slot = slot(oldKeys[oldFilled[i]]);
+			keys[slot] = oldKeys[oldFilled[i]];
+			counts[slot] = oldCounts[oldFilled[i]];
+			filled[i] = slot;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.terms;
+
+/**
+ * Collects the terms of a document into <code>(term, tf)</code> pairs and
+ * passes them onto the next object in the term pipeline when the pipeline is
+ * reset at the end of the document. Mostly useful at the end of the
+ * BasicNGramsTokenizer pipelines, where a document emits the same gram many
+ * times, e.g.
+ * 
+ * <pre>
+ * termpipelines = Stopwords,BasicNGramsTokenizer,TermFrequencyAggregator
+ * </pre>
+ * 
+ * If the next object is a {@link TermFrequencyPipeline} it receives each term
+ * once with its frequency; otherwise each term is replayed tf times. The
+ * per-occurrence work of the indexer is only saved if the pipeline ends in a
+ * {@link TermFrequencyPipeline}, as with
+ * <code>trec.indexer.class = TermFrequencyIndexer</code>; the
+ * BasicIndexer's own end of pipeline gets every occurrence replayed. Since
+ * the order of the occurrences is lost, it must be used only for
+ * bag-of-words indexes, i.e. without blocks and fields.
+ * <p>
+ * The terms are passed on only when the pipeline is reset, which the
+ * indexers do at the end of each document but the query pipeline never
+ * does: the stage is meant for indexing only, and must not be part of the
+ * <code>termpipelines</code> used to process the queries.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class TermFrequencyAggregator implements TermFrequencyPipeline {
+
+	protected final TermPipeline next;
+
+	/**
+	 * The terms of the current document; reused across documents
+	 */
+	protected final TermCountMap terms = new TermCountMap();
+
+	/**
+	 * constructor
+	 */
+	public TermFrequencyAggregator() {
+		this(null);
+	}
+
+	/**
+	 * constructor
+	 * 
+	 * @param next
+	 */
+	public TermFrequencyAggregator(TermPipeline next) {
+		this.next = next;
+	}
+
+	/**
+	 * Counts an occurrence of the given term in the current document.
+	 * 
+	 * @param t
+	 *            String the term to count.
+	 */
+	public void processTerm(String t) {
+		if (t == null) {
+			return;
+		}
+		terms.add(t);
+	}
+
+	/**
+	 * Counts tf occurrences of the given term in the current document.
+	 * 
+	 * @param t
+	 *            String the term to count.
+	 * @param tf
+	 *            int the number of occurrences.
+	 */
+	public void processTerm(String t, int tf) {
+		if (t == null) {
+			return;
+		}
+		terms.add(t, tf);
+	}
+
+	/**
+	 * Passes the aggregated terms onto the next object in the pipeline and then
+	 * resets it.
+	 * 
+	 * @return return how the reset has gone
+	 */
+	public boolean reset() {
+		flush();
+		return next != null ? next.reset() : true;
+	}
+
+	/**
+	 * Passes the aggregated terms onto the next object in the pipeline.
+	 */
+	protected void flush() {
+		if (next instanceof TermFrequencyPipeline) {
+			TermFrequencyPipeline tfNext = (TermFrequencyPipeline) next;
+			for (int i = 0; i < terms.size(); i++) {
+				tfNext.processTerm(terms.term(i), terms.count(i));
+			}
+		} else if (next != null) {
+			for (int i = 0; i < terms.size(); i++) {
+				String term = terms.term(i);
+				for (int tf = terms.count(i); tf > 0; tf--) {
+					next.processTerm(term);
+				}
+			}
+		}
+		terms.clear();
+	}
+}
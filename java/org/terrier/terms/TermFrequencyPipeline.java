@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.terms;
+
+/**
+ * Interface for the TermPipeline objects that can receive a term together with
+ * the number of its occurrences, so that aggregated counts can be passed down
+ * the pipeline once per term type instead of once per occurrence.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public interface TermFrequencyPipeline extends TermPipeline {
+
+	/**
+	 * Processes the given term as if it occurred tf times.
+	 * 
+	 * @param t
+	 *            String the term to process.
+	 * @param tf
+	 *            int the number of occurrences of the term.
+	 */
+	void processTerm(String t, int tf);
+}
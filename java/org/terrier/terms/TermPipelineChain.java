@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.terms;
+
+/**
+ * Builds a chain of TermPipeline objects from a comma separated list of class
+ * names, in the same way as the <code>termpipelines</code> property is
+ * interpreted by Terrier. Names without a package are looked up in
+ * <code>org.terrier.terms</code>.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public final class TermPipelineChain {
+
+	private TermPipelineChain() {
+	}
+
+	/**
+	 * Returns the first object of the chain described by names, whose last
+	 * object passes the terms onto end.
+	 * 
+	 * @param names
+	 *            comma separated list of TermPipeline class names; may be
+	 *            empty.
+	 * @param end
+	 *            the object receiving the output of the chain.
+	 * @return the first object of the chain, or end if names is empty.
+	 */
+	public static TermPipeline create(String names, TermPipeline end) {
+		TermPipeline next = end;
+		String[] stages = names.trim().split("\\s*,\\s*");
+
+		for (int i = stages.length - 1; i >= 0; i--) {
+			if (stages[i].length() == 0) {
+				continue;
+			}
+			String className = stages[i].indexOf('.') < 0 ? "org.terrier.terms." + stages[i] : stages[i];
+			try {
+				next = Class.forName(className).asSubclass(TermPipeline.class).getConstructor(TermPipeline.class)
+						.newInstance(next);
+			} catch (Exception e) {
+				throw new IllegalArgumentException("Cannot create the TermPipeline object " + className, e);
+			}
+		}
+		return next;
+	}
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.terms;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.indexing.Collection;
+import org.terrier.indexing.Document;
+import org.terrier.indexing.TRECCollection;
+import org.terrier.utility.ApplicationSetup;
+import org.terrier.utility.CountMinSketch;
+import org.terrier.utility.HyperLogLog;
+
+/**
+ * Passes the terms onto the next object in the term pipeline unchanged while
+ * sketching the vocabulary they make: the number of distinct terms with a
+ * {@link HyperLogLog}, the most frequent terms (or grams) with a
+ * {@link CountMinSketch}, and the exact numbers of documents, tokens and
+ * postings. Placed at the end of the pipeline it sees exactly the terms that
+ * are indexed, e.g.
+ * 
+ * <pre>
+ * termpipelines = Stopwords,BasicNGramsTokenizer,VocabularySketch
+ * </pre>
+ * 
+ * The estimates are written to a summary file next to the index every
+ * <code>vocabulary.sketch.interval</code> documents and once the indexing is
+ * over, together with the heap needed by the lexicon and by the in-memory inversion
+ * and a fit of Heaps' law, V = K n<sup>&beta;</sup>, from which the
+ * vocabulary of a larger collection can be extrapolated. The {@link #main}
+ * method profiles a sample of the collection without indexing it.
+ * <p>
+ * The indexing applications tell the sketches of each index where to write
+ * through {@link #setSummaryFile(File)}, since the pipelines of several
+ * indexes may be created in the same JVM, and write and release them all
+ * through {@link #writeAll()} once their indexes are built. The sketches
+ * left are written by a single shutdown hook.
+ * <p>
+ * <b>Properties:</b>
+ * <ul>
+ * <li><code>vocabulary.sketch.file</code> - the summary file when it is not
+ * set by the indexing application, by default
+ * <code>terrier.index.path/terrier.index.prefix.sketch</code>.</li>
+ * <li><code>vocabulary.sketch.interval</code> - documents between two
+ * writes of the summary, default 100000.</li>
+ * <li><code>vocabulary.sketch.width</code> - the counters of each row of
+ * the count-min sketch, default 262144.</li>
+ * <li><code>vocabulary.sketch.top</code> - the number of frequent terms
+ * reported, default 100.</li>
+ * <li><code>vocabulary.sketch.bytes.per.term</code> - the heap of a lexicon
+ * entry during indexing, default 128.</li>
+ * <li><code>vocabulary.sketch.bytes.per.pointer</code> - the heap of a
+ * posting during the in-memory inversion, default 16.</li>
+ * </ul>
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class VocabularySketch implements TermFrequencyPipeline {
+
+	protected static final Logger logger = LoggerFactory.getLogger(VocabularySketch.class);
+
+	/** The number of tokens of the first Heaps' law checkpoint */
+	private static final long FIRST_CHECKPOINT = 1L << 16;
+
+	/** The summary file of the sketches created by the current thread */
+	private static final ThreadLocal<File> summaryFile = new ThreadLocal<File>();
+
+	/** The sketches whose summary has not been written at the end yet */
+	private static final List<VocabularySketch> sketches = new ArrayList<VocabularySketch>();
+
+	/** The shutdown hook writing the sketches left, registered once */
+	private static Thread shutdownHook = null;
+
+	protected final TermPipeline next;
+
+	/** The distinct terms */
+	protected final HyperLogLog distinct = new HyperLogLog();
+
+	/** The frequencies of the terms */
+	protected final CountMinSketch frequent;
+
+	/** The distinct terms of the current document */
+	protected final TermCountMap document = new TermCountMap();
+
+	/** The summary file, null to keep the sketch in memory only */
+	protected final File file;
+
+	private final int interval = Integer.parseInt(ApplicationSetup.getProperty("vocabulary.sketch.interval", "100000"));
+
+	private final long bytesPerTerm = Long
+			.parseLong(ApplicationSetup.getProperty("vocabulary.sketch.bytes.per.term", "128"));
+
+	private final long bytesPerPointer = Long
+			.parseLong(ApplicationSetup.getProperty("vocabulary.sketch.bytes.per.pointer", "16"));
+
+	protected long documents = 0;
+
+	protected long tokens = 0;
+
+	protected long postings = 0;
+
+	/** The tokens and distinct terms of the last two Heaps' law checkpoints */
+	private final long[] checkpoints = new long[4];
+
+	private long nextCheckpoint = FIRST_CHECKPOINT;
+
+	/**
+	 * constructor
+	 */
+	public VocabularySketch() {
+		this(null);
+	}
+
+	/**
+	 * constructor, writing to the summary file set for the current thread or,
+	 * if none, to that of the properties
+	 * 
+	 * @param next
+	 */
+	public VocabularySketch(TermPipeline next) {
+		this(next, summaryFile.get() != null ? summaryFile.get()
+				: new File(ApplicationSetup.getProperty("vocabulary.sketch.file",
+						ApplicationSetup.TERRIER_INDEX_PATH + "/" + ApplicationSetup.TERRIER_INDEX_PREFIX + ".sketch")));
+		register(this);
+	}
+
+	/**
+	 * constructor
+	 * 
+	 * @param next
+	 *            the next object of the pipeline, may be null
+	 * @param file
+	 *            the summary file, null to keep the sketch in memory only
+	 */
+	public VocabularySketch(TermPipeline next, File file) {
+		this.next = next;
+		this.file = file;
+		this.frequent = new CountMinSketch(
+				Integer.parseInt(ApplicationSetup.getProperty("vocabulary.sketch.width", "262144")), 4,
+				Integer.parseInt(ApplicationSetup.getProperty("vocabulary.sketch.top", "100")));
+	}
+
+	/**
+	 * Sets the summary file of the sketches created by the current thread,
+	 * i.e. by the term pipeline of the indexer it creates.
+	 * 
+	 * @param file
+	 *            the summary file, null to use that of the properties
+	 */
+	public static void setSummaryFile(File file) {
+		if (file == null) {
+			summaryFile.remove();
+		} else {
+			summaryFile.set(file);
+		}
+	}
+
+	private static synchronized void register(VocabularySketch sketch) {
+		if (shutdownHook == null) {
+			shutdownHook = new Thread() {
+				public void run() {
+					writeAll();
+				}
+			};
+			Runtime.getRuntime().addShutdownHook(shutdownHook);
+		}
+		sketches.add(sketch);
+	}
+
+	/**
+	 * Writes the summaries of the sketches created by the term pipelines so
+	 * far and releases them, once their indexes are built.
+	 */
+	public static void writeAll() {
+		List<VocabularySketch> written;
+		synchronized (VocabularySketch.class) {
+			written = new ArrayList<VocabularySketch>(sketches);
+			sketches.clear();
+		}
+		for (VocabularySketch sketch : written) {
+			sketch.write();
+		}
+	}
+
+	/**
+	 * Sketches the given term and passes it onto the next object.
+	 * 
+	 * @param t
+	 *            String the term to sketch.
+	 */
+	public void processTerm(String t) {
+		if (t == null) {
+			return;
+		}
+		sketch(t, 1);
+		if (next != null) {
+			next.processTerm(t);
+		}
+	}
+
+	/**
+	 * Sketches tf occurrences of the given term and passes them onto the next
+	 * object.
+	 * 
+	 * @param t
+	 *            String the term to sketch.
+	 * @param tf
+	 *            int the number of occurrences.
+	 */
+	public void processTerm(String t, int tf) {
+		if (t == null) {
+			return;
+		}
+		sketch(t, tf);
+		if (next instanceof TermFrequencyPipeline) {
+			((TermFrequencyPipeline) next).processTerm(t, tf);
+		} else if (next != null) {
+			for (int i = 0; i < tf; i++) {
+				next.processTerm(t);
+			}
+		}
+	}
+
+	private void sketch(String t, int tf) {
+		if (document.add(t, tf) == tf) {
+			distinct.add(t);
+		}
+		frequent.add(t, tf);
+		tokens += tf;
+	}
+
+	/**
+	 * Ends the current document and resets the next object.
+	 * 
+	 * @return return how the reset has gone
+	 */
+	public boolean reset() {
+		if (document.size() > 0) {
+			documents++;
+			postings += document.size();
+			document.clear();
+			if (tokens >= nextCheckpoint) {
+				checkpoints[0] = checkpoints[2];
+				checkpoints[1] = checkpoints[3];
+				checkpoints[2] = tokens;
+				checkpoints[3] = distinct.estimate();
+				while (nextCheckpoint <= tokens) {
+					nextCheckpoint <<= 1;
+				}
+			}
+			if (file != null && documents % interval == 0) {
+				write();
+			}
+		}
+		return next != null ? next.reset() : true;
+	}
+
+	/**
+	 * @return the estimated number of distinct terms
+	 */
+	public long getDistinctTerms() {
+		return distinct.estimate();
+	}
+
+	/**
+	 * @return the number of postings, i.e. of distinct terms of each document
+	 */
+	public long getPostings() {
+		return postings;
+	}
+
+	/**
+	 * @return the number of tokens
+	 */
+	public long getTokens() {
+		return tokens;
+	}
+
+	/**
+	 * @return the number of non-empty documents
+	 */
+	public long getDocuments() {
+		return documents;
+	}
+
+	/**
+	 * Writes the summary to the summary file, logging rather than throwing
+	 * the failures since the indexing must go on.
+	 */
+	public synchronized void write() {
+		if (file == null || documents == 0) {
+			return;
+		}
+		try {
+			Writer out = new FileWriter(file);
+			try {
+				write(out, 0);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			logger.warn("Cannot write the vocabulary sketch " + file, e);
+		}
+	}
+
+	/**
+	 * Writes the summary, extrapolating it to a collection of the given size.
+	 * 
+	 * @param out
+	 *            the writer to write to
+	 * @param expectedDocuments
+	 *            the number of documents of the whole collection, 0 not to
+	 *            extrapolate
+	 * @throws IOException
+	 *             if the summary cannot be written
+	 */
+	public void write(Writer out, long expectedDocuments) throws IOException {
+		long terms = distinct.estimate();
+		out.write("documents=" + documents + "\n");
+		out.write("tokens=" + tokens + "\n");
+		out.write("postings=" + postings + "\n");
+		out.write("distinct.terms=" + terms + "\n");
+		out.write("lexicon.heap.bytes=" + terms * bytesPerTerm + "\n");
+		out.write("inversion.heap.bytes=" + postings * bytesPerPointer + "\n");
+
+		double beta = Double.NaN;
+		double k = Double.NaN;
+		if (checkpoints[0] > 0 && checkpoints[1] > 0 && checkpoints[3] > checkpoints[1]) {
+			beta = Math.log((double) checkpoints[3] / checkpoints[1])
+					/ Math.log((double) checkpoints[2] / checkpoints[0]);
+			k = checkpoints[3] / Math.pow(checkpoints[2], beta);
+			out.write(String.format("heaps.k=%.4f%nheaps.beta=%.4f%n", k, beta));
+		}
+		if (expectedDocuments > 0 && !Double.isNaN(beta)) {
+			double scale = (double) expectedDocuments / documents;
+			long expectedTerms = Math.round(k * Math.pow(tokens * scale, beta));
+			long expectedPostings = Math.round(postings * scale);
+			out.write("expected.documents=" + expectedDocuments + "\n");
+			out.write("expected.tokens=" + Math.round(tokens * scale) + "\n");
+			out.write("expected.postings=" + expectedPostings + "\n");
+			out.write("expected.distinct.terms=" + expectedTerms + "\n");
+			out.write("expected.lexicon.heap.bytes=" + expectedTerms * bytesPerTerm + "\n");
+			out.write("expected.inversion.heap.bytes=" + expectedPostings * bytesPerPointer + "\n");
+		}
+
+		int rank = 1;
+		for (Map.Entry<String, Long> entry : frequent.getTop()) {
+			out.write("top." + rank++ + "=" + entry.getKey() + "\t" + entry.getValue() + "\n");
+		}
+	}
+
+	/**
+	 * Profiles the collection of collection.spec through the
+	 * <code>termpipelines</code>, without indexing it, and writes the summary
+	 * to the standard output.
+	 * 
+	 * @param args
+	 *            optionally, the number of documents to profile and the number
+	 *            of documents of the whole collection, to extrapolate to
+	 * @throws IOException
+	 *             if the collection cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		long limit = args.length > 0 ? Long.parseLong(args[0]) : Long.MAX_VALUE;
+		long expected = args.length > 1 ? Long.parseLong(args[1]) : 0;
+
+		VocabularySketch sketch = new VocabularySketch(null, null);
+		TermPipeline pipeline = TermPipelineChain.create(ApplicationSetup.getProperty("termpipelines", ""), sketch);
+		Collection collection = new TRECCollection();
+		long start = System.currentTimeMillis();
+		long read = 0;
+		while (read < limit && collection.nextDocument()) {
+			Document document = collection.getDocument();
+			if (document == null) {
+				continue;
+			}
+			read++;
+			String term;
+			while (!document.endOfDocument()) {
+				if ((term = document.getNextTerm()) != null && term.length() > 0) {
+					pipeline.processTerm(term);
+				}
+			}
+			pipeline.reset();
+		}
+		collection.close();
+		logger.info("Profiled {} documents in {} ms", read, System.currentTimeMillis() - start);
+
+		Writer out = new OutputStreamWriter(System.out);
+		sketch.write(out, expected);
+		out.flush();
+	}
+}
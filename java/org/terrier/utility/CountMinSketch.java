@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.utility;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Count-min sketch estimating the frequencies of the strings of a stream,
+ * with conservative update, together with the k strings of largest estimated
+ * frequency. The estimates never fall below the true frequencies and exceed
+ * them by at most 2N/width with probability 1 - 2<sup>-depth</sup>, N being
+ * the total count added.
+ * <p>
+ * The heavy hitters are kept in a map of k candidates; the smallest candidate
+ * count is tracked as a lower bound, so that the candidates are scanned only
+ * when a string may enter them.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class CountMinSketch {
+
+	/** The counters, one row per hash function */
+	protected final long[][] counters;
+
+	/** The number of counters of each row minus one; the width is a power of two */
+	protected final int mask;
+
+	/** The number of heavy hitters kept */
+	protected final int k;
+
+	/** The heavy hitters and their estimated frequencies */
+	protected final Map<String, long[]> top;
+
+	/** A lower bound of the smallest frequency among the heavy hitters */
+	protected long minimum = 0;
+
+	/** The total count added */
+	protected long total = 0;
+
+	/**
+	 * constructor
+	 * 
+	 * @param width
+	 *            the number of counters of each row, rounded up to a power of
+	 *            two
+	 * @param depth
+	 *            the number of rows
+	 * @param k
+	 *            the number of heavy hitters to keep
+	 */
+	public CountMinSketch(int width, int depth, int k) {
+		int w = Integer.highestOneBit(Math.max(width, 2) - 1) << 1;
+		this.counters = new long[depth][w];
+		this.mask = w - 1;
+		this.k = k;
+		this.top = new HashMap<String, long[]>(k * 2);
+	}
+
+	/**
+	 * Adds count occurrences of a string.
+	 * 
+	 * @param s
+	 *            the string to count
+	 * @param count
+	 *            the occurrences to add
+	 * @return the estimated frequency of the string after the update
+	 */
+	public long add(String s, int count) {
+		long hash = HyperLogLog.hash(s);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < counters.length; row++) {
+			estimate = Math.min(estimate, counters[row][(h1 + row * h2) & mask]);
+		}
+		estimate += count;
+		for (int row = 0; row < counters.length; row++) {
+			int column = (h1 + row * h2) & mask;
+			if (counters[row][column] < estimate) {
+				counters[row][column] = estimate;
+			}
+		}
+		total += count;
+		offer(s, estimate);
+		return estimate;
+	}
+
+	/**
+	 * Returns the estimated frequency of a string.
+	 * 
+	 * @param s
+	 *            the string to look up
+	 * @return the estimated frequency
+	 */
+	public long estimate(String s) {
+		long hash = HyperLogLog.hash(s);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < counters.length; row++) {
+			estimate = Math.min(estimate, counters[row][(h1 + row * h2) & mask]);
+		}
+		return estimate;
+	}
+
+	/**
+	 * Updates the heavy hitters with the new estimate of a string.
+	 */
+	private void offer(String s, long estimate) {
+		long[] count = top.get(s);
+		if (count != null) {
+			count[0] = estimate;
+			return;
+		}
+		if (top.size() < k) {
+			top.put(s, new long[] { estimate });
+			minimum = top.size() == k ? smallest().getValue()[0] : 0;
+			return;
+		}
+		if (k == 0 || estimate <= minimum) {
+			return;
+		}
+		Map.Entry<String, long[]> smallest = smallest();
+		if (estimate > smallest.getValue()[0]) {
+			top.remove(smallest.getKey());
+			top.put(s, new long[] { estimate });
+			smallest = smallest();
+		}
+		minimum = smallest.getValue()[0];
+	}
+
+	private Map.Entry<String, long[]> smallest() {
+		Map.Entry<String, long[]> smallest = null;
+		for (Map.Entry<String, long[]> entry : top.entrySet()) {
+			if (smallest == null || entry.getValue()[0] < smallest.getValue()[0]) {
+				smallest = entry;
+			}
+		}
+		return smallest;
+	}
+
+	/**
+	 * @return the heavy hitters, by decreasing estimated frequency
+	 */
+	public List<Map.Entry<String, Long>> getTop() {
+		List<Map.Entry<String, Long>> result = new ArrayList<Map.Entry<String, Long>>(top.size());
+		for (Map.Entry<String, long[]> entry : top.entrySet()) {
+			result.add(new AbstractMap.SimpleImmutableEntry<String, Long>(entry.getKey(),
+					entry.getValue()[0]));
+		}
+		Collections.sort(result, new Comparator<Map.Entry<String, Long>>() {
+			public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+				int c = Long.compare(b.getValue(), a.getValue());
+				return c != 0 ? c : a.getKey().compareTo(b.getKey());
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @return the total count added
+	 */
+	public long getTotal() {
+		return total;
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.utility;
+
+/**
+ * HyperLogLog sketch estimating the number of distinct strings of a stream in
+ * 2<sup>p</sup> bytes, with a relative standard error of about
+ * 1.04/sqrt(2<sup>p</sup>), i.e. 0.8% for the default precision of 14. Small
+ * cardinalities are estimated by linear counting of the empty registers.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class HyperLogLog {
+
+	/** The number of bits of the hash selecting the register */
+	protected final int p;
+
+	/** The largest number of leading zeros seen by each register, plus one */
+	protected final byte[] registers;
+
+	/**
+	 * constructor, with precision 14
+	 */
+	public HyperLogLog() {
+		this(14);
+	}
+
+	/**
+	 * constructor
+	 * 
+	 * @param p
+	 *            the precision, between 4 and 18
+	 */
+	public HyperLogLog(int p) {
+		if (p < 4 || p > 18) {
+			throw new IllegalArgumentException("The precision must be between 4 and 18: " + p);
+		}
+		this.p = p;
+		this.registers = new byte[1 << p];
+	}
+
+	/**
+	 * Returns a 64-bit hash of a string: FNV-1a over its chars followed by the
+	 * MurmurHash3 finaliser, so that all the bits are well mixed.
+	 * 
+	 * @param s
+	 *            the string to hash
+	 * @return the hash of the string
+	 */
+	public static long hash(String s) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			h = (h ^ s.charAt(i)) * 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Adds a string to the sketch.
+	 * 
+	 * @param s
+	 *            the string to add
+	 */
+	public void add(String s) {
+		addHash(hash(s));
+	}
+
+	/**
+	 * Adds a hashed value to the sketch.
+	 * 
+	 * @param hash
+	 *            the 64-bit hash of the value
+	 */
+	public void addHash(long hash) {
+		int register = (int) (hash >>> (64 - p));
+		int rank = Long.numberOfLeadingZeros((hash << p) | (1L << (p - 1))) + 1;
+		if (rank > registers[register]) {
+			registers[register] = (byte) rank;
+		}
+	}
+
+	/**
+	 * Adds the values of another sketch with the same precision.
+	 * 
+	 * @param other
+	 *            the sketch to merge
+	 */
+	public void merge(HyperLogLog other) {
+		if (other.p != p) {
+			throw new IllegalArgumentException("Cannot merge sketches of precision " + p + " and " + other.p);
+		}
+		for (int i = 0; i < registers.length; i++) {
+			if (other.registers[i] > registers[i]) {
+				registers[i] = other.registers[i];
+			}
+		}
+	}
+
+	/**
+	 * @return the estimated number of distinct values added
+	 */
+	public long estimate() {
+		int m = registers.length;
+		double sum = 0;
+		int empty = 0;
+		for (byte register : registers) {
+			sum += 1d / (1L << register);
+			if (register == 0) {
+				empty++;
+			}
+		}
+		double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+		double estimate = alpha * m * m / sum;
+		if (estimate <= 2.5 * m && empty > 0) {
+			estimate = m * Math.log((double) m / empty);
+		}
+		return Math.round(estimate);
+	}
+}
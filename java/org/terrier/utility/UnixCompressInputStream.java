@@ -0,0 +1,246 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.utility;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decompresses the LZW format of the Unix <code>compress</code> utility, i.e.
+ * the <code>.Z</code> files in which several TREC collections are distributed.
+ * <p>
+ * Codes are packed from the least significant bit and start at 9 bits; the
+ * width grows by one bit whenever the table fills up, until the maximum width
+ * stored in the header. As in <code>compress</code> itself, codes are read in
+ * groups of eight, and the rest of the current group is skipped whenever the
+ * width changes or the table is cleared.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public class UnixCompressInputStream extends FilterInputStream {
+
+	private static final int MAGIC_1 = 0x1f;
+
+	private static final int MAGIC_2 = 0x9d;
+
+	private static final int INIT_BITS = 9;
+
+	private static final int CLEAR = 256;
+
+	private final boolean blockMode;
+
+	private final int maxBits;
+
+	private final int[] prefix;
+
+	private final byte[] suffix;
+
+	/** The bytes of the last decoded string, from stackTop to the end */
+	private final byte[] stack;
+
+	private int stackTop;
+
+	private int bits = INIT_BITS;
+
+	private int maxCode = (1 << INIT_BITS) - 1;
+
+	private int freeEntry;
+
+	private int oldCode = -1;
+
+	private int finalChar;
+
+	/** The codes read since the width last changed */
+	private long codesInGroup = 0;
+
+	private long bitBuffer = 0;
+
+	private int bitCount = 0;
+
+	private boolean eof = false;
+
+	/**
+	 * constructor
+	 * 
+	 * @param in
+	 *            the compressed stream
+	 * @throws IOException
+	 *             if the header cannot be read or is not a compress header
+	 */
+	public UnixCompressInputStream(InputStream in) throws IOException {
+		super(in);
+		if (in.read() != MAGIC_1 || in.read() != MAGIC_2) {
+			throw new IOException("Not in compress (.Z) format");
+		}
+		int flags = in.read();
+		if (flags < 0) {
+			throw new IOException("Truncated compress header");
+		}
+		blockMode = (flags & 0x80) != 0;
+		maxBits = flags & 0x1f;
+		if (maxBits < INIT_BITS || maxBits > 16) {
+			throw new IOException("Unsupported compress code width: " + maxBits);
+		}
+		prefix = new int[1 << maxBits];
+		suffix = new byte[1 << maxBits];
+		for (int i = 0; i < 256; i++) {
+			suffix[i] = (byte) i;
+		}
+		stack = new byte[1 << maxBits];
+		stackTop = stack.length;
+		freeEntry = blockMode ? CLEAR + 1 : CLEAR;
+	}
+
+	/**
+	 * Reads the next code, -1 at the end of the stream.
+	 */
+	private int readCode() throws IOException {
+		while (bitCount < bits) {
+			int b = in.read();
+			if (b < 0) {
+				return -1;
+			}
+			bitBuffer |= (long) b << bitCount;
+			bitCount += 8;
+		}
+		int code = (int) (bitBuffer & ((1 << bits) - 1));
+		bitBuffer >>>= bits;
+		bitCount -= bits;
+		codesInGroup++;
+		return code;
+	}
+
+	/**
+	 * Skips the rest of the current group of eight codes.
+	 */
+	private void skipGroup() throws IOException {
+		int skip = (int) ((8 - codesInGroup % 8) % 8);
+		for (int i = 0; i < skip; i++) {
+			if (readCode() < 0) {
+				break;
+			}
+		}
+		codesInGroup = 0;
+	}
+
+	/**
+	 * Decodes the next string onto the stack.
+	 * 
+	 * @return false at the end of the stream
+	 */
+	private boolean decode() throws IOException {
+		while (true) {
+			if (freeEntry > maxCode && bits < maxBits) {
+				skipGroup();
+				bits++;
+				maxCode = bits == maxBits ? 1 << maxBits : (1 << bits) - 1;
+			}
+			int code = readCode();
+			if (code < 0) {
+				return false;
+			}
+			if (oldCode == -1) {
+				if (code >= 256) {
+					throw new IOException("Corrupt compress stream: first code " + code);
+				}
+				oldCode = finalChar = code;
+				stack[--stackTop] = (byte) code;
+				return true;
+			}
+			if (code == CLEAR && blockMode) {
+				skipGroup();
+				bits = INIT_BITS;
+				maxCode = (1 << INIT_BITS) - 1;
+				freeEntry = CLEAR + 1;
+				oldCode = -1;
+				continue;
+			}
+			int inCode = code;
+			if (code >= freeEntry) {
+				if (code > freeEntry) {
+					throw new IOException("Corrupt compress stream: code " + code + " beyond " + freeEntry);
+				}
+				stack[--stackTop] = (byte) finalChar;
+				code = oldCode;
+			}
+			while (code >= 256) {
+				stack[--stackTop] = suffix[code];
+				code = prefix[code];
+			}
+			finalChar = code;
+			stack[--stackTop] = (byte) code;
+			if (freeEntry < prefix.length) {
+				prefix[freeEntry] = oldCode;
+				suffix[freeEntry] = (byte) finalChar;
+				freeEntry++;
+			}
+			oldCode = inCode;
+			return true;
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		int n = 0;
+		while (n < len) {
+			if (stackTop == stack.length) {
+				if (eof || !decode()) {
+					eof = true;
+					break;
+				}
+			}
+			int count = Math.min(len - n, stack.length - stackTop);
+			System.arraycopy(stack, stackTop, b, off + n, count);
+			stackTop += count;
+			n += count;
+		}
+		return n == 0 ? -1 : n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		byte[] buffer = new byte[(int) Math.min(n, 8192)];
+		long skipped = 0;
+		int count;
+		while (skipped < n && (count = read(buffer, 0, (int) Math.min(n - skipped, buffer.length))) > 0) {
+			skipped += count;
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return stack.length - stackTop;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
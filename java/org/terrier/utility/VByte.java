@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terrier.utility;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Variable-byte coding of non-negative integers: seven bits per byte, the
+ * high bit set on all the bytes but the last one.
+ * 
+ * @author <a href="mailto:silvello@dei.unipd.it">Gianmaria Silvello</a>
+ * @version 0.1
+ * @since 0.1
+ * 
+ */
+public final class VByte {
+
+	private VByte() {
+	}
+
+	/**
+	 * Writes the given value.
+	 * 
+	 * @param out
+	 *            the stream to write to
+	 * @param value
+	 *            the non-negative value to write
+	 * @throws IOException
+	 *             if the stream cannot be written
+	 */
+	public static void write(OutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	/**
+	 * Writes the given long value.
+	 * 
+	 * @param out
+	 *            the stream to write to
+	 * @param value
+	 *            the non-negative value to write
+	 * @throws IOException
+	 *             if the stream cannot be written
+	 */
+	public static void write(OutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	/**
+	 * Reads a value.
+	 * 
+	 * @param in
+	 *            the stream to read from
+	 * @return the value read
+	 * @throws IOException
+	 *             if the stream cannot be read or ends within a value
+	 */
+	public static int read(InputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			value |= (b & 0x7F) << shift;
+			if (b < 0x80) {
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * Reads a long value.
+	 * 
+	 * @param in
+	 *            the stream to read from
+	 * @return the value read
+	 * @throws IOException
+	 *             if the stream cannot be read or ends within a value
+	 */
+	public static long readLong(InputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			value |= (long) (b & 0x7F) << shift;
+			if (b < 0x80) {
+				return value;
+			}
+		}
+	}
+}
@@ -103,6 +103,11 @@ fi
 ## create the tmp dir for the corpus
 mkdir "$path"/corpus;
 
+## if true, the tokens are logged while building the first index and the other
+## indexes are built by replaying the log instead of parsing the corpus again
+useTokenLog=false;
+tokenLog="$path"/corpus/tokens.log;
+
 systemDir="terrier-4.1";
 
 # the system location
@@ -1056,6 +1061,15 @@ create_terrier_properties()
 	  else		
 	  		printf "termpipelines=\n">> "$file"
 	  fi
+
+      if [ "$useTokenLog" = true ]; then
+			if [ -f "$tokenLog" ]; then
+				printf "trec.collection.class=TokenLogCollection\n" >> "$file"
+			else
+				printf "trec.collection.class=TokenLogCaptureCollection\n" >> "$file"
+			fi
+			printf "tokenlog.file=%s\n" "$tokenLog" >> "$file"
+      fi
      
      printf "terrier.index.path=%s\n" "$currIndexDir">> "$file"
      